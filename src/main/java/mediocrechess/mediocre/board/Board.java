@@ -1,5 +1,7 @@
 package mediocrechess.mediocre.board;
 
+import java.util.Arrays;
+
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Logger;
@@ -21,6 +23,8 @@ import mediocrechess.mediocre.transtable.Zobrist;
 
 public class Board implements Definitions {
 	private static Logger logger = (Logger)LoggerFactory.getLogger(Mediocre.class);
+
+	public static final int BINARY_SIZE = 32; // Bytes used by getBinary() and inputBinary()
 	// ***
 	// Variables used to describe the position
 	// ***
@@ -53,9 +57,49 @@ public class Board implements Definitions {
 
 	public long zobristKey; // The zobrist key for the position
 	public long pawnZobristKey; // The zobrist key for the pawns
+
+	// Polyglot key without the en passant part (see getPolyglotKey()), only
+	// kept up to date if turned on with setPolyglotTracking()
+	public long polyglotKey;
+	public long[] polyglotHistory; // Polyglot keys for unmake, null if not tracking
+
+	// Accumulators of the neural network (see Nnue) for every position in the
+	// history, white's half followed by black's, null if not used. An
+	// accumulator is allocated when its history index is first reached
+	public short[][] nnueAccumulators;
+
+	// Running sums of material and piece square values for both sides, in
+	// the middle game and ending (see Evaluation.MATERIAL_MIDDLE etc)
+	public int w_materialMiddle;
+	public int w_materialEnding;
+	public int b_materialMiddle;
+	public int b_materialEnding;
+	public int w_piecePosMiddle;
+	public int w_piecePosEnding;
+	public int b_piecePosMiddle;
+	public int b_piecePosEnding;
+
+	// Phase weight of the pieces on the board (see Evaluation.PHASE_WEIGHT) and
+	// the game phase it gives, 0 (opening) to 256 (pawn ending)
+	public int phaseWeight;
+	public int gamePhase;
 	
 	public int[] tempArray; // Used for temporary things, like keeping a list of attacking squares (so we don't have to init it every time)
 
+	// Legality information for the side to move, indexed by historyIndex so
+	// a node keeps its information while its children are searched
+	public long[] legalityKey; // Zobrist key the information was computed for
+	public long[] pinnedPieces; // Pinned pieces of the side to move (bit 8*rank+file)
+	public int[] checkers; // Number of pieces giving check
+	public int[] checkerSquare; // Index of the (last found) checking piece, -1 if not in check
+
+	// Check information for the side to move (giving check to the opponent),
+	// used by givesCheck() and kept per historyIndex like the legality information
+	public long[] checkInfoKey; // Zobrist key the information was computed for
+	public long[] discoveredCheckers; // Own pieces that uncover a check if they leave their line to the enemy king
+	public long[] diagonalCheckSquares; // Squares a bishop or queen gives check from
+	public long[] straightCheckSquares; // Squares a rook or queen gives check from
+
 	public PieceList w_pawns;
 	public PieceList b_pawns;
 	public PieceList w_knights;
@@ -71,12 +115,23 @@ public class Board implements Definitions {
 
 	// END Variables
 
+	private static final int HISTORY_SIZE = 4096; // Positions the history arrays of a new board hold
+	private static final int COPY_HEADROOM = 128; // Plies a copy can go past the copied position before its arrays grow
+
 	/**
 	 * Creates an empty board
 	 * 
 	 * @return An empty Board
 	 */
 	public Board() {
+		this(HISTORY_SIZE);
+	} // END Board()
+
+	/**
+	 * Creates an empty board with room for the given number of positions in
+	 * the history, makeMove() makes more room if needed
+	 */
+	private Board(int historySize) {
 		this.boardArray = new int[128];
 		this.boardArrayUnique = new int[128];
 		this.toMove = 1; // White to move
@@ -95,15 +150,161 @@ public class Board implements Definitions {
 		this.b_queens = new PieceList();
 		this.w_king = new PieceList();
 		this.b_king = new PieceList();
-		this.history = new int[4096];
-		this.captureHistory = new int[4096];
-		this.zobristHistory = new long[4096];
-		this.pawnZobristHistory = new long[4096];
+		this.history = new int[historySize];
+		this.captureHistory = new int[historySize];
+		this.zobristHistory = new long[historySize];
+		this.pawnZobristHistory = new long[historySize];
 		this.tempArray = new int[256];
+		this.legalityKey = new long[historySize];
+		this.pinnedPieces = new long[historySize];
+		this.checkers = new int[historySize];
+		this.checkerSquare = new int[historySize];
+		this.checkInfoKey = new long[historySize];
+		this.discoveredCheckers = new long[historySize];
+		this.diagonalCheckSquares = new long[historySize];
+		this.straightCheckSquares = new long[historySize];
 		this.zobristKey = 0;
 		this.pawnZobristKey = 0;
 	} // END Board()
 
+	/**
+	 * Creates a copy of the board, see copyFrom()
+	 * 
+	 * The history arrays only get room for the moves made so far and a
+	 * search from the position, not the 4096 positions of a new board
+	 * 
+	 * @param board
+	 *            The board to copy
+	 */
+	public Board(Board board) {
+		this(board.historyIndex + COPY_HEADROOM);
+		copyFrom(board);
+	} // END Board()
+
+	/**
+	 * Turns this board into a copy of the other board
+	 * 
+	 * Only the history up to historyIndex is copied, that is all that is
+	 * needed to unmake the moves made so far, so keeping one board per
+	 * worker and copying into it is much cheaper than creating new boards
+	 * 
+	 * @param board
+	 *            The board to copy
+	 */
+	public final void copyFrom(Board board) {
+		System.arraycopy(board.boardArray, 0, boardArray, 0, 128);
+		System.arraycopy(board.boardArrayUnique, 0, boardArrayUnique, 0, 128);
+
+		toMove = board.toMove;
+		enPassant = board.enPassant;
+		white_castle = board.white_castle;
+		black_castle = board.black_castle;
+		movesFifty = board.movesFifty;
+		movesFull = board.movesFull;
+		zobristKey = board.zobristKey;
+		pawnZobristKey = board.pawnZobristKey;
+
+		w_materialMiddle = board.w_materialMiddle;
+		w_materialEnding = board.w_materialEnding;
+		b_materialMiddle = board.b_materialMiddle;
+		b_materialEnding = board.b_materialEnding;
+		w_piecePosMiddle = board.w_piecePosMiddle;
+		w_piecePosEnding = board.w_piecePosEnding;
+		b_piecePosMiddle = board.b_piecePosMiddle;
+		b_piecePosEnding = board.b_piecePosEnding;
+		phaseWeight = board.phaseWeight;
+		gamePhase = board.gamePhase;
+
+		w_pawns.copyFrom(board.w_pawns);
+		b_pawns.copyFrom(board.b_pawns);
+		w_knights.copyFrom(board.w_knights);
+		b_knights.copyFrom(board.b_knights);
+		w_bishops.copyFrom(board.w_bishops);
+		b_bishops.copyFrom(board.b_bishops);
+		w_rooks.copyFrom(board.w_rooks);
+		b_rooks.copyFrom(board.b_rooks);
+		w_queens.copyFrom(board.w_queens);
+		b_queens.copyFrom(board.b_queens);
+		w_king.copyFrom(board.w_king);
+		b_king.copyFrom(board.b_king);
+
+		// The moves made so far, and the legality and check information
+		// of the current position (which is at historyIndex)
+		historyIndex = board.historyIndex;
+		if (history.length < historyIndex + COPY_HEADROOM)
+			growHistory(historyIndex + COPY_HEADROOM);
+		System.arraycopy(board.history, 0, history, 0, historyIndex);
+		System.arraycopy(board.captureHistory, 0, captureHistory, 0, historyIndex);
+		System.arraycopy(board.zobristHistory, 0, zobristHistory, 0, historyIndex);
+		System.arraycopy(board.pawnZobristHistory, 0, pawnZobristHistory, 0, historyIndex);
+		System.arraycopy(board.legalityKey, 0, legalityKey, 0, historyIndex + 1);
+		System.arraycopy(board.pinnedPieces, 0, pinnedPieces, 0, historyIndex + 1);
+		System.arraycopy(board.checkers, 0, checkers, 0, historyIndex + 1);
+		System.arraycopy(board.checkerSquare, 0, checkerSquare, 0, historyIndex + 1);
+		System.arraycopy(board.checkInfoKey, 0, checkInfoKey, 0, historyIndex + 1);
+		System.arraycopy(board.discoveredCheckers, 0, discoveredCheckers, 0, historyIndex + 1);
+		System.arraycopy(board.diagonalCheckSquares, 0, diagonalCheckSquares, 0, historyIndex + 1);
+		System.arraycopy(board.straightCheckSquares, 0, straightCheckSquares, 0, historyIndex + 1);
+
+		if (board.polyglotHistory == null) {
+			polyglotHistory = null;
+		} else {
+			if (polyglotHistory == null)
+				polyglotHistory = new long[history.length];
+			System.arraycopy(board.polyglotHistory, 0, polyglotHistory, 0, historyIndex);
+			polyglotKey = board.polyglotKey;
+		}
+
+		if (board.nnueAccumulators == null) {
+			nnueAccumulators = null;
+		} else {
+			if (nnueAccumulators == null)
+				nnueAccumulators = new short[history.length][];
+			for (int i = 0; i <= historyIndex; i++)
+				System.arraycopy(board.nnueAccumulators[i], 0, nnueAccumulator(i), 0, 2 * Nnue.HALF_DIMENSIONS);
+		}
+	} // END copyFrom()
+
+	/**
+	 * Makes room for more positions in the history arrays, keeping what is
+	 * in them
+	 * 
+	 * @param size
+	 *            The new number of positions
+	 */
+	private final void growHistory(int size) {
+		history = Arrays.copyOf(history, size);
+		captureHistory = Arrays.copyOf(captureHistory, size);
+		zobristHistory = Arrays.copyOf(zobristHistory, size);
+		pawnZobristHistory = Arrays.copyOf(pawnZobristHistory, size);
+		legalityKey = Arrays.copyOf(legalityKey, size);
+		pinnedPieces = Arrays.copyOf(pinnedPieces, size);
+		checkers = Arrays.copyOf(checkers, size);
+		checkerSquare = Arrays.copyOf(checkerSquare, size);
+		checkInfoKey = Arrays.copyOf(checkInfoKey, size);
+		discoveredCheckers = Arrays.copyOf(discoveredCheckers, size);
+		diagonalCheckSquares = Arrays.copyOf(diagonalCheckSquares, size);
+		straightCheckSquares = Arrays.copyOf(straightCheckSquares, size);
+		if (polyglotHistory != null)
+			polyglotHistory = Arrays.copyOf(polyglotHistory, size);
+		if (nnueAccumulators != null)
+			nnueAccumulators = Arrays.copyOf(nnueAccumulators, size);
+	} // END growHistory()
+
+	/**
+	 * Returns the network accumulator of a position in the history, which
+	 * is only allocated when first used
+	 * 
+	 * @param index
+	 *            The history index of the position
+	 * @return The accumulator
+	 */
+	private final short[] nnueAccumulator(int index) {
+		if (nnueAccumulators[index] == null)
+			nnueAccumulators[index] = new short[2 * Nnue.HALF_DIMENSIONS];
+		return nnueAccumulators[index];
+	} // END nnueAccumulator()
+
 	/**
 	 * The general class for the piece lists
 	 * 
@@ -258,6 +459,18 @@ public class Board implements Definitions {
 			pieces[listIndex] = to;
 		} // END updateIndex()
 
+		/**
+		 * Copies the pieces of the other list, boardArrayUnique has to be
+		 * copied separately
+		 * 
+		 * @param list
+		 *            The list to copy
+		 */
+		public void copyFrom(PieceList list) {
+			System.arraycopy(list.pieces, 0, pieces, 0, pieces.length);
+			count = list.count;
+		} // END copyFrom()
+
 	} // END PieceList
 
 	/**
@@ -267,6 +480,8 @@ public class Board implements Definitions {
 	 *            move
 	 */
 	public final void makeMove(int move) {
+		if (historyIndex + 1 >= history.length)
+			growHistory(2 * history.length);
 
 		// Backup information about the position for use in unmake
 		history[historyIndex] = 0;
@@ -282,6 +497,8 @@ public class Board implements Definitions {
 
 		zobristHistory[historyIndex] = zobristKey;
 		pawnZobristHistory[historyIndex] = pawnZobristKey;
+		if (polyglotHistory != null)
+			polyglotHistory[historyIndex] = polyglotKey;
 
 		// Done with backing up, continue
 
@@ -770,6 +987,14 @@ public class Board implements Definitions {
 
 		historyIndex++;
 
+		updatePieceScores(move, 1);
+
+		if (polyglotHistory != null)
+			updatePolyglotKey(move);
+
+		if (nnueAccumulators != null)
+			updateNnueAccumulators(move);
+
 	} // END makeMove()
 
 	/**
@@ -778,6 +1003,8 @@ public class Board implements Definitions {
 	public final void nullmoveToggle() {
 		toMove *= -1;
 		zobristKey ^= Zobrist.SIDE;
+		if (polyglotHistory != null)
+			polyglotKey ^= Zobrist.POLYGLOT_TURN;
 	} // END makeNullmove()
 
 	/**
@@ -801,6 +1028,8 @@ public class Board implements Definitions {
 		movesFifty = ((history[historyIndex] >> 16) & 127);
 		zobristKey = zobristHistory[historyIndex];
 		pawnZobristKey = pawnZobristHistory[historyIndex];
+		if (polyglotHistory != null)
+			polyglotKey = polyglotHistory[historyIndex];
 
 		// We wait with resetting the capture until we know if it is an en
 		// passant or not
@@ -1049,8 +1278,235 @@ public class Board implements Definitions {
 		}
 
 		}
+
+		updatePieceScores(move, -1);
 	} // END unmakeMove()
 
+	/**
+	 * Updates the running material and piece square sums with the changes
+	 * a move does, the changes are simply subtracted again when unmaking
+	 * 
+	 * @param move
+	 *            The move that was made or unmade
+	 * @param sign
+	 *            1 if the move was made, -1 if it was unmade
+	 */
+	private final void updatePieceScores(int move, int sign) {
+		int from = Move.fromIndex(move);
+		int to = Move.toIndex(move);
+		int piece = Move.pieceMoving(move);
+		int capture = Move.capture(move);
+		int type = Move.moveType(move);
+
+		addPieceScore(piece, from, -sign);
+
+		if (type >= PROMOTION_QUEEN)
+			addPieceScore((piece > 0) ? type - 2 : -(type - 2), to, sign);
+		else
+			addPieceScore(piece, to, sign);
+
+		if (capture != 0) {
+			if (type == EN_PASSANT)
+				addPieceScore(capture, (piece == W_PAWN) ? to - 16 : to + 16, -sign);
+			else
+				addPieceScore(capture, to, -sign);
+		}
+
+		int rook = (piece == W_KING) ? W_ROOK : B_ROOK;
+		if (type == SHORT_CASTLE) {
+			addPieceScore(rook, (piece == W_KING) ? H1 : H8, -sign);
+			addPieceScore(rook, (piece == W_KING) ? F1 : F8, sign);
+		} else if (type == LONG_CASTLE) {
+			addPieceScore(rook, (piece == W_KING) ? A1 : A8, -sign);
+			addPieceScore(rook, (piece == W_KING) ? D1 : D8, sign);
+		}
+	} // END updatePieceScores()
+
+	/**
+	 * Updates the polyglot key after a move was made, unmake takes the old
+	 * key from polyglotHistory
+	 * 
+	 * @param move
+	 *            The move that was made
+	 */
+	private final void updatePolyglotKey(int move) {
+		int from = Move.fromIndex(move);
+		int to = Move.toIndex(move);
+		int piece = Move.pieceMoving(move);
+		int capture = Move.capture(move);
+		int type = Move.moveType(move);
+		int oldCastling = history[historyIndex - 1];
+
+		polyglotKey ^= Zobrist.POLYGLOT_TURN;
+		polyglotKey ^= Zobrist.getPolyglotCastlingKey((oldCastling >> 7) & 3, (oldCastling >> 9) & 3);
+		polyglotKey ^= Zobrist.getPolyglotCastlingKey(white_castle, black_castle);
+
+		polyglotKey ^= Zobrist.getPolyglotPieceKey(piece, from);
+		polyglotKey ^= Zobrist.getPolyglotPieceKey(boardArray[to], to); // The promoted piece for promotions
+
+		if (capture != 0) {
+			if (type == EN_PASSANT)
+				polyglotKey ^= Zobrist.getPolyglotPieceKey(capture, (piece == W_PAWN) ? to - 16 : to + 16);
+			else
+				polyglotKey ^= Zobrist.getPolyglotPieceKey(capture, to);
+		}
+
+		int rook = (piece == W_KING) ? W_ROOK : B_ROOK;
+		if (type == SHORT_CASTLE) {
+			polyglotKey ^= Zobrist.getPolyglotPieceKey(rook, (piece == W_KING) ? H1 : H8);
+			polyglotKey ^= Zobrist.getPolyglotPieceKey(rook, (piece == W_KING) ? F1 : F8);
+		} else if (type == LONG_CASTLE) {
+			polyglotKey ^= Zobrist.getPolyglotPieceKey(rook, (piece == W_KING) ? A1 : A8);
+			polyglotKey ^= Zobrist.getPolyglotPieceKey(rook, (piece == W_KING) ? D1 : D8);
+		}
+	} // END updatePolyglotKey()
+
+	/**
+	 * Turns the incrementally updated polyglot key on or off
+	 * 
+	 * @param enabled
+	 *            true to keep the polyglot key up to date in makeMove
+	 */
+	public final void setPolyglotTracking(boolean enabled) {
+		if (enabled) {
+			polyglotHistory = new long[history.length];
+			polyglotKey = Zobrist.getPolyglotZobristKey(this) ^ Zobrist.getPolyglotEnPassantKey(this);
+		} else {
+			polyglotHistory = null;
+		}
+	} // END setPolyglotTracking()
+
+	/**
+	 * Returns the polyglot key of the position, from the incrementally
+	 * updated key if it is tracked and else computed from scratch
+	 * 
+	 * The en passant part is always added here since polyglot only counts
+	 * it when there is a pawn that can capture
+	 * 
+	 * @return The polyglot key
+	 */
+	public final long getPolyglotKey() {
+		if (polyglotHistory == null)
+			return Zobrist.getPolyglotZobristKey(this);
+		return polyglotKey ^ Zobrist.getPolyglotEnPassantKey(this);
+	} // END getPolyglotKey()
+
+	/**
+	 * Turns the incrementally updated network accumulators on or off, a
+	 * network has to be loaded (see Nnue.load()) before turning them on
+	 * 
+	 * @param enabled
+	 *            true to keep the accumulators up to date in makeMove
+	 */
+	public final void setNnue(boolean enabled) {
+		if (enabled) {
+			nnueAccumulators = new short[history.length][];
+			Nnue.refresh(this, WHITE, nnueAccumulator(historyIndex));
+			Nnue.refresh(this, BLACK, nnueAccumulator(historyIndex));
+		} else {
+			nnueAccumulators = null;
+		}
+	} // END setNnue()
+
+	/**
+	 * Makes the accumulators of the new position from the ones before the
+	 * move, unmake just goes back to the old ones
+	 * 
+	 * The side whose king moved gets its half rebuilt since all its features
+	 * depend on the king square
+	 * 
+	 * @param move
+	 *            The move that was made
+	 */
+	private final void updateNnueAccumulators(int move) {
+		short[] accumulator = nnueAccumulator(historyIndex);
+		System.arraycopy(nnueAccumulators[historyIndex - 1], 0, accumulator, 0, 2 * Nnue.HALF_DIMENSIONS);
+
+		int piece = Move.pieceMoving(move);
+		if (piece == W_KING) {
+			Nnue.refresh(this, WHITE, accumulator);
+			updateNnueHalf(move, BLACK, accumulator);
+		} else if (piece == B_KING) {
+			Nnue.refresh(this, BLACK, accumulator);
+			updateNnueHalf(move, WHITE, accumulator);
+		} else {
+			updateNnueHalf(move, WHITE, accumulator);
+			updateNnueHalf(move, BLACK, accumulator);
+		}
+	} // END updateNnueAccumulators()
+
+	/**
+	 * Applies the features a move removed and added to one side's half of
+	 * the accumulator
+	 * 
+	 * @param move
+	 *            The move that was made
+	 * @param side
+	 *            The side whose half is updated
+	 * @param accumulator
+	 *            The accumulator of the new position
+	 */
+	private final void updateNnueHalf(int move, int side, short[] accumulator) {
+		int from = Move.fromIndex(move);
+		int to = Move.toIndex(move);
+		int piece = Move.pieceMoving(move);
+		int capture = Move.capture(move);
+		int type = Move.moveType(move);
+		int king = (side == WHITE) ? w_king.pieces[0] : b_king.pieces[0];
+		int start = (side == WHITE) ? 0 : Nnue.HALF_DIMENSIONS;
+
+		if (piece != W_KING && piece != B_KING) {
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, piece, from), -1);
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, boardArray[to], to), 1); // The promoted piece for promotions
+		}
+
+		if (capture != 0) {
+			int captureSquare = to;
+			if (type == EN_PASSANT)
+				captureSquare = (piece == W_PAWN) ? to - 16 : to + 16;
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, capture, captureSquare), -1);
+		}
+
+		int rook = (piece == W_KING) ? W_ROOK : B_ROOK;
+		if (type == SHORT_CASTLE) {
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, rook, (piece == W_KING) ? H1 : H8), -1);
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, rook, (piece == W_KING) ? F1 : F8), 1);
+		} else if (type == LONG_CASTLE) {
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, rook, (piece == W_KING) ? A1 : A8), -1);
+			Nnue.addFeature(accumulator, start, Nnue.featureIndex(side, king, rook, (piece == W_KING) ? D1 : D8), 1);
+		}
+	} // END updateNnueHalf()
+
+	/**
+	 * Adds (or removes) the material and piece square values of a piece
+	 * 
+	 * @param piece
+	 *            The piece
+	 * @param square
+	 *            The square it is on
+	 * @param change
+	 *            1 to add the piece, -1 to remove it
+	 */
+	private final void addPieceScore(int piece, int square, int change) {
+		if (piece > 0) {
+			w_materialMiddle += change * Evaluation.MATERIAL_MIDDLE[piece + 7];
+			w_materialEnding += change * Evaluation.MATERIAL_ENDING[piece + 7];
+			w_piecePosMiddle += change * Evaluation.PIECE_POS_MIDDLE[piece + 7][square];
+			w_piecePosEnding += change * Evaluation.PIECE_POS_ENDING[piece + 7][square];
+		} else {
+			b_materialMiddle += change * Evaluation.MATERIAL_MIDDLE[piece + 7];
+			b_materialEnding += change * Evaluation.MATERIAL_ENDING[piece + 7];
+			b_piecePosMiddle += change * Evaluation.PIECE_POS_MIDDLE[piece + 7][square];
+			b_piecePosEnding += change * Evaluation.PIECE_POS_ENDING[piece + 7][square];
+		}
+
+		if (Evaluation.PHASE_WEIGHT[piece + 7] != 0) {
+			phaseWeight += change * Evaluation.PHASE_WEIGHT[piece + 7];
+			gamePhase = Evaluation.phaseFromWeight(phaseWeight);
+		}
+	} // END addPieceScore()
+
+
 	
 	/**
 	 * Validates that the given move is legal on the current board
@@ -1737,11 +2193,171 @@ public class Board implements Definitions {
 			}
 			i++; // Move to the next character in the fen-string
 		}
+
+		initPositionState();
+	} // END inputFEN()
+
+	/**
+	 * Writes the position to a fixed size record of BINARY_SIZE bytes
+	 * 
+	 * Bytes 0-7 are the occupied squares (bit 8*rank+file), 8-23 a nibble
+	 * (piece+7) for every occupied square in the same order, 24 the side to
+	 * move and castling rights, 25 the en passant index, 26 the half-moves and
+	 * 27-28 the full moves. Bytes 29-31 are left as zero.
+	 * 
+	 * @param data
+	 *            The array to write to
+	 * @param offset
+	 *            Where in the array the record starts
+	 */
+	public final void getBinary(byte[] data, int offset) {
+		long occupied = 0;
+		int nPieces = 0;
+
+		for (int i = 0; i < BINARY_SIZE; i++)
+			data[offset + i] = 0;
+
+		for (int square = 0; square < 64; square++) {
+			int piece = boardArray[square + (square & 0x38)]; // 0x88 index
+			if (piece == EMPTY_SQUARE)
+				continue;
+			if (nPieces == 32)
+				throw new IllegalArgumentException("More than 32 pieces on the board");
+
+			occupied |= 1L << square;
+			data[offset + 8 + (nPieces >> 1)] |= (nPieces & 1) == 0 ? (piece + 7) << 4 : piece + 7;
+			nPieces++;
+		}
+
+		for (int i = 0; i < 8; i++)
+			data[offset + i] = (byte) (occupied >>> (56 - 8 * i));
+
+		data[offset + 24] = (byte) ((toMove == BLACK_TO_MOVE ? 1 : 0) | (white_castle << 1) | (black_castle << 3));
+		data[offset + 25] = (byte) enPassant; // -1 if none
+		data[offset + 26] = (byte) Math.min(movesFifty, 255);
+		data[offset + 27] = (byte) (movesFull >> 8);
+		data[offset + 28] = (byte) movesFull;
+	} // END getBinary()
+
+	/**
+	 * Sets the board from a record written by getBinary()
+	 * 
+	 * @param data
+	 *            The array to read from
+	 * @param offset
+	 *            Where in the array the record starts
+	 */
+	public final void inputBinary(byte[] data, int offset) {
+		historyIndex = 0;
+
+		for (int i = 0; i < 128; i++) {
+			boardArray[i] = EMPTY_SQUARE;
+			boardArrayUnique[i] = -1;
+		}
+		w_pawns.count = 0;
+		b_pawns.count = 0;
+		w_knights.count = 0;
+		b_knights.count = 0;
+		w_bishops.count = 0;
+		b_bishops.count = 0;
+		w_rooks.count = 0;
+		b_rooks.count = 0;
+		w_queens.count = 0;
+		b_queens.count = 0;
+		w_king.count = 0;
+		b_king.count = 0;
+
+		long occupied = 0;
+		for (int i = 0; i < 8; i++)
+			occupied = (occupied << 8) | (data[offset + i] & 0xff);
+
+		int nPieces = 0;
+		for (int square = 0; square < 64; square++) {
+			if ((occupied & (1L << square)) == 0)
+				continue;
+
+			int nibble = data[offset + 8 + (nPieces >> 1)] >> ((nPieces & 1) == 0 ? 4 : 0);
+			int piece = (nibble & 0xf) - 7;
+			int index = square + (square & 0x38); // 0x88 index
+			boardArray[index] = piece;
+			getPieceList(piece).addPiece(index);
+			nPieces++;
+		}
+
+		int flags = data[offset + 24];
+		toMove = (flags & 1) == 0 ? WHITE_TO_MOVE : BLACK_TO_MOVE;
+		white_castle = (flags >> 1) & 3;
+		black_castle = (flags >> 3) & 3;
+		enPassant = data[offset + 25];
+		movesFifty = data[offset + 26] & 0xff;
+		movesFull = ((data[offset + 27] & 0xff) << 8) | (data[offset + 28] & 0xff);
+
+		initPositionState();
+	} // END inputBinary()
+
+	/**
+	 * @param piece
+	 *            The piece (e.g. W_PAWN)
+	 * @return The piece list of the piece
+	 */
+	private final PieceList getPieceList(int piece) {
+		switch (piece) {
+		case W_PAWN: return w_pawns;
+		case B_PAWN: return b_pawns;
+		case W_KNIGHT: return w_knights;
+		case B_KNIGHT: return b_knights;
+		case W_BISHOP: return w_bishops;
+		case B_BISHOP: return b_bishops;
+		case W_ROOK: return w_rooks;
+		case B_ROOK: return b_rooks;
+		case W_QUEEN: return w_queens;
+		case B_QUEEN: return b_queens;
+		case W_KING: return w_king;
+		case B_KING: return b_king;
+		default: throw new IllegalArgumentException("Not a piece: " + piece);
+		}
+	} // END getPieceList()
+
+	/**
+	 * Computes the zobrist keys and the material, piece square and phase
+	 * sums for a position that was just set up
+	 */
+	private final void initPositionState() {
 		zobristKey = Zobrist.getZobristKey(this); // The board is now setup so
 													// we can get the inital
 													// zobrist key
 		pawnZobristKey = Zobrist.getPawnZobristKey(this);
-	} // END inputFEN()
+		if (polyglotHistory != null)
+			polyglotKey = Zobrist.getPolyglotZobristKey(this) ^ Zobrist.getPolyglotEnPassantKey(this);
+
+		refreshEvalSums();
+
+		if (nnueAccumulators != null) {
+			Nnue.refresh(this, WHITE, nnueAccumulator(historyIndex));
+			Nnue.refresh(this, BLACK, nnueAccumulator(historyIndex));
+		}
+	} // END initPositionState()
+
+	/**
+	 * Sums up the material, piece square and phase values of the position,
+	 * also needed after the evaluation parameters have changed
+	 */
+	public final void refreshEvalSums() {
+		w_materialMiddle = 0;
+		w_materialEnding = 0;
+		b_materialMiddle = 0;
+		b_materialEnding = 0;
+		w_piecePosMiddle = 0;
+		w_piecePosEnding = 0;
+		b_piecePosMiddle = 0;
+		b_piecePosEnding = 0;
+		phaseWeight = 0;
+		for (int index = 0; index < 128; index++) {
+			if ((index & 0x88) == 0 && boardArray[index] != EMPTY_SQUARE)
+				addPieceScore(boardArray[index], index, 1);
+		}
+		gamePhase = Evaluation.phaseFromWeight(phaseWeight);
+	} // END refreshEvalSums()
 	
 	/** 
 	 * Fill the moves array from startIndex with all legal moves
@@ -1759,137 +2375,275 @@ public class Board implements Definitions {
 
 		nMoves += gen_caps(moves, nMoves+startIndex);
 
-
 		/* Filter out the moves that leaves the king in check */
+		return filterLegal(moves, startIndex, nMoves);
+	} // END gen_allLegalMoves()
+
+	/**
+	 * Removes the pseudo legal moves that would leave the king in check,
+	 * the remaining moves are packed from startIndex and keep their order
+	 * 
+	 * @param moves
+	 *            The array holding the pseudo legal moves
+	 * @param startIndex
+	 *            Where the moves start
+	 * @param nMoves
+	 *            Number of moves to filter
+	 * @return Number of legal moves
+	 */
+	public final int filterLegal(Move[] moves, int startIndex, int nMoves) {
 		int totalLegalMoves = 0;
 		for(int i = startIndex; i < nMoves+startIndex; i++) {
 			int thisMove = moves[i].move;
-			makeMove(thisMove);
-
-			if(toMove == WHITE_TO_MOVE) {
-				if(isAttacked(b_king.pieces[0], WHITE)) {
-					moves[i].move = 0;
-				} else {
-					moves[i].move = 0;
-					moves[startIndex+totalLegalMoves].move = thisMove;
-					totalLegalMoves++;
-				}
-			} else {
-				if(isAttacked(w_king.pieces[0], BLACK)) {
-					moves[i].move = 0;
-				} else {
-					moves[i].move = 0;
-					moves[startIndex+totalLegalMoves].move = thisMove;
-					totalLegalMoves++;
-				}
+			if(isLegal(thisMove)) {
+				moves[startIndex+totalLegalMoves].move = thisMove;
+				moves[startIndex+totalLegalMoves].score = moves[i].score;
+				totalLegalMoves++;
 			}
-			unmakeMove(thisMove);
-			
 		}
-	
 		return totalLegalMoves;
-	} // END gen_allLegalMoves()
-	
+	} // END filterLegal()
+
 	/**
-	 * Help method for gen_checkEvasions
-	 * @param moves will contain the checking move (to reverse engineer later)
-	 * @param attacked square that is under attack
-	 * @param side who is the attacker
-	 * @return Number of attackers found (0-2 obviously)
+	 * Checks if a pseudo legal move (generated or validated on this board)
+	 * leaves the own king in check, without making the move
+	 * 
+	 * Uses the pinned pieces and checkers from updateLegalityInfo(), only en
+	 * passant captures are tested by actually making the move
+	 * 
+	 * @param move
+	 *            The move to check
+	 * @return true if the move is legal, false if not
 	 */
-	private final int getAttackers(int[] attackingSquares, int attacked, int side) {
-		int pieceAttack;
-		int attackers = 0;
+	public final boolean isLegal(int move) {
+		updateLegalityInfo();
 
-		if (side == WHITE) {
-			// Pawns, only two possible squares
-			if (((attacked - 17) & 0x88) == 0
-					&& boardArray[attacked - 17] == W_PAWN)
-				attackingSquares[attackers++] = attacked-17;
-			if (((attacked - 15) & 0x88) == 0
-					&& boardArray[attacked - 15] == W_PAWN)
-				attackingSquares[attackers++] = attacked-15;
+		int from = Move.fromIndex(move);
+		int to = Move.toIndex(move);
+		int piece = Move.pieceMoving(move);
+		int type = Move.moveType(move);
+		int king = (toMove == WHITE_TO_MOVE) ? w_king.pieces[0] : b_king.pieces[0];
 
-			// Knights
-			for (int i = 0; i < w_knights.count; i++) {
-				if (ATTACK_ARRAY[attacked - w_knights.pieces[i] + 128] == ATTACK_N)
-					attackingSquares[attackers++] = w_knights.pieces[i];
+		if(piece == W_KING || piece == B_KING) {
+			// The squares the king passes when castling are checked by the generation
+			if(type == SHORT_CASTLE || type == LONG_CASTLE) {
+				return !isAttacked(to, -toMove);
 			}
 
-			// Bishops
-			for (int i = 0; i < w_bishops.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - w_bishops.pieces[i] + 128];
-				if (pieceAttack == ATTACK_KQBwP || pieceAttack == ATTACK_KQBbP
-						|| pieceAttack == ATTACK_QB) {
-					if (traverseDelta(w_bishops.pieces[i], attacked)) 
-						attackingSquares[attackers++] = w_bishops.pieces[i];
-				}
-			}
-			// Rooks
-			for (int i = 0; i < w_rooks.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - w_rooks.pieces[i] + 128];
-				if (pieceAttack == ATTACK_KQR || pieceAttack == ATTACK_QR) {
-					if (traverseDelta(w_rooks.pieces[i], attacked))
-						attackingSquares[attackers++] = w_rooks.pieces[i];
-				}
+			// Lift the king so sliders can see through its old square
+			boardArray[from] = EMPTY_SQUARE;
+			boolean attacked = isAttacked(to, -toMove);
+			boardArray[from] = piece;
+			return !attacked;
+		}
+
+		if(type == EN_PASSANT) {
+			// Both the capturing and the captured pawn leave their squares
+			// so simply try it, it is rare enough to not matter
+			makeMove(move);
+			boolean attacked = isAttacked(king, toMove);
+			unmakeMove(move);
+			return !attacked;
+		}
+
+		if(checkers[historyIndex] > 1) return false; // Double check, only the king can move
+
+		if(checkers[historyIndex] == 1) {
+			// Capture the checker or step in between it and the king, for
+			// pawns and knights the delta only matches the checker itself
+			int checker = checkerSquare[historyIndex];
+			if(to != checker) {
+				int delta = DELTA_ARRAY[checker - king + 128];
+				if(DELTA_ARRAY[to - king + 128] != delta || DELTA_ARRAY[checker - to + 128] != delta) return false;
 			}
-			// Queen
-			for (int i = 0; i < w_queens.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - w_queens.pieces[i] + 128];
-				if (pieceAttack != ATTACK_NONE && pieceAttack != ATTACK_N) {
-					if (traverseDelta(w_queens.pieces[i], attacked))
-						attackingSquares[attackers++] = w_queens.pieces[i];
-				}
+		}
+
+		// A pinned piece can only move along the line of the pin
+		if((pinnedPieces[historyIndex] & (1L << ((from + (from & 7)) >> 1))) != 0) {
+			return DELTA_ARRAY[to - king + 128] == DELTA_ARRAY[from - king + 128];
+		}
+
+		return true;
+	} // END isLegal()
+
+	/**
+	 * Checks if a legal move gives check, without making the move
+	 * 
+	 * Uses the check squares and discovered check candidates from
+	 * updateCheckInfo(), castling, en passant and promotions are rare
+	 * enough to simply be made and tested
+	 * 
+	 * @param move
+	 *            The move to check
+	 * @return true if the move checks the opponent's king, false if not
+	 */
+	public final boolean givesCheck(int move) {
+		if(Move.moveType(move) != ORDINARY_MOVE) {
+			makeMove(move);
+			boolean check = isInCheck();
+			unmakeMove(move);
+			return check;
+		}
+
+		updateCheckInfo();
+
+		int from = Move.fromIndex(move);
+		int to = Move.toIndex(move);
+		int piece = Move.pieceMoving(move);
+		int king = (toMove == WHITE_TO_MOVE) ? b_king.pieces[0] : w_king.pieces[0];
+		long toBit = 1L << ((to + (to & 7)) >> 1);
+
+		// Direct check from the piece on its new square
+		switch(piece) {
+		case W_PAWN: if(to + 15 == king || to + 17 == king) return true; break;
+		case B_PAWN: if(to - 15 == king || to - 17 == king) return true; break;
+		case W_KNIGHT: case B_KNIGHT: if(ATTACK_ARRAY[king - to + 128] == ATTACK_N) return true; break;
+		case W_BISHOP: case B_BISHOP: if((diagonalCheckSquares[historyIndex] & toBit) != 0) return true; break;
+		case W_ROOK: case B_ROOK: if((straightCheckSquares[historyIndex] & toBit) != 0) return true; break;
+		case W_QUEEN: case B_QUEEN: if(((diagonalCheckSquares[historyIndex] | straightCheckSquares[historyIndex]) & toBit) != 0) return true; break;
+		}
+
+		// Discovered check, the piece leaves the line between a slider and the king
+		if((discoveredCheckers[historyIndex] & (1L << ((from + (from & 7)) >> 1))) != 0) {
+			return DELTA_ARRAY[to - king + 128] != DELTA_ARRAY[from - king + 128];
+		}
+
+		return false;
+	} // END givesCheck()
+
+	/**
+	 * Finds the squares the side to move can give check from and the pieces
+	 * that can give a discovered check
+	 * 
+	 * Walks every direction from the enemy king, the empty squares (and the
+	 * first piece) on the way are check squares for the sliders moving along
+	 * the direction, and if the first piece is our own with our slider behind
+	 * it, it is a discovered check candidate
+	 * 
+	 * Like updateLegalityInfo() it is stored per historyIndex together with
+	 * the zobrist key
+	 */
+	private final void updateCheckInfo() {
+		if(checkInfoKey[historyIndex] == zobristKey) return;
+
+		int king = (toMove == WHITE_TO_MOVE) ? b_king.pieces[0] : w_king.pieces[0];
+		long discovered = 0;
+		long diagonal = 0;
+		long straight = 0;
+
+		for(int i = 0; i < 8; i++) {
+			int delta = queen_delta[i];
+			int slider = (i < 4) ? W_BISHOP : W_ROOK;
+			long squares = 0;
+			int deltaIndex = king + delta;
+			while((deltaIndex & 0x88) == 0) {
+				squares |= 1L << ((deltaIndex + (deltaIndex & 7)) >> 1);
+				if(boardArray[deltaIndex] != EMPTY_SQUARE) break;
+				deltaIndex += delta;
 			}
-			// King
-			// Can't be king so skip
-		} else {
-			// Pawns, only two possible squares
-			// No need for out of bounds checks here since we add to the index
-			// (can never get below zero)
-			if (((attacked + 17) & 0x88) == 0
-					&& boardArray[attacked + 17] == B_PAWN)
-				attackingSquares[attackers++] = attacked+17;
-			if (((attacked + 15) & 0x88) == 0
-					&& boardArray[attacked + 15] == B_PAWN)
-				attackingSquares[attackers++] = attacked+15;
+			if(i < 4) diagonal |= squares;
+			else straight |= squares;
 
-			// Knights
-			for (int i = 0; i < b_knights.count; i++) {
-				if (ATTACK_ARRAY[attacked - b_knights.pieces[i] + 128] == ATTACK_N)
-					attackingSquares[attackers++] = b_knights.pieces[i];
+			if((deltaIndex & 0x88) != 0 || boardArray[deltaIndex] * toMove < 0) continue;
+
+			int candidate = deltaIndex;
+			deltaIndex += delta;
+			while((deltaIndex & 0x88) == 0 && boardArray[deltaIndex] == EMPTY_SQUARE) deltaIndex += delta;
+			if((deltaIndex & 0x88) != 0) continue;
+
+			int pieceType = boardArray[deltaIndex] * toMove; // Positive if our own
+			if(pieceType == W_QUEEN || pieceType == slider) {
+				discovered |= 1L << ((candidate + (candidate & 7)) >> 1);
 			}
+		}
 
-			// Bishops
-			for (int i = 0; i < b_bishops.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - b_bishops.pieces[i] + 128];
-				if (pieceAttack == ATTACK_KQBwP || pieceAttack == ATTACK_KQBbP
-						|| pieceAttack == ATTACK_QB) {
-					if (traverseDelta(b_bishops.pieces[i], attacked))
-						attackingSquares[attackers++] = b_bishops.pieces[i];
+		checkInfoKey[historyIndex] = zobristKey;
+		discoveredCheckers[historyIndex] = discovered;
+		diagonalCheckSquares[historyIndex] = diagonal;
+		straightCheckSquares[historyIndex] = straight;
+	} // END updateCheckInfo()
+
+	/**
+	 * Finds the pinned pieces and the checking pieces for the side to move
+	 * 
+	 * The result is stored at the current historyIndex together with the
+	 * zobrist key, so it is only computed once for every position no matter
+	 * how many times isLegal(), isInCheck() or gen_checkEvasions() ask for it
+	 */
+	private final void updateLegalityInfo() {
+		if(legalityKey[historyIndex] == zobristKey) return;
+
+		int king = (toMove == WHITE_TO_MOVE) ? w_king.pieces[0] : b_king.pieces[0];
+		long pinned = 0;
+		int nCheckers = 0;
+		int checker = -1;
+
+		// Sliders, walk every direction from the king, if the first piece found
+		// is our own and the next one an enemy slider moving along the direction, it is pinned
+		for(int i = 0; i < 8; i++) {
+			int delta = queen_delta[i];
+			int slider = (i < 4) ? W_BISHOP : W_ROOK;
+			int deltaIndex = king + delta;
+			while((deltaIndex & 0x88) == 0 && boardArray[deltaIndex] == EMPTY_SQUARE) deltaIndex += delta;
+			if((deltaIndex & 0x88) != 0) continue;
+
+			if(boardArray[deltaIndex] * toMove > 0) {
+				int candidate = deltaIndex;
+				deltaIndex += delta;
+				while((deltaIndex & 0x88) == 0 && boardArray[deltaIndex] == EMPTY_SQUARE) deltaIndex += delta;
+				if((deltaIndex & 0x88) != 0) continue;
+
+				int pieceType = -boardArray[deltaIndex] * toMove; // Positive if enemy
+				if(pieceType == W_QUEEN || pieceType == slider) {
+					pinned |= 1L << ((candidate + (candidate & 7)) >> 1);
+				}
+			} else {
+				int pieceType = -boardArray[deltaIndex] * toMove;
+				if(pieceType == W_QUEEN || pieceType == slider) {
+					nCheckers++;
+					checker = deltaIndex;
 				}
 			}
-			// Rooks
-			for (int i = 0; i < b_rooks.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - b_rooks.pieces[i] + 128];
-				if (pieceAttack == ATTACK_KQR || pieceAttack == ATTACK_QR) {
-					if (traverseDelta(b_rooks.pieces[i], attacked))
-						attackingSquares[attackers++] = b_rooks.pieces[i];
+		}
+
+		// Knights and pawns
+		if(toMove == WHITE_TO_MOVE) {
+			for(int i = 0; i < b_knights.count; i++) {
+				if(ATTACK_ARRAY[king - b_knights.pieces[i] + 128] == ATTACK_N) {
+					nCheckers++;
+					checker = b_knights.pieces[i];
 				}
 			}
-			// Queen
-			for (int i = 0; i < b_queens.count; i++) {
-				pieceAttack = ATTACK_ARRAY[attacked - b_queens.pieces[i] + 128];
-				if (pieceAttack != ATTACK_NONE && pieceAttack != ATTACK_N) {
-					if (traverseDelta(b_queens.pieces[i], attacked))
-						attackingSquares[attackers++] = b_queens.pieces[i];
+			if(((king + 15) & 0x88) == 0 && boardArray[king + 15] == B_PAWN) {
+				nCheckers++;
+				checker = king + 15;
+			}
+			if(((king + 17) & 0x88) == 0 && boardArray[king + 17] == B_PAWN) {
+				nCheckers++;
+				checker = king + 17;
+			}
+		} else {
+			for(int i = 0; i < w_knights.count; i++) {
+				if(ATTACK_ARRAY[king - w_knights.pieces[i] + 128] == ATTACK_N) {
+					nCheckers++;
+					checker = w_knights.pieces[i];
 				}
 			}
-			// King
-			// Can't be king so skip
+			if(((king - 15) & 0x88) == 0 && boardArray[king - 15] == W_PAWN) {
+				nCheckers++;
+				checker = king - 15;
+			}
+			if(((king - 17) & 0x88) == 0 && boardArray[king - 17] == W_PAWN) {
+				nCheckers++;
+				checker = king - 17;
+			}
 		}
-		return attackers;
-	}
+
+		legalityKey[historyIndex] = zobristKey;
+		pinnedPieces[historyIndex] = pinned;
+		checkers[historyIndex] = nCheckers;
+		checkerSquare[historyIndex] = checker;
+	} // END updateLegalityInfo()
 	
 	/**
 	 * Help method for gen_checkEvasions
@@ -2192,14 +2946,13 @@ public class Board implements Definitions {
 	 */
 	public final int gen_checkEvasions(Move[] moves, int startIndex) {
 		int nMoves = 0;
+		updateLegalityInfo(); // Reuse the checkers found for this position
 		if(toMove == WHITE_TO_MOVE) {
-			int attackers = getAttackers(tempArray, w_king.pieces[0], BLACK);
+			int attackers = checkers[historyIndex];
 			if(attackers == 0) return 0; // Not in check
 			
-			int attacker1 = tempArray[0];
-			//int attacker2 = tempArray[1];
-			int attacker1delta = DELTA_ARRAY[w_king.pieces[0] - Move.fromIndex(tempArray[0]) + 128];
-			//int attacker2delta = DELTA_ARRAY[w_king.pieces[0] - Move.fromIndex(tempArray[1]) + 128];
+			int attacker1 = checkerSquare[historyIndex];
+			int attacker1delta = DELTA_ARRAY[w_king.pieces[0] - attacker1 + 128];
 			
 			// Add king moves
 			for (int i = 0; i < 8; i++) {
@@ -2230,13 +2983,11 @@ public class Board implements Definitions {
 				}
 			}			
 		} else {
-			int attackers = getAttackers(tempArray, b_king.pieces[0], WHITE);
+			int attackers = checkers[historyIndex];
 			if(attackers == 0) return 0; // Not in check
 			
-			int attacker1 = tempArray[0];
-			//int attacker2 = tempArray[1];
-			int attacker1delta = DELTA_ARRAY[b_king.pieces[0] - Move.fromIndex(tempArray[0]) + 128];
-			//int attacker2delta = DELTA_ARRAY[w_king.pieces[0] - Move.fromIndex(tempArray[1]) + 128];
+			int attacker1 = checkerSquare[historyIndex];
+			int attacker1delta = DELTA_ARRAY[b_king.pieces[0] - attacker1 + 128];
 			
 			// Add king moves
 			for (int i = 0; i < 8; i++) {
@@ -3103,23 +3854,15 @@ public class Board implements Definitions {
 	 *  Similar to mateCheck but only reports if the king of the side moving
 	 *  is in check or not
 	 *
-	 *  @param board The board to check
+	 *  The checkers are found once per position (see updateLegalityInfo())
+	 *  so asking again for the same position is only a lookup
+	 *
 	 *  @return boolean true if the king of the side moving is in check, false if is not
 	 */
 	public boolean isInCheck()
 	{
-		int king_square;		
-		if(toMove == WHITE_TO_MOVE) king_square = w_king.pieces[0];
-		else king_square = b_king.pieces[0];
-
-		toMove *= -1; // Switch side to move on the board to get the other side's pieces to be the attacker
-		if(isAttacked(king_square, toMove))
-		{
-			toMove *= -1; // Switch back side to move	
-			return true; // The king is in check
-		}		
-		toMove *= -1; // Switch back side to move	
-		return false; // The king is not in check
+		updateLegalityInfo();
+		return checkers[historyIndex] != 0;
 	}
 	//END isInCheck()
 }
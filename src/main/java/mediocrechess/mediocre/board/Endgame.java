@@ -0,0 +1,303 @@
+package mediocrechess.mediocre.board;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class Endgame
+ *
+ * Scoring functions for endings the general evaluation does not understand,
+ * like KBNK where the king has to be driven to the right corner, or KQKR and
+ * KRKP where the material alone says little about the result.
+ *
+ * The functions are registered by material, every piece count of both sides
+ * packed into one key (see materialKey()), and every ending is registered for
+ * both colors. Evaluation asks evaluate() before the general evaluation and
+ * uses the score if there is one.
+ *
+ * A lone king against a queen or rook (and any other material) is handled by
+ * the general mop-up function KXK without a key of its own.
+ */
+public class Endgame implements Definitions {
+	public static final int KNOWN_WIN = 10000; // Added to scores of endings that are won
+
+	private static final int MAX_PIECES = 3; // No registered ending has more pieces than this, kings not counted
+
+	// The scoring functions
+	private static final int KXK = 0;
+	private static final int KBNK = 1;
+	private static final int KQKR = 2;
+	private static final int KQKP = 3;
+	private static final int KRKP = 4;
+	private static final int KRKB = 5;
+	private static final int KRKN = 6;
+	private static final int KBBK = 7;
+
+	private static final int STRONG_BLACK = 16; // Set in a registered function if black is the strong side
+
+	private static Map<Integer, Integer> registry = new HashMap<Integer, Integer>();
+
+	private static final int[] PUSH_TO_EDGE = new int[128]; // Bonus for the weak king close to the edge, and more in the corners
+	private static final int[] PUSH_CLOSE = {0, 0, 100, 80, 60, 40, 20, 10}; // Bonus for the kings close to each other
+	private static final int[] PUSH_AWAY = {0, 5, 20, 40, 60, 80, 90, 100}; // Bonus for two pieces far from each other
+
+	static {
+		for(int i = 0; i < 128; i++) {
+			if((i & 0x88) != 0) continue;
+			int fileDistance = (Board.file(i) < 4) ? 3 - Board.file(i) : Board.file(i) - 4;
+			int rankDistance = (Board.rank(i) < 4) ? 3 - Board.rank(i) : Board.rank(i) - 4;
+			PUSH_TO_EDGE[i] = 20*Math.max(fileDistance, rankDistance) + 10*(fileDistance + rankDistance);
+		}
+
+		add("KBNK", KBNK);
+		add("KQKR", KQKR);
+		add("KQKP", KQKP);
+		add("KRKP", KRKP);
+		add("KRKB", KRKB);
+		add("KRKN", KRKN);
+		add("KBBK", KBBK);
+	}
+
+	/**
+	 * Registers a scoring function for an ending and its color flipped copy
+	 *
+	 * @param code
+	 *            The strong side's pieces followed by the weak side's, both
+	 *            starting with the king, e.g. KRKP
+	 * @param function
+	 *            The scoring function
+	 */
+	private static void add(String code, int function) {
+		int weak = code.indexOf('K', 1);
+		int[] strongCounts = pieceCounts(code.substring(1, weak));
+		int[] weakCounts = pieceCounts(code.substring(weak + 1));
+
+		registry.put(materialKey(strongCounts, weakCounts), function);
+		registry.put(materialKey(weakCounts, strongCounts), function | STRONG_BLACK);
+	} // END add()
+
+	/**
+	 * @return The counts of pawns, knights, bishops, rooks and queens in the
+	 *         pieces, e.g. RP
+	 */
+	private static int[] pieceCounts(String pieces) {
+		int[] counts = new int[5];
+		for(char piece : pieces.toCharArray()) counts["PNBRQ".indexOf(piece)]++;
+		return counts;
+	} // END pieceCounts()
+
+	/**
+	 * @param white
+	 *            White's counts of pawns, knights, bishops, rooks and queens
+	 * @param black
+	 *            Black's counts
+	 * @return The material key with the counts, like materialKey(Board)
+	 */
+	public static int materialKey(int[] white, int[] black) {
+		int key = 0;
+		for(int i = 0; i < 5; i++) key |= (white[i] << (3*i)) | (black[i] << (3*i + 15));
+		return key;
+	} // END materialKey()
+
+	/**
+	 * Packs the piece counts of both sides into one number, three bits per
+	 * count (counts above 7 are seen as 7)
+	 *
+	 * @param board
+	 *            The position
+	 * @return The material key
+	 */
+	public static final int materialKey(Board board) {
+		return Math.min(board.w_pawns.count, 7)
+				| (Math.min(board.w_knights.count, 7) << 3)
+				| (Math.min(board.w_bishops.count, 7) << 6)
+				| (Math.min(board.w_rooks.count, 7) << 9)
+				| (Math.min(board.w_queens.count, 7) << 12)
+				| (Math.min(board.b_pawns.count, 7) << 15)
+				| (Math.min(board.b_knights.count, 7) << 18)
+				| (Math.min(board.b_bishops.count, 7) << 21)
+				| (Math.min(board.b_rooks.count, 7) << 24)
+				| (Math.min(board.b_queens.count, 7) << 27);
+	} // END materialKey()
+
+	/**
+	 * Scores the position if there is a function for its material
+	 *
+	 * @param board
+	 *            The position
+	 * @return The score from white's view, or EVALNOTFOUND if the general
+	 *         evaluation should be used
+	 */
+	public static final int evaluate(Board board) {
+		int whitePieces = board.w_pawns.count + board.w_knights.count + board.w_bishops.count + board.w_rooks.count + board.w_queens.count;
+		int blackPieces = board.b_pawns.count + board.b_knights.count + board.b_bishops.count + board.b_rooks.count + board.b_queens.count;
+
+		if(whitePieces + blackPieces <= MAX_PIECES) {
+			Integer function = registry.get(materialKey(board));
+			if(function != null) {
+				int strongSide = ((function & STRONG_BLACK) != 0) ? BLACK : WHITE;
+				return score(board, function & ~STRONG_BLACK, strongSide)*strongSide;
+			}
+		}
+
+		// A lone king against a queen or rook
+		if(blackPieces == 0 && (board.w_queens.count != 0 || board.w_rooks.count != 0)) return score(board, KXK, WHITE);
+		if(whitePieces == 0 && (board.b_queens.count != 0 || board.b_rooks.count != 0)) return -score(board, KXK, BLACK);
+
+		return EVALNOTFOUND;
+	} // END evaluate()
+
+	/**
+	 * Scores a position known to be won, e.g. from a bitbase, the score of
+	 * the scoring function is kept if it agrees
+	 *
+	 * @param board
+	 *            The position
+	 * @param eval
+	 *            The score from evaluate(), or EVALNOTFOUND
+	 * @param winner
+	 *            The side that wins
+	 * @return The score from white's view
+	 */
+	public static final int knownWin(Board board, int eval, int winner) {
+		if(eval != EVALNOTFOUND && eval*winner >= KNOWN_WIN) return eval;
+
+		int strongKing = (winner == WHITE) ? board.w_king.pieces[0] : board.b_king.pieces[0];
+		int weakKing = (winner == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0];
+		int material = (board.w_materialEnding - board.b_materialEnding)*winner;
+
+		// Pawns closer to promotion
+		Board.PieceList pawns = (winner == WHITE) ? board.w_pawns : board.b_pawns;
+		int pawnProgress = 0;
+		for(int i = 0; i < pawns.count; i++) {
+			pawnProgress += 20*((winner == WHITE) ? Board.rank(pawns.pieces[i]) : 7 - Board.rank(pawns.pieces[i]));
+		}
+
+		return (KNOWN_WIN + material + pawnProgress + PUSH_TO_EDGE[weakKing] / 2
+				+ PUSH_CLOSE[Board.distance(strongKing, weakKing)])*winner;
+	} // END knownWin()
+
+	/**
+	 * Runs the scoring function
+	 *
+	 * @return The score from the strong side's view
+	 */
+	private static int score(Board board, int function, int strongSide) {
+		int strongKing = (strongSide == WHITE) ? board.w_king.pieces[0] : board.b_king.pieces[0];
+		int weakKing = (strongSide == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0];
+
+		switch(function) {
+		case KXK:
+			return kxk(board, strongSide, strongKing, weakKing);
+		case KBNK:
+			return kbnk(board, strongSide, strongKing, weakKing);
+		case KQKR:
+			return value(W_QUEEN) - value(W_ROOK)
+					+ PUSH_TO_EDGE[weakKing] + PUSH_CLOSE[Board.distance(strongKing, weakKing)];
+		case KQKP:
+			return kqkp(board, strongSide, strongKing, weakKing);
+		case KRKP:
+			return krkp(board, strongSide, strongKing, weakKing);
+		case KRKB:
+			// Mostly a draw, but the weak side can be pushed to a mate on the edge
+			return PUSH_TO_EDGE[weakKing] / 2;
+		case KRKN:
+			// Keep the king and knight apart and push the king to the edge
+			int knight = (strongSide == WHITE) ? board.b_knights.pieces[0] : board.w_knights.pieces[0];
+			return PUSH_TO_EDGE[weakKing] / 2 + PUSH_AWAY[Board.distance(weakKing, knight)];
+		case KBBK:
+			Board.PieceList bishops = (strongSide == WHITE) ? board.w_bishops : board.b_bishops;
+			if(squareColor(bishops.pieces[0]) == squareColor(bishops.pieces[1])) return 0; // Bishops of the same color cannot mate
+			return kxk(board, strongSide, strongKing, weakKing);
+		}
+		return 0;
+	} // END score()
+
+	/**
+	 * A lone king against mating material, drive it to the edge with the
+	 * strong king close
+	 */
+	private static int kxk(Board board, int strongSide, int strongKing, int weakKing) {
+		int material = (strongSide == WHITE) ? board.w_materialEnding : board.b_materialEnding;
+		return KNOWN_WIN + material + PUSH_TO_EDGE[weakKing] + PUSH_CLOSE[Board.distance(strongKing, weakKing)];
+	} // END kxk()
+
+	/**
+	 * Bishop and knight against a lone king, the mate can only be given in a
+	 * corner of the bishop's color
+	 */
+	private static int kbnk(Board board, int strongSide, int strongKing, int weakKing) {
+		int bishop = (strongSide == WHITE) ? board.w_bishops.pieces[0] : board.b_bishops.pieces[0];
+		int cornerDistance;
+		if(squareColor(bishop) == squareColor(A1)) {
+			cornerDistance = Math.min(Board.distance(weakKing, A1), Board.distance(weakKing, H8));
+		} else {
+			cornerDistance = Math.min(Board.distance(weakKing, A8), Board.distance(weakKing, H1));
+		}
+
+		return KNOWN_WIN + value(W_BISHOP) + value(W_KNIGHT)
+				+ PUSH_TO_EDGE[weakKing] / 2 + 40*(7 - cornerDistance) + PUSH_CLOSE[Board.distance(strongKing, weakKing)];
+	} // END kbnk()
+
+	/**
+	 * Queen against pawn, won unless the pawn is on the seventh rank on a
+	 * rook or bishop file with its king next to it
+	 */
+	private static int kqkp(Board board, int strongSide, int strongKing, int weakKing) {
+		int pawn = (strongSide == WHITE) ? board.b_pawns.pieces[0] : board.w_pawns.pieces[0];
+		int score = PUSH_CLOSE[Board.distance(strongKing, pawn)];
+
+		int pawnRank = (strongSide == WHITE) ? Board.rank(pawn) : 7 - Board.rank(pawn); // Rank as seen from the strong side
+		int pawnFile = Board.file(pawn);
+		if(pawnRank != 1 || Board.distance(weakKing, pawn) != 1 || pawnFile == 1 || pawnFile == 3 || pawnFile == 4 || pawnFile == 6) {
+			score += value(W_QUEEN) - value(W_PAWN);
+		}
+		return score;
+	} // END kqkp()
+
+	/**
+	 * Rook against pawn, won if the strong king is in front of the pawn or
+	 * the weak king is far away, otherwise it depends on how close the kings
+	 * are to the promotion square
+	 */
+	private static int krkp(Board board, int strongSide, int strongKing, int weakKing) {
+		int rook = (strongSide == WHITE) ? board.w_rooks.pieces[0] : board.b_rooks.pieces[0];
+		int pawn = (strongSide == WHITE) ? board.b_pawns.pieces[0] : board.w_pawns.pieces[0];
+
+		// Look at the board from the strong side so the pawn moves down
+		if(strongSide == BLACK) {
+			strongKing ^= 0x70;
+			weakKing ^= 0x70;
+			rook ^= 0x70;
+			pawn ^= 0x70;
+		}
+		int queeningSquare = Board.file(pawn);
+		int inFront = pawn - 16;
+		boolean weakToMove = (board.toMove != strongSide);
+
+		if(Board.file(strongKing) == Board.file(pawn) && Board.rank(strongKing) < Board.rank(pawn)) {
+			return value(W_ROOK) - Board.distance(strongKing, pawn);
+		}
+		if(Board.distance(weakKing, pawn) >= (weakToMove ? 4 : 3) && Board.distance(weakKing, rook) >= 3) {
+			return value(W_ROOK) - Board.distance(strongKing, pawn);
+		}
+		if(Board.rank(weakKing) <= 2 && Board.distance(weakKing, pawn) == 1 && Board.rank(strongKing) >= 3
+				&& Board.distance(strongKing, pawn) > (weakToMove ? 2 : 3)) {
+			return 80 - 8*Board.distance(strongKing, pawn);
+		}
+		return 200 - 8*(Board.distance(strongKing, inFront) - Board.distance(weakKing, inFront) - Board.distance(pawn, queeningSquare));
+	} // END krkp()
+
+	/**
+	 * @return The ending value of the piece, as tuned in Evaluation
+	 */
+	private static int value(int piece) {
+		return Evaluation.MATERIAL_ENDING[piece + 7];
+	} // END value()
+
+	private static int squareColor(int square) {
+		return (Board.rank(square) + Board.file(square)) & 1;
+	} // END squareColor()
+}
@@ -0,0 +1,316 @@
+package mediocrechess.mediocre.board;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class EvalParameters
+ *
+ * The weights of Evaluation that can be loaded from (and saved to) a text
+ * file, and seen as one vector of numbers by the tuner.
+ *
+ * The file has one parameter per entry, the name followed by = and the
+ * values, which may go on over the following lines:
+ *
+ * PASSED_PAWN = 20
+ * PASSED_RANK_BONUS = 0 10 20 40 60 120 150 0
+ * W_KNIGHT_POS = (64 values, a1 to h1 first and a8 to h8 last)
+ *
+ * Parameters missing from the file keep their current value, and nothing is
+ * changed if any entry of the file is wrong. Black's piece
+ * square tables are always the mirror of white's, so only the white ones
+ * are in the file, and the tables used for both sides are kept symmetric by
+ * the tuner. MATERIAL_MIDDLE and MATERIAL_ENDING have the pawn, knight,
+ * bishop, rook and queen values. The middle game values are also copied to
+ * PIECE_VALUE_ARRAY and PIECE_VALUE_ARRAY_ABS used by the search, and
+ * Endgame reads the ending values from MATERIAL_ENDING.
+ *
+ * Boards sum up material and piece square values incrementally, so a board
+ * has to call refreshEvalSums() (or get its position set again) after new
+ * parameters are loaded.
+ */
+public class EvalParameters implements Definitions {
+	private static final int SCALAR = 0; // A static int in Evaluation
+	private static final int TABLE = 1; // Every entry of an array
+	private static final int MATERIAL = 2; // Pawn to queen, same for both sides
+	private static final int MIRRORED = 3; // A white piece square table, black's is the mirror
+	private static final int SYMMETRIC = 4; // A piece square table used for both sides
+
+	private static final String[] SCALARS = {"PINNED_PIECE", "PASSED_PAWN", "DOUBLED_PAWN", "ISOLATED_PAWN", "WEAK_PAWN",
+		"ROOK_ON_SEVENTH", "QUEEN_ON_SEVENTH", "ROOK_ON_OPEN", "ROOK_ON_SEMI", "BISHOP_PAIR", "TEMPO"};
+	private static final String[] MATERIALS = {"MATERIAL_MIDDLE", "MATERIAL_ENDING"};
+	private static final String[] MIRRORED_TABLES = {"W_PAWN_POS", "W_KNIGHT_POS", "W_BISHOP_POS", "W_ROOK_POS",
+		"W_QUEEN_POS", "W_KING_POS", "W_PAWN_POS_ENDING", "W_KNIGHT_OUTPOST_MIDDLE", "W_KNIGHT_OUTPOST_ENDING"};
+	private static final String[] SYMMETRIC_TABLES = {"KNIGHT_POS_ENDING", "BISHOP_POS_ENDING", "ROOK_POS_ENDING",
+		"QUEEN_POS_ENDING", "KING_POS_ENDING"};
+	private static final String[] TABLES = {"PASSED_RANK_BONUS", "TROPISM_KNIGHT", "TROPISM_BISHOP", "TROPISM_ROOK",
+		"TROPISM_QUEEN", "KING_ATTACK_EVAL"};
+
+	private static final int[] MATERIAL_PIECES = {W_PAWN, W_KNIGHT, W_BISHOP, W_ROOK, W_QUEEN};
+
+	private static List<Parameter> parameters = new ArrayList<Parameter>();
+	private static int vectorSize;
+
+	static {
+		for(String name : SCALARS) add(name, SCALAR);
+		for(String name : MATERIALS) add(name, MATERIAL);
+		for(String name : MIRRORED_TABLES) add(name, MIRRORED);
+		for(String name : SYMMETRIC_TABLES) add(name, SYMMETRIC);
+		for(String name : TABLES) add(name, TABLE);
+	}
+
+	/**
+	 * A named parameter and where its values are in Evaluation
+	 */
+	private static class Parameter {
+		String name;
+		int kind;
+		Field field; // For scalars
+		int[] table;
+		int[] mirror; // Black's table for MIRRORED
+		int fileSize; // Number of values in the file
+		int vectorSize; // Number of values in the vector
+
+		int get(int i) {
+			switch(kind) {
+			case SCALAR:
+				try {
+					return field.getInt(null);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			case MATERIAL:
+				return table[MATERIAL_PIECES[i] + 7];
+			case MIRRORED:
+			case SYMMETRIC:
+				return table[boardIndex(i)];
+			default:
+				return table[i];
+			}
+		}
+
+		void set(int i, int value) {
+			switch(kind) {
+			case SCALAR:
+				try {
+					field.setInt(null, value);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				break;
+			case MATERIAL:
+				table[MATERIAL_PIECES[i] + 7] = value;
+				table[-MATERIAL_PIECES[i] + 7] = value;
+				if(table == Evaluation.MATERIAL_MIDDLE) {
+					// Move ordering and futility pruning in the search use these
+					Evaluation.PIECE_VALUE_ARRAY[MATERIAL_PIECES[i] + 7] = value;
+					Evaluation.PIECE_VALUE_ARRAY[-MATERIAL_PIECES[i] + 7] = -value;
+					Evaluation.PIECE_VALUE_ARRAY_ABS[MATERIAL_PIECES[i] + 7] = value;
+					Evaluation.PIECE_VALUE_ARRAY_ABS[-MATERIAL_PIECES[i] + 7] = value;
+				}
+				break;
+			case MIRRORED:
+				table[boardIndex(i)] = value;
+				mirror[boardIndex(i) ^ 0x70] = value;
+				break;
+			default:
+				table[(kind == SYMMETRIC) ? boardIndex(i) : i] = value;
+				break;
+			}
+		}
+
+		/**
+		 * Sets a value from the vector, symmetric tables only have ranks
+		 * 1 to 4 in the vector and the other half follows
+		 */
+		void setFromVector(int i, int value) {
+			set(i, value);
+			if(kind == SYMMETRIC) table[boardIndex(i) ^ 0x70] = value;
+		}
+	}
+
+	private static void add(String name, int kind) {
+		Parameter parameter = new Parameter();
+		parameter.name = name;
+		parameter.kind = kind;
+		try {
+			Field field = Evaluation.class.getField(name);
+			if(kind == SCALAR) {
+				parameter.field = field;
+				parameter.fileSize = 1;
+			} else {
+				parameter.table = (int[])field.get(null);
+				parameter.fileSize = parameter.table.length;
+			}
+			if(kind == MIRRORED) {
+				parameter.mirror = (int[])Evaluation.class.getField("B_" + name.substring(2)).get(null);
+			}
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Evaluation has no parameter " + name);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+
+		if(kind == MATERIAL) parameter.fileSize = MATERIAL_PIECES.length;
+		if(kind == MIRRORED || kind == SYMMETRIC) parameter.fileSize = 64;
+		parameter.vectorSize = (kind == SYMMETRIC) ? 32 : parameter.fileSize;
+
+		parameters.add(parameter);
+		vectorSize += parameter.vectorSize;
+	} // END add()
+
+	/**
+	 * @param i
+	 *            Square from 0 (a1) to 63 (h8)
+	 * @return The 0x88 index of the square
+	 */
+	private static int boardIndex(int i) {
+		return (i & 7) + ((i >> 3) << 4);
+	} // END boardIndex()
+
+	/**
+	 * @return All the parameters after each other
+	 */
+	public static int[] getVector() {
+		int[] vector = new int[vectorSize];
+		int index = 0;
+		for(Parameter parameter : parameters) {
+			for(int i = 0; i < parameter.vectorSize; i++) vector[index++] = parameter.get(i);
+		}
+		return vector;
+	} // END getVector()
+
+	/**
+	 * @param vector
+	 *            All the parameters after each other, as from getVector()
+	 */
+	public static void setVector(int[] vector) {
+		int index = 0;
+		for(Parameter parameter : parameters) {
+			for(int i = 0; i < parameter.vectorSize; i++) parameter.setFromVector(i, vector[index++]);
+		}
+	} // END setVector()
+
+	/**
+	 * @return The names of the values in the vector, e.g. W_KNIGHT_POS[27]
+	 */
+	public static String[] getVectorNames() {
+		String[] names = new String[vectorSize];
+		int index = 0;
+		for(Parameter parameter : parameters) {
+			for(int i = 0; i < parameter.vectorSize; i++) {
+				names[index++] = (parameter.kind == SCALAR) ? parameter.name : parameter.name + "[" + i + "]";
+			}
+		}
+		return names;
+	} // END getVectorNames()
+
+	/**
+	 * Loads parameters from a file, the whole file is read and checked before
+	 * any parameter is changed
+	 *
+	 * @param path
+	 *            The file
+	 * @throws IOException
+	 *             If the file could not be read, has an unknown parameter
+	 *             or the wrong number of values
+	 */
+	public static void load(String path) throws IOException {
+		Map<Parameter, List<Integer>> loaded = new LinkedHashMap<Parameter, List<Integer>>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			Parameter current = null;
+			List<Integer> values = new ArrayList<Integer>();
+			String line;
+			while((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				if(comment != -1) line = line.substring(0, comment);
+
+				int equals = line.indexOf('=');
+				if(equals != -1) {
+					check(current, values);
+					if(current != null) loaded.put(current, values);
+					current = find(line.substring(0, equals).trim());
+					values = new ArrayList<Integer>();
+					line = line.substring(equals + 1);
+				}
+
+				for(String value : line.trim().split("\\s+")) {
+					if(value.length() == 0) continue;
+					if(current == null) throw new IOException("Value before the first parameter in " + path);
+					try {
+						values.add(Integer.valueOf(value));
+					} catch (NumberFormatException e) {
+						throw new IOException("Bad value " + value + " for " + current.name);
+					}
+				}
+			}
+			check(current, values);
+			if(current != null) loaded.put(current, values);
+		} finally {
+			reader.close();
+		}
+
+		for(Map.Entry<Parameter, List<Integer>> entry : loaded.entrySet()) {
+			List<Integer> fileValues = entry.getValue();
+			for(int i = 0; i < fileValues.size(); i++) entry.getKey().set(i, fileValues.get(i));
+		}
+	} // END load()
+
+	private static Parameter find(String name) throws IOException {
+		for(Parameter parameter : parameters) {
+			if(parameter.name.equals(name)) return parameter;
+		}
+		throw new IOException("Unknown parameter " + name);
+	} // END find()
+
+	private static void check(Parameter parameter, List<Integer> values) throws IOException {
+		if(parameter == null) return;
+		if(values.size() != parameter.fileSize) {
+			throw new IOException(parameter.name + " needs " + parameter.fileSize + " values but has " + values.size());
+		}
+	} // END check()
+
+	/**
+	 * Writes the current parameters to a file that load() can read
+	 *
+	 * @param path
+	 *            The file
+	 * @throws IOException
+	 *             If the file could not be written
+	 */
+	public static void save(String path) throws IOException {
+		PrintWriter writer = new PrintWriter(new FileWriter(path));
+		try {
+			writer.println("# Mediocre evaluation parameters");
+			for(Parameter parameter : parameters) {
+				StringBuilder line = new StringBuilder(parameter.name).append(" =");
+				if(parameter.fileSize == 64) {
+					// Piece square tables one rank per line
+					writer.println(line);
+					for(int rank = 0; rank < 8; rank++) {
+						StringBuilder row = new StringBuilder();
+						for(int file = 0; file < 8; file++) row.append(String.format("%5d", parameter.get(rank*8 + file)));
+						writer.println(row);
+					}
+				} else {
+					for(int i = 0; i < parameter.fileSize; i++) line.append(' ').append(parameter.get(i));
+					writer.println(line);
+				}
+			}
+			if(writer.checkError()) throw new IOException("Could not write " + path);
+		} finally {
+			writer.close();
+		}
+	} // END save()
+}
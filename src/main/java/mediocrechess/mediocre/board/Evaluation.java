@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 import mediocrechess.mediocre.def.Definitions;
 import mediocrechess.mediocre.main.Settings;
+import mediocrechess.mediocre.tablebase.Bitbase;
 
 /**
  *  class Evaluation
@@ -37,18 +38,20 @@ public class Evaluation implements Definitions
 	
 	public static int gamePhase;
 	
-	// Evaluation constants
-	public static final int PINNED_PIECE = 20;
-	public static final int PASSED_PAWN = 20;
-	public static final int DOUBLED_PAWN = 10; 
-	public static final int ISOLATED_PAWN = 20;
-	public static final int WEAK_PAWN = 15;
-	public static final int ROOK_ON_SEVENTH = 20;
-	public static final int QUEEN_ON_SEVENTH = 10;
-	public static final int ROOK_ON_OPEN = 20;
-	public static final int ROOK_ON_SEMI = 15;
-	public static final int BISHOP_PAIR = 50;
-	public static final int TEMPO = 10;
+	// Evaluation constants, the weights are not final so they can be
+	// loaded from a file (see EvalParameters)
+	public static int PINNED_PIECE = 20;
+	public static int PASSED_PAWN = 20;
+	public static int DOUBLED_PAWN = 10; 
+	public static int ISOLATED_PAWN = 20;
+	public static int WEAK_PAWN = 15;
+	public static int ROOK_ON_SEVENTH = 20;
+	public static int QUEEN_ON_SEVENTH = 10;
+	public static int ROOK_ON_OPEN = 20;
+	public static int ROOK_ON_SEMI = 15;
+	public static int BISHOP_PAIR = 50;
+	public static int TEMPO = 10;
+	public static final int LAZY_EVAL_MARGIN = 300; // How far outside the window material and piece positions have to be to skip the rest
 	
 
 	public static final int QUEEN_VALUE_MIDDLE = 975;
@@ -356,6 +359,28 @@ public class Evaluation implements Definitions
 		-20, -15, -10, -10, -10, -10, -15, -20,    0,0,0,0,0,0,0,0
 	};	
 	
+	// Material and piece square values for every piece, indexed by
+	// piece + 7 (like PIECE_VALUE_ARRAY) and for the tables also the square.
+	// Values are from the piece's own side so black is not negated.
+	// Board keeps running sums of these in makeMove and unmakeMove.
+	public static final int[] MATERIAL_MIDDLE =
+	{ 0, PAWN_VALUE_MIDDLE, KNIGHT_VALUE_MIDDLE, BISHOP_VALUE_MIDDLE, ROOK_VALUE_MIDDLE, QUEEN_VALUE_MIDDLE, 0,
+		0, 0, QUEEN_VALUE_MIDDLE, ROOK_VALUE_MIDDLE, BISHOP_VALUE_MIDDLE, KNIGHT_VALUE_MIDDLE, PAWN_VALUE_MIDDLE };
+	public static final int[] MATERIAL_ENDING =
+	{ 0, PAWN_VALUE_ENDING, KNIGHT_VALUE_ENDING, BISHOP_VALUE_ENDING, ROOK_VALUE_ENDING, QUEEN_VALUE_ENDING, 0,
+		0, 0, QUEEN_VALUE_ENDING, ROOK_VALUE_ENDING, BISHOP_VALUE_ENDING, KNIGHT_VALUE_ENDING, PAWN_VALUE_ENDING };
+	public static final int[][] PIECE_POS_MIDDLE =
+	{ new int[128], B_PAWN_POS, B_KNIGHT_POS, B_BISHOP_POS, B_ROOK_POS, B_QUEEN_POS, B_KING_POS,
+		new int[128], W_KING_POS, W_QUEEN_POS, W_ROOK_POS, W_BISHOP_POS, W_KNIGHT_POS, W_PAWN_POS };
+	public static final int[][] PIECE_POS_ENDING =
+	{ new int[128], B_PAWN_POS_ENDING, KNIGHT_POS_ENDING, BISHOP_POS_ENDING, ROOK_POS_ENDING, QUEEN_POS_ENDING, KING_POS_ENDING,
+		new int[128], KING_POS_ENDING, QUEEN_POS_ENDING, ROOK_POS_ENDING, BISHOP_POS_ENDING, KNIGHT_POS_ENDING, W_PAWN_POS_ENDING };
+
+	// How much every piece counts towards the game phase, indexed by piece + 7.
+	// A full set of pieces weighs 24, see phaseFromWeight()
+	public static final int[] PHASE_WEIGHT =
+	{ 0, 0, 1, 1, 2, 4, 0, 0, 0, 4, 2, 1, 1, 0 };
+	
 	// Marks the outpost squares for knight, do not put outpost values
 	// on the edges since we check for protecting pawns without checking out of board
 	public static final int[] W_KNIGHT_OUTPOST_MIDDLE =
@@ -459,10 +484,114 @@ public class Evaluation implements Definitions
 	public static EvalDetail evalDetail = new EvalDetail();
 	public static Value tempValue = new Value();
 	
+	// Lazy evaluation statistics, the checked numbers are only counted if lazyEvalCheck is set
+	public static boolean lazyEvalCheck; // Do a full evaluation as well on lazy exits to see how far off they were
+	public static long lazyEvalCalls;
+	public static long lazyEvalExits;
+	public static long lazyEvalWrong; // Lazy exits where the full evaluation was on the other side of the window
+	public static long lazyEvalErrorSum;
+	public static int lazyEvalMaxError;
+	
+	/**
+	 *  Evaluates the position but returns only material and piece square values
+	 *  if they are more than LAZY_EVAL_MARGIN outside the alpha/beta window,
+	 *  in which case the rest of the evaluation is very unlikely to matter
+	 *  
+	 *  @param board The position to evaluate
+	 *  @param alpha The lower bound of the window
+	 *  @param beta The upper bound of the window
+	 *  @return The evaluation from the side to move's view
+	 */
+	public static final int evaluate(Board board, int alpha, int beta) {
+		if(drawByMaterial(board,0)) return 0;
+		if(board.nnueAccumulators != null) return evaluate(board, true); // The network has no cheap part
+		
+		final int knownEval = knownEnding(board);
+		if(knownEval != EVALNOTFOUND) return knownEval;
+		
+		lazyEvalCalls++;
+		
+		gamePhase = board.gamePhase;
+		int lazyEval = gamePhaseScale(
+				(board.w_materialMiddle + board.w_piecePosMiddle) - (board.b_materialMiddle + board.b_piecePosMiddle),
+				(board.w_materialEnding + board.w_piecePosEnding) - (board.b_materialEnding + board.b_piecePosEnding)) * board.toMove;
+		
+		if(lazyEval - LAZY_EVAL_MARGIN >= beta || lazyEval + LAZY_EVAL_MARGIN <= alpha) {
+			lazyEvalExits++;
+			
+			if(lazyEvalCheck) {
+				int fullEval = evaluateFull(board, true);
+				int error = Math.abs(fullEval - lazyEval);
+				lazyEvalErrorSum += error;
+				if(error > lazyEvalMaxError) lazyEvalMaxError = error;
+				if((lazyEval >= beta && fullEval < beta) || (lazyEval <= alpha && fullEval > alpha)) lazyEvalWrong++;
+			}
+			
+			return lazyEval;
+		}
+		
+		return evaluateFull(board, true);
+	} // END evaluate()
+	
+	/**
+	 *  Scores endings that are in the bitbases or have a scoring function of
+	 *  their own, a known win gets a score of at least Endgame.KNOWN_WIN
+	 *  
+	 *  @param board The position to evaluate
+	 *  @return The evaluation from the side to move's view, or EVALNOTFOUND
+	 */
+	private static final int knownEnding(Board board) {
+		final int bitbaseResult = Bitbase.probe(board);
+		if(bitbaseResult == Bitbase.DRAW) return 0;
+		
+		final int endgameEval = Endgame.evaluate(board);
+		if(bitbaseResult != Bitbase.UNKNOWN) return Endgame.knownWin(board, endgameEval, bitbaseResult*board.toMove)*board.toMove;
+		if(endgameEval != EVALNOTFOUND) return endgameEval*board.toMove;
+		return EVALNOTFOUND;
+	} // END knownEnding()
+	
+	/**
+	 *  Clears the lazy evaluation statistics
+	 */
+	public static final void resetLazyEvalStats() {
+		lazyEvalCalls = 0;
+		lazyEvalExits = 0;
+		lazyEvalWrong = 0;
+		lazyEvalErrorSum = 0;
+		lazyEvalMaxError = 0;
+	} // END resetLazyEvalStats()
+	
+	/**
+	 *  @return The lazy evaluation statistics as a line of text
+	 */
+	public static final String getLazyEvalStats() {
+		String stats = "Lazy eval: " + lazyEvalExits + " exits of " + lazyEvalCalls + " calls";
+		if(lazyEvalCheck && lazyEvalExits != 0) {
+			stats += ", " + lazyEvalWrong + " wrong, average error " + (lazyEvalErrorSum / lazyEvalExits) + ", max error " + lazyEvalMaxError;
+		}
+		return stats;
+	} // END getLazyEvalStats()
+	
 	
 	public static final int evaluate(Board board, boolean useHash) {
 		if(drawByMaterial(board,0)) return 0;
-
+		
+		// Endings in the bitbases or with a scoring function of their own (see Bitbase and Endgame)
+		final int knownEval = knownEnding(board);
+		if(knownEval != EVALNOTFOUND) return knownEval;
+		
+		return evaluateFull(board, useHash);
+	} // END evaluate()
+	
+	/**
+	 *  Evaluates a position that is neither a draw by material nor a known
+	 *  ending, the callers have already checked both
+	 *  
+	 *  @param board The position to evaluate
+	 *  @param useHash Look the position up in the evaluation hash first
+	 *  @return The evaluation from the side to move's view
+	 */
+	private static final int evaluateFull(Board board, boolean useHash) {
 		if(useHash) {
 			final int hashEval = Settings.getInstance().getEvalHash().probeEval(board.zobristKey); 
 			if(hashEval != EVALNOTFOUND) {
@@ -470,6 +599,12 @@ public class Evaluation implements Definitions
 			}
 		}
 		
+		if(board.nnueAccumulators != null) {
+			int nnueEval = Nnue.evaluate(board);
+			Settings.getInstance().getEvalHash().recordEval(board.zobristKey,nnueEval*board.toMove);
+			return nnueEval;
+		}
+		
 		int attackedSquare;
 		
 		Arrays.fill(WB, 0);
@@ -484,12 +619,22 @@ public class Evaluation implements Definitions
 		
 		evalDetail.clear();
 		
+		// Material and piece positions are kept up to date by the board
+		evalDetail.material.wm = board.w_materialMiddle;
+		evalDetail.material.we = board.w_materialEnding;
+		evalDetail.material.bm = board.b_materialMiddle;
+		evalDetail.material.be = board.b_materialEnding;
+		evalDetail.piecePos.wm = board.w_piecePosMiddle;
+		evalDetail.piecePos.we = board.w_piecePosEnding;
+		evalDetail.piecePos.bm = board.b_piecePosMiddle;
+		evalDetail.piecePos.be = board.b_piecePosEnding;
+		
 		boolean wPawnOnSecond = false; // Remembers if there was a pawn on 2nd/7th rank, used to determine if placing a rook on 7th should be rewarded
 		boolean bPawnOnSeventh = false;
 
 		int index,file,rank;
 		
-		gamePhase = getGamePhase(board); // Get the phase the game is in TODO: Handle this incrementally in makeMove and unmakeMove
+		gamePhase = board.gamePhase; // Get the phase the game is in (kept up to date by makeMove and unmakeMove)
 		
 		// Evaluate trapped pieces
 		evalDetail.trappedEval.wm = w_trapped(board);
@@ -500,10 +645,6 @@ public class Evaluation implements Definitions
 		// Pawns
 		for(int i = 0; i < board.w_pawns.count; i++) {
 			index = board.w_pawns.pieces[i];
-			evalDetail.material.wm += PAWN_VALUE_MIDDLE; // Collect value
-			evalDetail.material.we += PAWN_VALUE_ENDING; // Pawns are worth a bit extra in the ending
-			evalDetail.piecePos.wm += W_PAWN_POS[index]; // Evaluate its position
-			evalDetail.piecePos.we += W_PAWN_POS_ENDING[index]; // Position if it is an ending
 			
 			attackedSquare = index + 17; // Record where the pawn attacks
 			if(((attackedSquare) & 0x88) == 0) {
@@ -533,10 +674,6 @@ public class Evaluation implements Definitions
 		
 		for(int i = 0; i < board.b_pawns.count; i++) {
 			index = board.b_pawns.pieces[i];
-			evalDetail.material.bm += PAWN_VALUE_MIDDLE;
-			evalDetail.material.be += PAWN_VALUE_ENDING; // Pawns are worth a bit extra in the ending
-			evalDetail.piecePos.bm += B_PAWN_POS[index];
-			evalDetail.piecePos.be += B_PAWN_POS_ENDING[index];
 			
 			attackedSquare = index - 17;
 			if(((attackedSquare) & 0x88) == 0) {
@@ -591,11 +728,7 @@ public class Evaluation implements Definitions
 		
 		// Knights
 		for(int i = 0; i < board.w_knights.count; i++) {
-			evalDetail.material.wm += KNIGHT_VALUE_MIDDLE;
-			evalDetail.material.we += KNIGHT_VALUE_ENDING;
 			index = board.w_knights.pieces[i];
-			evalDetail.piecePos.wm += W_KNIGHT_POS[index];
-			evalDetail.piecePos.we += KNIGHT_POS_ENDING[index];
 			
 			// If the knight is protected by one pawn award the value in the array,
 			// if protected by two pawns award double the value, and award nothing if it
@@ -613,11 +746,7 @@ public class Evaluation implements Definitions
 			evalDetail.tropism.we = evalDetail.tropism.wm;
 		}
 		for(int i = 0; i < board.b_knights.count; i++) {
-			evalDetail.material.bm += KNIGHT_VALUE_MIDDLE;
-			evalDetail.material.be += KNIGHT_VALUE_ENDING;
 			index = board.b_knights.pieces[i];
-			evalDetail.piecePos.bm += B_KNIGHT_POS[index];
-			evalDetail.piecePos.be += KNIGHT_POS_ENDING[index];
 			
 			if((index+15 & 0x88) == 0 && board.boardArray[index + 15] == B_PAWN && (index+17 & 0x88) == 0 && board.boardArray[index + 17] == B_PAWN) {
 				evalDetail.piecePos.bm += 2*B_KNIGHT_OUTPOST_MIDDLE[index];
@@ -633,22 +762,14 @@ public class Evaluation implements Definitions
 		}
 		// Bishops
 		for(int i = 0; i < board.w_bishops.count; i++) {
-			evalDetail.material.wm += BISHOP_VALUE_MIDDLE;
-			evalDetail.material.we += BISHOP_VALUE_ENDING;
 			index = board.w_bishops.pieces[i];
-			evalDetail.piecePos.wm += W_BISHOP_POS[index];
-			evalDetail.piecePos.we += BISHOP_POS_ENDING[index];
 			
 			gen_attack_wbishop(board, board.w_bishops.pieces[i]);
 			evalDetail.tropism.wm += TROPISM_BISHOP[Board.distance(board.b_king.pieces[0], index)];
 			evalDetail.tropism.we = evalDetail.tropism.wm;
 		}
 		for(int i = 0; i < board.b_bishops.count; i++) {
-			evalDetail.material.bm += BISHOP_VALUE_MIDDLE;
-			evalDetail.material.be += BISHOP_VALUE_ENDING;
 			index = board.b_bishops.pieces[i];
-			evalDetail.piecePos.bm += B_BISHOP_POS[index];
-			evalDetail.piecePos.be += BISHOP_POS_ENDING[index];
 			
 			gen_attack_bbishop(board, board.b_bishops.pieces[i]);
 			evalDetail.tropism.bm += TROPISM_BISHOP[Board.distance(board.w_king.pieces[0], index)];
@@ -669,10 +790,6 @@ public class Evaluation implements Definitions
 			index = board.w_rooks.pieces[i];
 			file = Board.file(index);
 			rank = Board.rank(index);
-			evalDetail.material.wm += ROOK_VALUE_MIDDLE;
-			evalDetail.material.we += ROOK_VALUE_ENDING;
-			evalDetail.piecePos.wm += W_ROOK_POS[index];
-			evalDetail.piecePos.we += ROOK_POS_ENDING[index];
 			
 			gen_attack_wrook(board, index);
 			
@@ -701,10 +818,6 @@ public class Evaluation implements Definitions
 			index = board.b_rooks.pieces[i];
 			file = Board.file(index);
 			rank = Board.rank(index);
-			evalDetail.material.bm += ROOK_VALUE_MIDDLE;
-			evalDetail.material.be += ROOK_VALUE_ENDING;
-			evalDetail.piecePos.bm += B_ROOK_POS[index];
-			evalDetail.piecePos.be += ROOK_POS_ENDING[index];
 			
 			gen_attack_brook(board, index);
 			
@@ -728,11 +841,7 @@ public class Evaluation implements Definitions
 		
 		// Queens
 		for(int i = 0; i < board.w_queens.count; i++) {
-			evalDetail.material.wm += QUEEN_VALUE_MIDDLE;
-			evalDetail.material.we += QUEEN_VALUE_ENDING;
 			index = board.w_queens.pieces[i];
-			evalDetail.piecePos.wm += W_QUEEN_POS[index];
-			evalDetail.piecePos.we += QUEEN_POS_ENDING[index];
 			
 			gen_attack_wqueen(board, index);
 			
@@ -746,11 +855,7 @@ public class Evaluation implements Definitions
 			evalDetail.tropism.we = evalDetail.tropism.wm;
 		}
 		for(int i = 0; i < board.b_queens.count; i++) {
-			evalDetail.material.bm += QUEEN_VALUE_MIDDLE;
-			evalDetail.material.be += QUEEN_VALUE_ENDING;
 			index = board.b_queens.pieces[i];
-			evalDetail.piecePos.bm += B_QUEEN_POS[index];
-			evalDetail.piecePos.be += QUEEN_POS_ENDING[index];
 			
 			gen_attack_bqueen(board, index);
 			
@@ -763,15 +868,8 @@ public class Evaluation implements Definitions
 			evalDetail.tropism.be = evalDetail.tropism.bm;
 		}
 		// Kings
-		evalDetail.piecePos.wm += W_KING_POS[board.w_king.pieces[0]];
-		evalDetail.piecePos.we += KING_POS_ENDING[board.w_king.pieces[0]];
 		gen_attack_wking(board,board.w_king.pieces[0]);
-
-		
-		evalDetail.piecePos.bm += B_KING_POS[board.b_king.pieces[0]];
-		evalDetail.piecePos.be += KING_POS_ENDING[board.b_king.pieces[0]];
 		gen_attack_bking(board,board.b_king.pieces[0]);
-		
 
 		w_kingAttacked(board); // Check for black pieces attacking the king
 		b_kingAttacked(board);
@@ -800,7 +898,7 @@ public class Evaluation implements Definitions
 		Settings.getInstance().getEvalHash().recordEval(board.zobristKey,finalEval);
 	
 		return finalEval*board.toMove;
-	}
+	} // END evaluateFull()
 	
 	public static final int gamePhaseScale(int middleScore, int endingScore) {
 		 return ((middleScore * (256 - gamePhase)) + (endingScore * gamePhase)) / 256;
@@ -2546,21 +2644,23 @@ public class Evaluation implements Definitions
 	 * @return gamePhase The phase the position on the board is in
 	 */	
 	public static final int getGamePhase(Board inputBoard) {
-		int gamePhaseCheck = 24; // Initialize the count (a full set of pieces, i.e. 4 knights, 4 bishops, 4 rooks and 2 queens)
-		
-		gamePhaseCheck -= inputBoard.w_knights.count;
-		gamePhaseCheck -= inputBoard.b_knights.count;
-		gamePhaseCheck -= inputBoard.w_bishops.count;
-		gamePhaseCheck -= inputBoard.b_bishops.count;
-		gamePhaseCheck -= inputBoard.w_rooks.count * 2;
-		gamePhaseCheck -= inputBoard.b_rooks.count * 2;
-		gamePhaseCheck -= inputBoard.w_queens.count * 4;
-		gamePhaseCheck -= inputBoard.b_queens.count * 4;
+		return inputBoard.gamePhase;
+	} // END getGamePhase()
+	
+	/**
+	 *  Turns the summed phase weight of the pieces on the board into
+	 *  the game phase, 0 with all pieces left and 256 with only pawns
+	 * 
+	 * @param phaseWeight The summed PHASE_WEIGHT of the pieces
+	 * @return gamePhase The phase the position is in
+	 */
+	public static final int phaseFromWeight(int phaseWeight) {
+		int gamePhaseCheck = 24 - phaseWeight; // A full set of pieces, i.e. 4 knights, 4 bishops, 4 rooks and 2 queens, weighs 24
 		
 		if(gamePhaseCheck < 0) gamePhaseCheck = 0;
 		
 		return (gamePhaseCheck * 256 + 12) / 24;	
-	} // END getGamePhase()
+	} // END phaseFromWeight()
 	
 	/**
 	 * Almost the same as evaluate() but has a few traces and doesn't touch the hash tables
@@ -0,0 +1,394 @@
+package mediocrechess.mediocre.board;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class Nnue
+ *
+ * Evaluates positions with a HalfKP network in the format used by the first
+ * Stockfish networks (256x2-32-32-1, int16 first layer and int8 hidden
+ * layers).
+ *
+ * A HalfKP feature is the square of the own king together with a non-king
+ * piece and its square, seen from one side. Every side has its own
+ * accumulator (the first layer before activation), which the board keeps up
+ * to date in makeMove by adding and removing the weights of the features
+ * that changed. Only when a king moves does that side's accumulator have to
+ * be rebuilt from scratch.
+ *
+ * The network is shared by all boards and has to be loaded with load()
+ * before any board turns on the accumulators.
+ *
+ * The hidden layers have two kernels. The scalar one does one multiply per
+ * weight. The packed one keeps two outputs in the two halves of a long, so
+ * every multiply and add does the work of two (the sums never need more than
+ * 24 bits so the halves can not run into each other). Which one is faster
+ * depends on the JVM and the machine, so both are timed on the start
+ * position when a network is loaded and the faster one is used.
+ */
+public class Nnue implements Definitions {
+	public static final int HALF_DIMENSIONS = 256; // Size of one side's accumulator
+	public static final int FEATURES = 64 * 641; // King squares * (10 pieces * 64 squares + 1)
+	private static final int L1_SIZE = 32;
+	private static final int L2_SIZE = 32;
+
+	private static final int VERSION = 0x7AF32F16;
+	private static final int WEIGHT_SHIFT = 6; // Hidden layer outputs are scaled down by 64
+	private static final int OUTPUT_SCALE = 16; // The output is scaled down by 16 ...
+	private static final int PAWN_VALUE = 208; // ... to units where a pawn in the ending is 208
+	private static final int BENCHMARK_ITERATIONS = 3000; // Evaluations per kernel when choosing one at load
+
+	public static final int KERNEL_SCALAR = 0;
+	public static final int KERNEL_PACKED = 1;
+	public static final String[] KERNEL_NAMES = {"scalar", "packed"};
+
+	// Offsets of the pieces in a king's feature block, own pieces first,
+	// indexed by piece type (W_QUEEN etc.)
+	private static final int[] OWN_OFFSET = {0, 0, 513, 385, 257, 129, 1};
+	private static final int[] ENEMY_OFFSET = {0, 0, 577, 449, 321, 193, 65};
+
+	private static boolean loaded = false;
+	private static String loadedPath = "";
+	private static int kernel = KERNEL_SCALAR;
+
+	private static short[] featureBiases = new short[HALF_DIMENSIONS];
+	private static short[] featureWeights; // [feature*HALF_DIMENSIONS + i]
+	private static int[] l1Biases = new int[L1_SIZE];
+	private static byte[] l1Weights = new byte[2*HALF_DIMENSIONS*L1_SIZE]; // [input*L1_SIZE + output], transposed from the file
+	private static int[] l2Biases = new int[L2_SIZE];
+	private static byte[] l2Weights = new byte[L1_SIZE*L2_SIZE]; // [input*L2_SIZE + output]
+	private static int outputBias;
+	private static byte[] outputWeights = new byte[L2_SIZE];
+	private static long[] l1Packed = new long[2*HALF_DIMENSIONS*L1_SIZE/2]; // [input*L1_SIZE/2 + output], output and output+L1_SIZE/2 in one long
+	private static long[] l2Packed = new long[L1_SIZE*L2_SIZE/2];
+
+	// Buffers for the layers, only one evaluation runs at a time
+	private static byte[] transformed = new byte[2*HALF_DIMENSIONS];
+	private static int[] l1Sums = new int[L1_SIZE];
+	private static byte[] l1Out = new byte[L1_SIZE];
+	private static int[] l2Sums = new int[L2_SIZE];
+	private static byte[] l2Out = new byte[L2_SIZE];
+	private static long[] packedSums = new long[Math.max(L1_SIZE, L2_SIZE)/2];
+
+	/**
+	 * Loads a network file, the old network is kept if loading fails
+	 *
+	 * @param path
+	 *            The file to load
+	 * @throws IOException
+	 *             If the file could not be read or has the wrong format
+	 */
+	public static synchronized void load(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			if(readInt(in) != VERSION) throw new IOException("Unknown network version in " + path);
+			readInt(in); // Hash of the whole network
+			int descriptionLength = readInt(in);
+			if(descriptionLength < 0) throw new IOException("Bad description length in " + path);
+			in.readFully(new byte[descriptionLength]);
+
+			short[] newFeatureBiases = new short[HALF_DIMENSIONS];
+			short[] newFeatureWeights = new short[FEATURES*HALF_DIMENSIONS];
+			int[] newL1Biases = new int[L1_SIZE];
+			byte[] newL1Weights = new byte[2*HALF_DIMENSIONS*L1_SIZE];
+			int[] newL2Biases = new int[L2_SIZE];
+			byte[] newL2Weights = new byte[L1_SIZE*L2_SIZE];
+			int[] newOutputBias = new int[1];
+			byte[] newOutputWeights = new byte[L2_SIZE];
+
+			readInt(in); // Hash of the feature transformer
+			readShorts(in, newFeatureBiases);
+			readShorts(in, newFeatureWeights);
+
+			readInt(in); // Hash of the hidden layers
+			readInts(in, newL1Biases);
+			readTransposed(in, newL1Weights, L1_SIZE, 2*HALF_DIMENSIONS);
+			readInts(in, newL2Biases);
+			readTransposed(in, newL2Weights, L2_SIZE, L1_SIZE);
+			readInts(in, newOutputBias);
+			in.readFully(newOutputWeights);
+
+			if(in.read() != -1) throw new IOException("Extra data at the end of " + path);
+
+			featureBiases = newFeatureBiases;
+			featureWeights = newFeatureWeights;
+			l1Biases = newL1Biases;
+			l1Weights = newL1Weights;
+			l2Biases = newL2Biases;
+			l2Weights = newL2Weights;
+			outputBias = newOutputBias[0];
+			outputWeights = newOutputWeights;
+			l1Packed = pack(l1Weights, 2*HALF_DIMENSIONS, L1_SIZE);
+			l2Packed = pack(l2Weights, L1_SIZE, L2_SIZE);
+			loaded = true;
+			loadedPath = path;
+		} finally {
+			in.close();
+		}
+
+		// Time the kernels on the start position and use the fastest
+		long[] times = benchmark(BENCHMARK_ITERATIONS);
+		kernel = (times[KERNEL_PACKED] < times[KERNEL_SCALAR]) ? KERNEL_PACKED : KERNEL_SCALAR;
+	} // END load()
+
+	/**
+	 * @return true if a network has been loaded
+	 */
+	public static boolean isLoaded() {
+		return loaded;
+	} // END isLoaded()
+
+	/**
+	 * @return The kernel used for the hidden layers (KERNEL_SCALAR or KERNEL_PACKED)
+	 */
+	public static int getKernel() {
+		return kernel;
+	} // END getKernel()
+
+	/**
+	 * @param newKernel
+	 *            The kernel to use for the hidden layers
+	 */
+	public static void setKernel(int newKernel) {
+		kernel = newKernel;
+	} // END setKernel()
+
+	/**
+	 * Times both kernels by evaluating the start position over and over, a
+	 * network has to be loaded
+	 *
+	 * @param iterations
+	 *            Number of evaluations for each kernel
+	 * @return Nanoseconds per evaluation, indexed by kernel
+	 * @throws IllegalStateException
+	 *             If the kernels do not give the same evaluation
+	 */
+	public static long[] benchmark(int iterations) {
+		Board board = new Board();
+		board.setupStart();
+		board.setNnue(true);
+
+		int oldKernel = kernel;
+		long[] times = new long[KERNEL_NAMES.length];
+		int[] evals = new int[KERNEL_NAMES.length];
+		for(int round = 0; round < 3; round++) { // The first rounds warm up the JIT
+			for(int k = 0; k < KERNEL_NAMES.length; k++) {
+				kernel = k;
+				long start = System.nanoTime();
+				for(int i = 0; i < iterations; i++) evals[k] = evaluate(board);
+				times[k] = (System.nanoTime() - start) / iterations;
+			}
+		}
+		kernel = oldKernel;
+
+		for(int k = 1; k < KERNEL_NAMES.length; k++) {
+			if(evals[k] != evals[KERNEL_SCALAR]) throw new IllegalStateException("The " + KERNEL_NAMES[k] + " kernel evaluates differently");
+		}
+		return times;
+	} // END benchmark()
+
+	/**
+	 * @return The path of the loaded network, or "" if none is loaded
+	 */
+	public static String getLoadedPath() {
+		return loadedPath;
+	} // END getLoadedPath()
+
+	/**
+	 * Returns the feature of a piece seen from one side, the board is turned
+	 * around for black so both sides see their own pieces from the bottom
+	 *
+	 * @param side
+	 *            The side the feature belongs to (WHITE or BLACK)
+	 * @param king
+	 *            The king square of the side (0x88)
+	 * @param piece
+	 *            The piece, not a king
+	 * @param square
+	 *            The square of the piece (0x88)
+	 * @return The feature index
+	 */
+	public static final int featureIndex(int side, int king, int piece, int square) {
+		int kingSquare = (king + (king & 7)) >> 1;
+		int pieceSquare = (square + (square & 7)) >> 1;
+		if(side == BLACK) {
+			kingSquare ^= 63;
+			pieceSquare ^= 63;
+		}
+
+		int type = Math.abs(piece);
+		int offset = ((piece > 0) == (side == WHITE)) ? OWN_OFFSET[type] : ENEMY_OFFSET[type];
+		return 641*kingSquare + offset + pieceSquare;
+	} // END featureIndex()
+
+	/**
+	 * Builds one side's half of the accumulator from all pieces on the board
+	 *
+	 * @param board
+	 *            The board
+	 * @param side
+	 *            The side to build for (WHITE or BLACK)
+	 * @param accumulator
+	 *            White's half followed by black's half
+	 */
+	public static final void refresh(Board board, int side, short[] accumulator) {
+		int start = (side == WHITE) ? 0 : HALF_DIMENSIONS;
+		System.arraycopy(featureBiases, 0, accumulator, start, HALF_DIMENSIONS);
+
+		int king = (side == WHITE) ? board.w_king.pieces[0] : board.b_king.pieces[0];
+		for(int square = 0; square < 128; square++) {
+			int piece = ((square & 0x88) == 0) ? board.boardArray[square] : EMPTY_SQUARE;
+			if(piece != EMPTY_SQUARE && piece != W_KING && piece != B_KING) {
+				addFeature(accumulator, start, featureIndex(side, king, piece, square), 1);
+			}
+		}
+	} // END refresh()
+
+	/**
+	 * Adds (or removes) a feature's weights to one side's accumulator
+	 *
+	 * @param accumulator
+	 *            The accumulator
+	 * @param start
+	 *            Where the side's half starts
+	 * @param feature
+	 *            The feature index
+	 * @param change
+	 *            1 to add the feature, -1 to remove it
+	 */
+	public static final void addFeature(short[] accumulator, int start, int feature, int change) {
+		int weights = feature*HALF_DIMENSIONS;
+		if(change > 0) {
+			for(int i = 0; i < HALF_DIMENSIONS; i++) accumulator[start + i] += featureWeights[weights + i];
+		} else {
+			for(int i = 0; i < HALF_DIMENSIONS; i++) accumulator[start + i] -= featureWeights[weights + i];
+		}
+	} // END addFeature()
+
+	/**
+	 * Runs the layers after the accumulator
+	 *
+	 * @param board
+	 *            The board, with the accumulator up to date
+	 * @return The evaluation in centipawns from the side to move's view
+	 */
+	public static final int evaluate(Board board) {
+		short[] accumulator = board.nnueAccumulators[board.historyIndex];
+
+		// The side to move's half comes first
+		int first = (board.toMove == WHITE) ? 0 : HALF_DIMENSIONS;
+		int second = HALF_DIMENSIONS - first;
+		for(int i = 0; i < HALF_DIMENSIONS; i++) {
+			transformed[i] = clip(accumulator[first + i]);
+			transformed[HALF_DIMENSIONS + i] = clip(accumulator[second + i]);
+		}
+
+		// Most inputs are 0 after the clipping so the weights are stored
+		// input by input and only the non-zero inputs are added
+		if(kernel == KERNEL_PACKED) {
+			packedLayer(transformed, 2*HALF_DIMENSIONS, l1Biases, l1Packed, l1Sums, l1Out, L1_SIZE);
+			packedLayer(l1Out, L1_SIZE, l2Biases, l2Packed, l2Sums, l2Out, L2_SIZE);
+		} else {
+			layer(transformed, 2*HALF_DIMENSIONS, l1Biases, l1Weights, l1Sums, l1Out, L1_SIZE);
+			layer(l1Out, L1_SIZE, l2Biases, l2Weights, l2Sums, l2Out, L2_SIZE);
+		}
+
+		int output = outputBias;
+		for(int i = 0; i < L2_SIZE; i++) output += outputWeights[i]*l2Out[i];
+
+		return (output / OUTPUT_SCALE) * 100 / PAWN_VALUE;
+	} // END evaluate()
+
+	/**
+	 * Computes a hidden layer with clipped outputs
+	 */
+	private static final void layer(byte[] in, int inSize, int[] biases, byte[] weights, int[] sums, byte[] out, int outSize) {
+		System.arraycopy(biases, 0, sums, 0, outSize);
+		for(int i = 0; i < inSize; i++) {
+			int input = in[i];
+			if(input == 0) continue;
+			int w = i*outSize;
+			for(int j = 0; j < outSize; j++) sums[j] += weights[w + j]*input;
+		}
+		for(int j = 0; j < outSize; j++) out[j] = clip(sums[j] >> WEIGHT_SHIFT);
+	} // END layer()
+
+	/**
+	 * Computes a hidden layer with clipped outputs, two outputs at a time
+	 */
+	private static final void packedLayer(byte[] in, int inSize, int[] biases, long[] weights, int[] sums, byte[] out, int outSize) {
+		int half = outSize/2;
+		for(int j = 0; j < half; j++) packedSums[j] = 0;
+		for(int i = 0; i < inSize; i++) {
+			int input = in[i];
+			if(input == 0) continue;
+			int w = i*half;
+			for(int j = 0; j < half; j++) packedSums[j] += weights[w + j]*input;
+		}
+
+		// The low half can be negative and then borrows one from the high half
+		for(int j = 0; j < half; j++) {
+			int low = (int)packedSums[j];
+			sums[j] = biases[j] + low;
+			sums[j + half] = biases[j + half] + (int)((packedSums[j] - low) >> 32);
+		}
+		for(int j = 0; j < outSize; j++) out[j] = clip(sums[j] >> WEIGHT_SHIFT);
+	} // END packedLayer()
+
+	/**
+	 * Puts the weights of output j and j+outSize/2 in the same long
+	 *
+	 * @param weights
+	 *            The weights stored input by input
+	 * @return The packed weights
+	 */
+	private static long[] pack(byte[] weights, int inSize, int outSize) {
+		int half = outSize/2;
+		long[] packed = new long[inSize*half];
+		for(int i = 0; i < inSize; i++) {
+			for(int j = 0; j < half; j++) {
+				packed[i*half + j] = ((long)weights[i*outSize + j + half] << 32) + weights[i*outSize + j];
+			}
+		}
+		return packed;
+	} // END pack()
+
+	private static final byte clip(int value) {
+		return (byte)(value < 0 ? 0 : (value > 127 ? 127 : value));
+	} // END clip()
+
+	/**
+	 * The file is little endian while DataInputStream reads big endian
+	 */
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	} // END readInt()
+
+	private static void readInts(DataInputStream in, int[] values) throws IOException {
+		for(int i = 0; i < values.length; i++) values[i] = readInt(in);
+	} // END readInts()
+
+	private static void readShorts(DataInputStream in, short[] values) throws IOException {
+		byte[] buffer = new byte[2*values.length];
+		in.readFully(buffer);
+		for(int i = 0; i < values.length; i++) {
+			values[i] = (short)((buffer[2*i] & 0xff) | (buffer[2*i + 1] << 8));
+		}
+	} // END readShorts()
+
+	/**
+	 * Reads a layer stored output by output and stores it input by input
+	 */
+	private static void readTransposed(DataInputStream in, byte[] weights, int outSize, int inSize) throws IOException {
+		byte[] buffer = new byte[outSize*inSize];
+		in.readFully(buffer);
+		for(int o = 0; o < outSize; o++) {
+			for(int i = 0; i < inSize; i++) weights[i*outSize + o] = buffer[o*inSize + i];
+		}
+	} // END readTransposed()
+}
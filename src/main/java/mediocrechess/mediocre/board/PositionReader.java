@@ -0,0 +1,58 @@
+package mediocrechess.mediocre.board;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * class PositionReader
+ *
+ * Reads positions written by PositionWriter into a board, one record at a
+ * time, without creating any objects per position.
+ */
+public class PositionReader implements Closeable {
+	private InputStream in;
+	private byte[] record; // Reused for every position
+
+	/**
+	 * @param in
+	 *            The stream to read from, it is buffered here
+	 */
+	public PositionReader(InputStream in) {
+		this.in = new BufferedInputStream(in);
+		this.record = new byte[Board.BINARY_SIZE];
+	} // END PositionReader()
+
+	/**
+	 * Reads the next position into the board
+	 *
+	 * @param board
+	 *            The board to set up
+	 * @return true if a position was read, false at the end of the stream
+	 * @throws IOException
+	 *             If reading failed or the stream ended inside a record
+	 */
+	public boolean read(Board board) throws IOException {
+		int read = 0;
+		while (read < record.length) {
+			int n = in.read(record, read, record.length - read);
+			if (n == -1) {
+				if (read == 0) return false;
+				throw new EOFException("The stream ended inside a position record");
+			}
+			read += n;
+		}
+
+		board.inputBinary(record, 0);
+		return true;
+	} // END read()
+
+	/**
+	 * Closes the underlying stream
+	 */
+	public void close() throws IOException {
+		in.close();
+	} // END close()
+}
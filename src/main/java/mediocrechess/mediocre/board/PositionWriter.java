@@ -0,0 +1,46 @@
+package mediocrechess.mediocre.board;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * class PositionWriter
+ *
+ * Writes positions to a stream as records of Board.BINARY_SIZE bytes (see
+ * Board.getBinary()), with no header or separators so record n starts at
+ * byte n*BINARY_SIZE.
+ */
+public class PositionWriter implements Closeable {
+	private OutputStream out;
+	private byte[] record; // Reused for every position
+
+	/**
+	 * @param out
+	 *            The stream to write to, it is buffered here
+	 */
+	public PositionWriter(OutputStream out) {
+		this.out = new BufferedOutputStream(out);
+		this.record = new byte[Board.BINARY_SIZE];
+	} // END PositionWriter()
+
+	/**
+	 * Writes the position on the board
+	 *
+	 * @param board
+	 *            The board to write
+	 * @throws IOException
+	 */
+	public void write(Board board) throws IOException {
+		board.getBinary(record, 0);
+		out.write(record);
+	} // END write()
+
+	/**
+	 * Flushes and closes the underlying stream
+	 */
+	public void close() throws IOException {
+		out.close();
+	} // END close()
+}
@@ -45,19 +45,16 @@ public class See implements Definitions {
 	 * once the intervening piece does its capture) and simulate the capture
 	 * sequence to determine what is gained/lost from the capture.
 	 * 
+	 * A non-capture is played out the same way, starting with nothing
+	 * captured, so it tells what the moving piece can lose on its new square.
+	 * 
 	 * @param move
-	 *            The capture we want to checka
+	 *            The capture (or non-capture) we want to check
 	 * @param board
 	 *            The board the move is made on
 	 * @return capture_value What was gained/lost from the capture sequence
 	 */
 	public static int see(Board inputBoard, int move) {
-		// A simple check to see we are actually trying a capturing move
-		// if the move is not a capture there is not capture sequence
-		// and we won't go any further
-		if (Move.capture(move) == 0)
-			return 0;
-
 		// Initialize global variables
 		move_to = Move.toIndex(move);
 		move_from = Move.fromIndex(move);
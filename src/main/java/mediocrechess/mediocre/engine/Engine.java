@@ -12,6 +12,8 @@ import mediocrechess.mediocre.board.See;
 import mediocrechess.mediocre.main.Mediocre;
 import mediocrechess.mediocre.main.Uci;
 import mediocrechess.mediocre.main.Settings;
+import mediocrechess.mediocre.tablebase.Bitbase;
+import mediocrechess.mediocre.tablebase.Syzygy;
 import mediocrechess.mediocre.def.Definitions;
 
 public class Engine implements Definitions {
@@ -22,6 +24,27 @@ public class Engine implements Definitions {
 	public static final int PLY = 16; // Represents a full ply
 	
 	public static final int[] FUTILITY_VALS = {0, 120, 120, 310, 310, 400}; // Shamelessly stolen from Crafty
+	public static final int[] REVERSE_FUTILITY_VALS = {0, 90, 180, 270, 360, 450}; // Margin above beta for reverse futility pruning
+	public static final int[] RAZOR_VALS = {0, 500}; // Margin below alpha for razoring
+	public static final int[] LATE_MOVE_COUNTS = {0, 4, 7, 12, 19}; // Non-captures searched before the rest are pruned, by depth
+	public static final int SEE_QUIET_MARGIN = 60; // Non-captures losing more than this times the depth by SEE are pruned
+	public static final int SEE_CAPTURE_MARGIN = 100; // Same for losing captures
+	public static final int SINGULAR_DEPTH = 8; // Depth (in plies) from where the hash move can be extended as singular
+	public static final int LMR_HISTORY_DIVISOR = 8192; // History score that takes one ply off the reduction
+	public static final int PROBCUT_DEPTH = 7; // Depth (in plies) from where ProbCut is tried
+	public static final int PROBCUT_MARGIN = 200; // How far above beta the captures have to get
+	public static final int PROBCUT_REDUCTION = 4; // Plies less for the ProbCut search
+	
+	// Late move reductions in PLY units by depth (in plies) and move number,
+	// growing with the logarithm of both
+	private static final int[][] REDUCTIONS = new int[64][64];
+	static {
+		for(int depth = 1; depth < 64; depth++) {
+			for(int moveNumber = 1; moveNumber < 64; moveNumber++) {
+				REDUCTIONS[depth][moveNumber] = (int) (PLY*(0.75 + Math.log(depth)*Math.log(moveNumber)/2.25));
+			}
+		}
+	}
 
 	private static int nodesSearched; // Nodes searched for current root move
 	private static int totalNodesSearched; // The total number of nodes for the entire search
@@ -33,12 +56,23 @@ public class Engine implements Definitions {
 	private static int nextTimeCheck; // Keeps track of when to check the time
 	//private static int globalBestMove; // Keeps track of the best move (to not rely fully on the tt for this)
 	private static boolean useFixedDepth; // Is this a fixed depth search or not?
-	private static KillerMoves killers; // Keeps track of killer moves
+	private static KillerMoves killers = new KillerMoves(); // Keeps track of killer moves, kept between searches
 	private static LineEval finalEval;
-	private static int[][] historyValues;
-	private static int[][] historyBetaHits;
+	private static History history = new History(); // Orders the non-captures, kept between searches
+	private static int[] playedMoves; // The move played at every ply, 0 for a null move
+	private static int[][] searchedQuiets; // The non-captures searched at every ply
+	private static MovePicker[] pickers; // One move picker for every ply
 	private static int rootMovesCount;
 	private static boolean ponder;
+	private static boolean probeTablebases; // Probe the tablebases in the search
+	private static int tbHits; // Positions found in the tablebases
+	private static int[] excludedMoves; // The move left out at every ply while looking for a singular move
+	private static int[] staticEvals; // The evaluation at every ply, EVALNOTFOUND if in check
+	private static long reducedSearches; // Late move reduction statistics, see getReductionStats()
+	private static long reducedResearches;
+	private static long reducedFailHighs;
+	private static long probCutTries; // ProbCut statistics, see getProbCutStats()
+	private static long probCutCutoffs;
 	
 	public static LineEval search(Board board, int depth, int timeLeft, int increment, int movetime, boolean isPonder) throws IOException {
 		// Some initalizations
@@ -55,16 +89,43 @@ public class Engine implements Definitions {
 		else timeForThisMove = movetime;
 		nextTimeCheck = TIME_CHECK_INTERVAL;
 		useFixedDepth = depth != 0;
-		killers = new KillerMoves();
-		historyValues = new int[128][128];
-		historyBetaHits = new int[128][128];
+		// What was learned on the last move is kept, the killers are moved up
+		// two plies (the root is now two plies further into the game) and the
+		// history counts for less than what is found in this search
+		killers.shift(2);
+		history.age();
+		playedMoves = new int[searchMoves.length];
+		searchedQuiets = new int[searchMoves.length][256];
+		excludedMoves = new int[searchMoves.length];
+		staticEvals = new int[searchMoves.length];
+		pickers = new MovePicker[searchMoves.length];
+		for(int i = 0; i < pickers.length; i++)
+			pickers[i] = new MovePicker(searchMoves[i], history);
 		ponder = isPonder;
+		Evaluation.resetLazyEvalStats();
+		reducedSearches = 0;
+		reducedResearches = 0;
+		reducedFailHighs = 0;
+		probCutTries = 0;
+		probCutCutoffs = 0;
 		
 		nodesSearched = 0;
 		
 		rootMovesCount = board.gen_allLegalMoves(searchMoves[0], 0);
+		
+		// If the root is in the tablebases only the moves keeping the best result are searched
+		tbHits = 0;
+		probeTablebases = Syzygy.getMaxPieces() != 0;
+		int tablebaseMoves = Syzygy.probeRoot(board, searchMoves[0], rootMovesCount);
+		if(tablebaseMoves != 0) {
+			rootMovesCount = tablebaseMoves;
+			tbHits++;
+			if(Syzygy.isRootDtz()) probeTablebases = false; // All moves left keep the result anyway
+		}
+		
 		for(int i = 0; i < rootMovesCount; i++) {
 			board.makeMove(searchMoves[0][i].move);
+			playedMoves[0] = searchMoves[0][i].move;
 			searchMoves[0][i].score = -alphaBeta(board, 1*PLY, -INFINITY, INFINITY, false, 1);
 			board.unmakeMove(searchMoves[0][i].move);
 		}
@@ -143,9 +204,21 @@ public class Engine implements Definitions {
 			current_depth++; // Go to the next depth
 		}
 		
+		logger.debug(Evaluation.getLazyEvalStats());
+		logger.debug(getReductionStats());
+		logger.debug(getProbCutStats());
 		return finalEval;
 	} // END search
 	
+	/**
+	 * Forgets the killers and history of earlier searches, done at the start
+	 * of a new game
+	 */
+	public static void clearHistory() {
+		killers = new KillerMoves();
+		history = new History();
+	} // END clearHistory()
+	
 	public static Move alphaBetaRoot(Board board, int depth, int alpha, int beta, boolean allowNull, int ply) throws IOException {
 		Move bestMove = new Move(); // Initialize the best move
 		int eval = 0; // Initialize the eval
@@ -168,6 +241,7 @@ public class Engine implements Definitions {
 		for(int i = 0; i < rootMovesCount; i++) {
 
 			board.makeMove(searchMoves[ply][i].move); // Make the move on the board
+			playedMoves[ply] = searchMoves[ply][i].move;
 
 			// Report what move we're looking at currently
 			if((depth/PLY > 10 && !stopSearch && timeForThisMove > 1000 && System.currentTimeMillis() - startTime > timeForThisMove*0.5)) {
@@ -175,10 +249,25 @@ public class Engine implements Definitions {
 			}
 			
 			if(searchedMoves >= 1) {
-				if(searchedMoves > 3 &&
-						depth > 3*PLY &&
+				// Late move reduction as in alphaBeta(), the root moves are
+				// ordered by nodes searched so there is no history score
+				int reduction = 0;
+				if(searchedMoves > 1 &&
+						Move.capture(searchMoves[ply][i].move) == 0 &&
+						Move.moveType(searchMoves[ply][i].move) < PROMOTION_QUEEN &&
+						depth >= 3*PLY &&
 						!board.isInCheck()) {
-					eval = -alphaBeta(board, depth-(2*PLY), -alpha-1,-alpha, true, ply+1);
+					reduction = reduction(depth, searchedMoves, true, true, 0);
+				}
+
+				if(reduction > 0) {
+					reducedSearches++;
+					eval = -alphaBeta(board, depth-PLY-reduction, -alpha-1,-alpha, true, ply+1);
+					if(eval > alpha) {
+						reducedResearches++;
+						eval = -alphaBeta(board, depth-PLY, -alpha -1, -alpha, true, ply+1);
+						if(eval > alpha) reducedFailHighs++;
+					}
 				} else {
 					// 	PVS search
 					eval = -alphaBeta(board, depth-PLY, -alpha -1, -alpha, true, ply+1);
@@ -231,6 +320,7 @@ public class Engine implements Definitions {
 	public static int alphaBeta(Board board, int depth, int alpha, int beta, boolean allowNull, int ply) throws IOException {
 		int bestMove = 0; // Initialize the best move
 		int eval = 0; // Initialize the eval
+		int excludedMove = excludedMoves[ply]; // Set if this is the search without the hash move
 
 		// Check if we've run out of time
 		if(!useFixedDepth) {
@@ -252,7 +342,8 @@ public class Engine implements Definitions {
 		
 
 		// Check if the value in the hashtable was found at same or higher depth search
-		if(Settings.getInstance().getTranspositionTable().entryExists(board.zobristKey) && Settings.getInstance().getTranspositionTable().getDepth(board.zobristKey) >= depth/PLY) {
+		// (not when the hash move is left out, the entry is for all the moves)
+		if(excludedMove == 0 && Settings.getInstance().getTranspositionTable().entryExists(board.zobristKey) && Settings.getInstance().getTranspositionTable().getDepth(board.zobristKey) >= depth/PLY) {
 			if(Settings.getInstance().getTranspositionTable().getFlag(board.zobristKey) == HASH_EXACT) {
 				// Since this is stored as an exact value we can use it right away
 				searchMoves[ply][0].move = Settings.getInstance().getTranspositionTable().getMove(board.zobristKey);
@@ -270,6 +361,30 @@ public class Engine implements Definitions {
 
 		}
 
+		// Tablebases, the win/draw/loss tables do not know how far the last capture
+		// or pawn move was so only probe right after one
+		if(excludedMove == 0 && probeTablebases && board.movesFifty == 0 && Syzygy.canProbe(board)) {
+			int wdl = Syzygy.probeWdl(board);
+			if(Syzygy.lastProbeOk()) {
+				tbHits++;
+				int tbEval = Syzygy.wdlToScore(wdl, ply);
+				int flag = (wdl < Syzygy.WDL_BLESSED_LOSS) ? HASH_ALPHA : (wdl > Syzygy.WDL_CURSED_WIN) ? HASH_BETA : HASH_EXACT;
+				if(flag == HASH_EXACT || (flag == HASH_BETA ? tbEval >= beta : tbEval <= alpha)) {
+					Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY, flag, tbEval, 0);
+					searchMoves[ply][0].move = 0;
+					return tbEval;
+				}
+			}
+		}
+
+		// Drawn endings in the bitbases, won ones are left to the evaluation
+		// since the bitbases do not know how far the mate is
+		if(excludedMove == 0 && Bitbase.probe(board) == Bitbase.DRAW) {
+			tbHits++;
+			searchMoves[ply][0].move = 0;
+			return 0;
+		}
+
 		boolean isInCheck = board.isInCheck();
 		if(isInCheck) {
 			depth += PLY;
@@ -287,17 +402,62 @@ public class Engine implements Definitions {
 			return eval;
 		}
 		
+		// The static evaluation, near the leaves it only needs to be exact close
+		// to alpha-margin, but always above it since reverse futility below cuts
+		// the whole node on it
+		int materialEval = 0;
+		if(!isInCheck) {
+			if(depth <= 5*PLY) materialEval = Evaluation.evaluate(board, alpha - FUTILITY_VALS[depth/PLY], INFINITY);
+			else materialEval = Evaluation.evaluate(board, -INFINITY, INFINITY);
+		}
+		
+		// The position is improving if the evaluation is better than two plies ago
+		// (or that is not known), late moves are then reduced less
+		staticEvals[ply] = isInCheck ? EVALNOTFOUND : materialEval;
+		boolean improving = isInCheck || ply < 3 || staticEvals[ply-2] == EVALNOTFOUND || materialEval > staticEvals[ply-2];
+		
+		boolean fprune = false;
+		int fmargin = 0;
+		// Futility pruning, if we're at a frontier node
+		// check if the current evaluation + 200 (500 for pre frontier nodes)
+		// reaches up to alpha, if it doesn't the node is poor and we
+		// do not search it if it's not a checking move (determined below)
+		if(depth <= 5*PLY && !isInCheck) {
+			if((materialEval + FUTILITY_VALS[depth/PLY])  <= alpha) 	{
+				fmargin = FUTILITY_VALS[depth/PLY];
+				fprune = true;
+			}
+			
+			if(beta - alpha <= 1 && excludedMove == 0 && Math.abs(beta) < MATE_BOUND && board.gamePhase != PHASE_PAWN_ENDING) {
+				// Reverse futility pruning (static null move), if the evaluation is above
+				// beta by more than a move at this depth could lose, the node is cut
+				if(materialEval - REVERSE_FUTILITY_VALS[depth/PLY] >= beta) {
+					return materialEval - REVERSE_FUTILITY_VALS[depth/PLY];
+				}
+				
+				// Razoring, if the evaluation is this far below alpha close to the leaves
+				// only captures can help, so if the quiescent search can not reach alpha
+				// either the node is left
+				if(depth < RAZOR_VALS.length*PLY && materialEval + RAZOR_VALS[depth/PLY] <= alpha) {
+					eval = quiescentSearch(board, alpha, beta, ply);
+					if(eval <= alpha) return eval;
+				}
+			}
+		}
+		
 		// Null move
 		boolean threat = false;
 		if (beta - alpha <= 1 && // non-PV node
 				allowNull && // Don't do two null moves in a row
+				excludedMove == 0 &&
 				!isInCheck &&
 				depth > PLY &&
-				Evaluation.getGamePhase(board) != PHASE_PAWN_ENDING) { 
+				board.gamePhase != PHASE_PAWN_ENDING) { 
 			
 			int R = (depth > 6*PLY) ? PLY*3 : PLY*2;
 			
 			board.nullmoveToggle();
+			playedMoves[ply] = 0;
 			eval = -alphaBeta(board, depth-PLY-R, -beta, -beta+1, false, ply+1);
 			board.nullmoveToggle();
 			
@@ -310,6 +470,51 @@ public class Engine implements Definitions {
 		}
 		
 		if(stopSearch) return 0; // Stop the search if it's been detected
+		
+		// ProbCut, if a capture gets well above beta both in the quiescent search and
+		// in a search a few plies shallower, the full search would most likely get
+		// above beta as well and the node is cut
+		// Not tried if the hash table already has a search this deep that did not
+		// get that far
+		int probBeta = beta + PROBCUT_MARGIN;
+		if(beta - alpha <= 1 &&
+				excludedMove == 0 &&
+				!isInCheck &&
+				depth >= PROBCUT_DEPTH*PLY &&
+				Math.abs(beta) < MATE_BOUND &&
+				!(Settings.getInstance().getTranspositionTable().entryExists(board.zobristKey) &&
+						Settings.getInstance().getTranspositionTable().getDepth(board.zobristKey) >= depth/PLY - 3 &&
+						Settings.getInstance().getTranspositionTable().getEval(board.zobristKey) < probBeta)) {
+			probCutTries++;
+			int captureCount = board.filterLegal(searchMoves[ply], 0, board.gen_caps(searchMoves[ply], 0));
+			for(int i = 0; i < captureCount; i++) {
+				searchMoves[ply][i].score = 256*Evaluation.PIECE_VALUE_ARRAY_ABS[Move.capture(searchMoves[ply][i].move)+7] - Evaluation.PIECE_VALUE_ARRAY_ABS[Move.pieceMoving(searchMoves[ply][i].move)+7];
+			}
+			
+			for(int i = 0; i < captureCount; i++) {
+				MovePicker.pickBest(searchMoves[ply], i, captureCount);
+				int move = searchMoves[ply][i].move;
+				
+				// Only captures that can get the evaluation up to the raised beta
+				if(See.see(board, move) < probBeta - materialEval) continue;
+				
+				board.makeMove(move);
+				nodesSearched++;
+				playedMoves[ply] = move;
+				eval = -quiescentSearch(board, -probBeta, -probBeta+1, ply+1);
+				if(eval >= probBeta) {
+					eval = -alphaBeta(board, depth-PROBCUT_REDUCTION*PLY, -probBeta, -probBeta+1, true, ply+1);
+				}
+				board.unmakeMove(move);
+				
+				if(stopSearch) return 0;
+				if(eval >= probBeta) {
+					probCutCutoffs++;
+					Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY - 3, HASH_BETA, eval, move);
+					return eval;
+				}
+			}
+		}
 
 		int hashMove =  Settings.getInstance().getTranspositionTable().getMove(board.zobristKey);
 		
@@ -318,245 +523,180 @@ public class Engine implements Definitions {
 			hashMove = searchMoves[ply+1][0].move;			
 		}
 		
-		if(hashMove != 0 && !board.validateHashMove(hashMove)) {
+		if(hashMove != 0 && (!board.validateHashMove(hashMove) || !board.isLegal(hashMove))) {
 			hashMove = 0;
 		}
 		
+		// Singular extension, if the hash move was a cutoff (or exact) at close to
+		// this depth, search the other moves at half depth with a window a bit below
+		// its score, if none of them gets there the hash move is the only good move
+		// and is searched one ply deeper
+		// If another move gets there and that is above beta too, more than one move
+		// holds the cutoff and the node is cut without searching it (multi-cut)
+		// This is done before the position is put in the repetition table since it
+		// searches the same position again
+		boolean singular = false;
+		if(hashMove != 0 &&
+				excludedMove == 0 &&
+				depth >= SINGULAR_DEPTH*PLY &&
+				ply < 2*current_depth &&
+				Settings.getInstance().getTranspositionTable().getFlag(board.zobristKey) != HASH_ALPHA &&
+				Settings.getInstance().getTranspositionTable().getDepth(board.zobristKey) >= depth/PLY - 3) {
+			int hashEval = Settings.getInstance().getTranspositionTable().getEval(board.zobristKey);
+			if(Math.abs(hashEval) < MATE_BOUND) {
+				int singularBeta = hashEval - 2*(depth/PLY);
+				excludedMoves[ply] = hashMove;
+				eval = alphaBeta(board, (depth/PLY - 1)/2*PLY, singularBeta-1, singularBeta, false, ply);
+				excludedMoves[ply] = 0;
+				if(stopSearch) return 0;
+				singular = eval < singularBeta;
+				if(!singular && singularBeta >= beta) return singularBeta;
+			}
+		}
+		
 		Settings.getInstance().getRepTable().recordRep(board.zobristKey);
 		
-		int generationState = GEN_HASH;
-		int tempMove;
 		int bestEval = -INFINITY;
 		int eval_type = HASH_ALPHA;
 		int searchedMoves = 0; // Number of moves that have been searched, more than 1 will enable pvs, 0 at the end of move generation will result in a draw/mate check
-		int currentMovesCount = 0;
-		int capturesCount = 0;
-		int startLosingCaptures = -1;
-		int startIndex = 0;
-		int killerOne = 0;
-		int killerTwo = 0;
-		int killerOneOld = 0;
-		int killerTwoOld = 0;
 
-		int materialEval = 0;
-		
-		boolean fprune = false;
-		int fmargin = 0;
-		// Futility pruning, if we're at a frontier node
-		// check if the current evaluation + 200 (500 for pre frontier nodes)
-		// reaches up to alpha, if it doesn't the node is poor and we
-		// do not search it if it's not a checking move (determined below)
-		if(depth <= 5*PLY && !isInCheck) {
-			materialEval = Evaluation.evaluate(board, true);
-			if((materialEval + FUTILITY_VALS[depth/PLY])  <= alpha) 	{
-				fmargin = FUTILITY_VALS[depth/PLY];
-				fprune = true;
-			}
-		}
-
-		// Outer loop, this loops 6 times, one time for every part of move generation
-		while(generationState < GEN_END) {		
-			// Generate part of the moves depending on how many times we have looped
-			switch(generationState) {
-			case GEN_HASH:
+		// The picker generates the moves stage by stage (hash move, good captures,
+		// killers, non-captures and losing captures) as they are needed
+		MovePicker picker = pickers[ply];
+		int previousMove = playedMoves[ply-1];
+		int previousMove2 = (ply >= 2) ? playedMoves[ply-2] : 0;
+		picker.init(board, hashMove, killers.getPrimary(ply), killers.getSecondary(ply), previousMove, previousMove2);
+		Move currentMove;
+		int quietCount = 0; // Non-captures searched so far, they lose history if another move cuts off
+
+		// Go through the moves one by one
+		while((currentMove = picker.next()) != null) {
+			if(currentMove.move == excludedMove) continue;
 			
-				// If there is a hash move (which we got before or from iid), record it and give it a very high ordering value
-				if(hashMove != 0) {
-					searchMoves[ply][currentMovesCount].move = hashMove;
-					searchMoves[ply][currentMovesCount].score = 10000;
-					currentMovesCount++;
-				}
-				break;
-			case GEN_CAPS:
-				// Generate all pseudo legal captures on the board
-				currentMovesCount = board.gen_caps(searchMoves[ply], 0);
-				capturesCount = currentMovesCount;
-
-				// Go through the moves and assign the ordering values according to see
-				for(int i = 0; i < currentMovesCount; i++) {
-					tempMove = searchMoves[ply][i].move;
-
-					// If the capture is the same as the hashMove, we have already searched it
-					// so give it a very low value, it will be skipped when run into below.
-					if(tempMove == hashMove) {
-						searchMoves[ply][i].score = -10000;
-					}
-					else searchMoves[ply][i].score = See.see(board, tempMove); // The move is not a duplicate so give it a see value
-				}
-
-				// We now have ordering values for all the captures so order them
-				sortMoves(searchMoves[ply], 0, currentMovesCount);
-				
-				int index = 0;
-				while(index < capturesCount && startLosingCaptures == -1)  {
-					if(searchMoves[ply][index].score < 0) {
-						startLosingCaptures = index;
-						break;
-					}
-					index++;
-				}
-				
-				currentMovesCount = index;
-				
-				break;
-			case GEN_KILLERS:
-				currentMovesCount = capturesCount;
-				if(killers.getPrimary(ply) != hashMove && board.validateKiller(killers.getPrimary(ply))) {
-					killerOne = killers.getPrimary(ply);
-					searchMoves[ply][currentMovesCount].move = killers.getPrimary(ply);
-					searchMoves[ply][currentMovesCount].score = 5000;
-					currentMovesCount++;
-				}
-				if(killers.getSecondary(ply) != hashMove && board.validateKiller(killers.getSecondary(ply))) {
-					killerTwo = killers.getSecondary(ply);
-					searchMoves[ply][currentMovesCount].move = killers.getSecondary(ply);
-					searchMoves[ply][currentMovesCount].score = 4000;
-					currentMovesCount++;
-				}
-				startIndex = capturesCount;
-				break;
-			case GEN_NONCAPS:
-				// Generate all pseudo legal captures on the board
-				currentMovesCount = capturesCount;
-				currentMovesCount += board.gen_noncaps(searchMoves[ply], currentMovesCount);
-
-				// Go through the moves and assign the ordering values
-				for(int i = capturesCount; i < currentMovesCount; i++) {
-					tempMove = searchMoves[ply][i].move;
-
-					if(tempMove == hashMove || tempMove == killerOne || tempMove == killerTwo|| tempMove == killerOneOld|| tempMove == killerTwoOld) {
-						searchMoves[ply][i].score = -10000; // Move is already searched so skip it
-					} else {
-						if(historyValues[Move.fromIndex(searchMoves[ply][i].move)][Move.toIndex(searchMoves[ply][i].move)] != 0)
-							searchMoves[ply][i].score = 1000* historyBetaHits[Move.fromIndex(searchMoves[ply][i].move)][Move.toIndex(searchMoves[ply][i].move)] / historyValues[Move.fromIndex(searchMoves[ply][i].move)][Move.toIndex(searchMoves[ply][i].move)];
-					}
-					
+			if(Move.pieceMoving(currentMove.move) == W_PAWN  && Board.rank(Move.toIndex(currentMove.move)) == 6) threat = true;
+			else if(Move.pieceMoving(currentMove.move) == B_PAWN  && Board.rank(Move.toIndex(currentMove.move)) == 1) threat = true;
+			
+			// Futility pruning, if we decided that we could not reach alpha
+			// above, see if the move is a checking move, if it isn't just
+			// set the score to whatever the eval was and continue with the next move
+			// Do this before makeMove - if we are going to prune there is no use making the move
+			// Do not prune the 1st move - we need to know
+			// if we have any legal moves or are stalemated.
+			if(searchedMoves >=1 && fprune && !threat)  {
+				// If the move was a capture we add the value of the captured piece
+				// if the move was not a capture this will add 0 (leaving materialEval unchanged)
+				int gain = Math.abs(Evaluation.PIECE_VALUE_ARRAY[Move.capture(currentMove.move)+7]);
+				int moveType = Move.moveType(currentMove.move);
+				if (moveType >= PROMOTION_QUEEN) {
+					gain += Evaluation.PIECE_VALUE_ARRAY[moveType + 5];
 				}
-
-				// Sort the non-captures
-				sortMoves(searchMoves[ply], capturesCount, currentMovesCount);
-				
-				startIndex = capturesCount;
-				
-				break;
-			case GEN_LOSINGCAPS:
-				if(startLosingCaptures != -1) {
-					currentMovesCount = capturesCount;
-					startIndex = startLosingCaptures;
-				} else {
-					startIndex = 0;
-					currentMovesCount = 0;
+				if((materialEval+gain+fmargin) <= alpha && !board.givesCheck(currentMove.move)) {
+					if(materialEval+gain > bestEval) bestEval = materialEval+gain;
+					continue;
 				}
-				break;
 			}
-
-			// Go through the generated moves one by one
-			for(int i = startIndex; i < currentMovesCount; i++) {
-				
-
-				if(searchMoves[ply][i].score == -10000) {
-					continue; // This means the move has already been searched so skip it
+			
+			// Late move pruning and SEE pruning, close to the leaves in non-PV nodes
+			// non-captures after the first few are not searched at all (unless they
+			// check), and moves losing too much material by SEE are skipped
+			if(searchedMoves >= 1 &&
+					beta - alpha <= 1 &&
+					!isInCheck &&
+					!threat &&
+					depth < LATE_MOVE_COUNTS.length*PLY &&
+					bestEval > -MATE_BOUND) {
+				if(Move.capture(currentMove.move) == 0 && Move.moveType(currentMove.move) < PROMOTION_QUEEN) {
+					if(quietCount >= LATE_MOVE_COUNTS[depth/PLY] && !board.givesCheck(currentMove.move)) continue;
+					if(See.see(board, currentMove.move) < -SEE_QUIET_MARGIN*(depth/PLY)) continue;
+				} else if(picker.getStage() == GEN_LOSINGCAPS && currentMove.score < -SEE_CAPTURE_MARGIN*(depth/PLY)) {
+					continue; // Scored by SEE when they were put aside
 				}
-				
-				if(Move.pieceMoving(searchMoves[ply][i].move) == W_PAWN  && Board.rank(Move.toIndex(searchMoves[ply][i].move)) == 6) threat = true;
-				else if(Move.pieceMoving(searchMoves[ply][i].move) == B_PAWN  && Board.rank(Move.toIndex(searchMoves[ply][i].move)) == 1) threat = true;
-				
-				// Futility pruning, if we decided that we could not reach alpha
-				// above, see if the move is a checking move, if it isn't just
-				// set the score to whatever the eval was and continue with the next move
-				// Do this before makeMove - if we are going to prune there is no use making the move
-				// Do not prune the 1st move - we need to know
-				// if we have any legal moves or are stalemated.
-				if(searchedMoves >=1 && fprune && !threat && !board.isInCheck())  {
-					// If the move was a capture we add the value of the captured piece
-					// if the move was not a capture this will add 0 (leaving materialEval unchanged)
-					int gain = Math.abs(Evaluation.PIECE_VALUE_ARRAY[Move.capture(searchMoves[ply][i].move)+7]);
-					int moveType = Move.moveType(searchMoves[ply][i].move);
-					if (moveType >= PROMOTION_QUEEN) {
-						gain += Evaluation.PIECE_VALUE_ARRAY[moveType + 5];
-					}
-					if((materialEval+gain+fmargin) <= alpha) {
-						if(materialEval+gain > bestEval) bestEval = materialEval+gain;
-						continue;
-					}
+			}
+			
+			board.makeMove(currentMove.move); // Make the move on the board, all generated moves are legal
+			nodesSearched++;
+			playedMoves[ply] = currentMove.move;
+			
+			if(searchedMoves >= 1) {
+				// Late move reduction, if the reduced search gets above alpha
+				// it is searched again at full depth
+				int reduction = 0;
+				if(searchedMoves > 1 &&
+						picker.getStage() == GEN_NONCAPS &&
+						depth >= 3*PLY &&
+						!threat &&
+						!board.isInCheck()) {
+					reduction = reduction(depth, searchedMoves, beta - alpha > 1, improving, currentMove.score);
 				}
 				
-				board.makeMove(searchMoves[ply][i].move); // Make the move on the board
-				nodesSearched++;
-
-				// Make sure we don't leave the king in check when making this move
-				// If black to move and black is attacking the white king, the move made above was illegal so skip it
-				if(board.toMove == BLACK_TO_MOVE && board.isAttacked(board.w_king.pieces[0], BLACK)) {
-					board.unmakeMove(searchMoves[ply][i].move);
-					continue;
-				} else if(board.toMove == WHITE_TO_MOVE && board.isAttacked(board.b_king.pieces[0], WHITE)) {
-					board.unmakeMove(searchMoves[ply][i].move);
-					continue;
-				}				
-				
-				historyValues[Move.fromIndex(searchMoves[ply][i].move)][Move.toIndex(searchMoves[ply][i].move)] += depth;
-				
-				if(searchedMoves >= 1) {
-					// Late move reduction
-					if(searchedMoves > 3 &&
-							generationState == GEN_NONCAPS &&
-							depth > 3*PLY &&
-							!threat &&
-							!board.isInCheck()) {
-						eval = -alphaBeta(board, depth-(2*PLY), -alpha-1,-alpha, true, ply+1);
-					} else {
-						// PVS search
+				if(reduction > 0) {
+					reducedSearches++;
+					eval = -alphaBeta(board, depth-PLY-reduction, -alpha-1,-alpha, true, ply+1);
+					if(eval > alpha) {
+						reducedResearches++;
 						eval = -alphaBeta(board, depth-PLY, -alpha -1, -alpha, true, ply+1);
-					}
-
-					if(eval > alpha && eval < beta) {
-						// Full depth search
-						eval = -alphaBeta(board, depth-PLY, -beta, -alpha, true, ply+1);
+						if(eval > alpha) reducedFailHighs++;
 					}
 				} else {
+					// PVS search
+					eval = -alphaBeta(board, depth-PLY, -alpha -1, -alpha, true, ply+1);
+				}
+
+				if(eval > alpha && eval < beta) {
+					// Full depth search
 					eval = -alphaBeta(board, depth-PLY, -beta, -alpha, true, ply+1);
 				}
+			} else {
+				// The first move is the hash move if there is one
+				eval = -alphaBeta(board, (singular && currentMove.move == hashMove) ? depth : depth-PLY, -beta, -alpha, true, ply+1);
+			}
 
-				searchedMoves++;
-				
-				board.unmakeMove(searchMoves[ply][i].move); // Reset the board
+			searchedMoves++;
+			
+			board.unmakeMove(currentMove.move); // Reset the board
 
-				if(eval > bestEval)	{
+			if(eval > bestEval)	{
+				
+				if(eval >= beta) {
+					// If the evaluation is bigger than beta, we cutoff here (since there is another move the opponent will choose so this will never happen)
+					if(!stopSearch && excludedMove == 0) Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY, HASH_BETA, eval, currentMove.move);
+					searchMoves[ply][0].move = currentMove.move;
+					// Remove this from the rep table since it didn't happen
+					Settings.getInstance().getRepTable().removeRep(board.zobristKey);
 					
-					if(eval >= beta) {
-						historyBetaHits[Move.fromIndex(searchMoves[ply][i].move)][Move.toIndex(searchMoves[ply][i].move)] += depth;
-						// If the evaluation is bigger than beta, we cutoff here (since there is another move the opponent will choose so this will never happen)
-						if(!stopSearch) Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY, HASH_BETA, eval, searchMoves[ply][i].move);
-						searchMoves[ply][0].move = searchMoves[ply][i].move;
-						// Remove this from the rep table since it didn't happen
-						Settings.getInstance().getRepTable().removeRep(board.zobristKey);
-						
-						// Add this move as a killer since it caused a cutoff
-						// (do not add captures as killers since they're searched early anyway)
-						if(Move.capture(searchMoves[ply][i].move) == 0) {
-							killers.addKiller(searchMoves[ply][i], ply);
-						}
-						
-						return eval;
+					// Add this move as a killer since it caused a cutoff, and reward it in the history
+					// (do not add captures as killers since they're searched early anyway)
+					if(Move.capture(currentMove.move) == 0) {
+						killers.addKiller(currentMove, ply);
+						history.update(board.toMove, currentMove.move, previousMove, previousMove2, searchedQuiets[ply], quietCount, depth/PLY);
 					}
-
-					bestEval = eval;
 					
-
-					// If the evaluation is bigger than alpha (but less than beta) this is our new best move
-					if(eval > alpha) {
-						eval_type = HASH_EXACT;
-						bestMove = searchMoves[ply][i].move;
-						alpha = eval;
-					}
+					return eval;
 				}
-			}// End for loop
 
-			generationState++; // We have gone through all the generated moves from the last state so move to the next
+				bestEval = eval;
+				
+
+				// If the evaluation is bigger than alpha (but less than beta) this is our new best move
+				if(eval > alpha) {
+					eval_type = HASH_EXACT;
+					bestMove = currentMove.move;
+					alpha = eval;
+				}
+			}
+			
+			if(Move.capture(currentMove.move) == 0 && quietCount < searchedQuiets[ply].length) {
+				searchedQuiets[ply][quietCount++] = currentMove.move;
+			}
 		}// End while loop
 
 		// If there wasn't a legal move, it's either stalemate or checkmate
+		// (or the hash move was the only move when it was left out)
 		if(searchedMoves == 0) {
+			if(excludedMove != 0) {
+				Settings.getInstance().getRepTable().removeRep(board.zobristKey);
+				return alpha;
+			}
 			if(board.isInCheck()) {
 				// Don't count this position toward repetitions, since the game is over anyway
 				Settings.getInstance().getRepTable().removeRep(board.zobristKey);
@@ -566,7 +706,7 @@ public class Engine implements Definitions {
 			return DRAW_VALUE;
 		}
 
-		if(!stopSearch)	Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY, eval_type, bestEval, bestMove);
+		if(!stopSearch && excludedMove == 0) Settings.getInstance().getTranspositionTable().record(board.zobristKey, depth/PLY, eval_type, bestEval, bestMove);
 		searchMoves[ply][0].move = bestMove;
 		
 		Settings.getInstance().getRepTable().removeRep(board.zobristKey);
@@ -574,6 +714,53 @@ public class Engine implements Definitions {
 		return alpha;
 	} //END alphaBeta
 
+	/**
+	 * Finds how much a late non-capture is reduced, less in PV nodes, when the
+	 * position is improving and for moves with a good history
+	 * 
+	 * @param depth
+	 *            The depth of the node
+	 * @param moveNumber
+	 *            The number of moves searched before this one
+	 * @param pvNode
+	 *            True if the window is open
+	 * @param improving
+	 *            True if the evaluation is better than two plies ago
+	 * @param historyScore
+	 *            The ordering score of the move
+	 * @return The reduction in PLY units, the move is always searched at
+	 *         least one ply deep
+	 */
+	private static int reduction(int depth, int moveNumber, boolean pvNode, boolean improving, int historyScore) {
+		int reduction = REDUCTIONS[Math.min(depth/PLY, 63)][Math.min(moveNumber, 63)];
+		if(pvNode) reduction -= PLY;
+		if(!improving) reduction += PLY/2;
+		reduction -= historyScore*PLY/LMR_HISTORY_DIVISOR;
+		return Math.max(0, Math.min(reduction, depth - 2*PLY));
+	} // END reduction()
+	
+	/**
+	 * @return The late move reduction statistics of the last search as a
+	 *         line of text, how many reduced searches got above alpha and had
+	 *         to be searched again, and how many of those still got above
+	 *         alpha at full depth (the rest were wasted re-searches)
+	 */
+	public static String getReductionStats() {
+		String stats = "Late move reductions: " + reducedSearches + " reduced searches, " + reducedResearches + " re-searched";
+		if(reducedResearches != 0) {
+			stats += ", " + reducedFailHighs + " (" + (100*reducedFailHighs/reducedResearches) + "%) failed high again";
+		}
+		return stats;
+	} // END getReductionStats()
+
+	/**
+	 * @return The ProbCut statistics of the last search as a line of text,
+	 *         how many nodes tried it and how many were cut by it
+	 */
+	public static String getProbCutStats() {
+		return "ProbCut: " + probCutCutoffs + " cutoffs in " + probCutTries + " tries";
+	} // END getProbCutStats()
+
 	/**
 	 * 
 	 * @param board
@@ -588,7 +775,7 @@ public class Engine implements Definitions {
 
 		// Start with getting a score, if this is too good (above beta), just return, else go on with search
 		if(!inCheck) {
-			int standPatEval = Evaluation.evaluate(board, true);
+			int standPatEval = Evaluation.evaluate(board, alpha, beta);
 		
 			if(standPatEval > alpha) {
 				if(standPatEval >= beta) return beta;
@@ -598,12 +785,10 @@ public class Engine implements Definitions {
 		
 		int currentMoveCount;
 		if(inCheck) {
-			currentMoveCount = board.gen_checkEvasions(searchMoves[ply], 0);
-			sortMoves(searchMoves[ply], 0, currentMoveCount);
-			
+			currentMoveCount = board.filterLegal(searchMoves[ply], 0, board.gen_checkEvasions(searchMoves[ply], 0));
 		} else {
 			// Generate the caps and queen promotions, and score them
-			currentMoveCount = board.gen_caps_and_promotions(searchMoves[ply], 0);
+			currentMoveCount = board.filterLegal(searchMoves[ply], 0, board.gen_caps_and_promotions(searchMoves[ply], 0));
 			for(int i = 0; i < currentMoveCount; i++) {
 				// Order by MVV/LVA, but skip below if SEE says it's a losing capture
 				// This is done to avoid doing SEE on all moves since it's quite costly
@@ -613,14 +798,15 @@ public class Engine implements Definitions {
 					searchMoves[ply][i].score = (256*Evaluation.PIECE_VALUE_ARRAY_ABS[Move.capture(searchMoves[ply][i].move)+7]-Evaluation.PIECE_VALUE_ARRAY_ABS[Move.pieceMoving(searchMoves[ply][i].move)+7]);
 				}
 			}
-			
-			sortMoves(searchMoves[ply], 0, currentMoveCount);
 		}
 		
 		
 		int searchedMoves = 0;
 		
 		for(int i = 0; i < currentMoveCount; i++) {
+			// Pick the best of the remaining moves, usually there is a cutoff before all are needed
+			MovePicker.pickBest(searchMoves[ply], i, currentMoveCount);
+			
 			// This doesn't apply to check evasions moves
 			// If value of the captured piece is less than the value of the capturer,
 			// check the SEE score (i.e. capturing a pawn with a queen can be beneficial, but can be silly if the pawn is protected)
@@ -632,14 +818,6 @@ public class Engine implements Definitions {
 			board.makeMove(searchMoves[ply][i].move);
 			nodesSearched++;
 			
-			if(board.toMove == BLACK_TO_MOVE && board.isAttacked(board.w_king.pieces[0], BLACK)) {
-				board.unmakeMove(searchMoves[ply][i].move);
-				continue;
-			} else if(board.toMove == WHITE_TO_MOVE && board.isAttacked(board.b_king.pieces[0], WHITE)) {
-				board.unmakeMove(searchMoves[ply][i].move);
-				continue;
-			}
-						
 			searchedMoves++;
 			eval = -quiescentSearch(board, -beta, -alpha, ply+1);
 			board.unmakeMove(searchMoves[ply][i].move);
@@ -712,6 +890,19 @@ public class Engine implements Definitions {
 				primaryKillerss[depth] = move.move;				
 			}
 		} // END addKiller
+		
+		/**
+		 *  Moves the killers the number of plies closer to the root,
+		 *  the plies at the end are emptied
+		 *
+		 *  @param plies The number of plies
+		 */
+		public void shift(int plies) {
+			for(int i = 0; i < primaryKillerss.length; i++) {
+				primaryKillerss[i] = (i + plies < primaryKillerss.length) ? primaryKillerss[i + plies] : 0;
+				secondaryKillerss[i] = (i + plies < secondaryKillerss.length) ? secondaryKillerss[i + plies] : 0;
+			}
+		} // END shift
 	} // END KillerMoves
 	
 	/**
@@ -788,13 +979,13 @@ public class Engine implements Definitions {
 		if(finalEval.eval >= MATE_BOUND) {
 			int rest = ((-MATE_VALUE) - finalEval.eval)%2;
 			int mateInN = (((-MATE_VALUE)-finalEval.eval)-rest)/2+rest;
-			return "info score mate " + mateInN + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " time " + splitTime + " pv " + pvString;				
+			return "info score mate " + mateInN + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " tbhits " + tbHits + " time " + splitTime + " pv " + pvString;				
 		} else if(finalEval.eval <= -MATE_BOUND) {
 			int rest = ((-MATE_VALUE) + finalEval.eval)%2;
 			int mateInN = (((-MATE_VALUE)+finalEval.eval)-rest)/2+rest;
-			return "info score mate " + -mateInN + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " time " + splitTime + " pv " + pvString;				
+			return "info score mate " + -mateInN + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " tbhits " + tbHits + " time " + splitTime + " pv " + pvString;				
 		}
-		return "info score cp " + finalEval.eval + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " time " + splitTime + " pv " + pvString;
+		return "info score cp " + finalEval.eval + " depth " + current_depth + " nodes " + totalNodesSearched + " nps " + nps + " tbhits " + tbHits + " time " + splitTime + " pv " + pvString;
 
 	} // END receiveThinking
 	
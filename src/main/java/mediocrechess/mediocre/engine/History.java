@@ -0,0 +1,149 @@
+package mediocrechess.mediocre.engine;
+
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class History
+ *
+ * The tables used to order the non-captures:
+ *
+ * - The butterfly history, by side to move and from and to square
+ * - The continuation history, by the piece and to square of the move and of
+ *   the move played one or two plies earlier (both use the same table)
+ * - The countermove, the last non-capture that caused a cutoff right after a
+ *   move (by its piece and to square)
+ *
+ * When a non-capture causes a cutoff it gets a bonus and the non-captures
+ * searched before it in the node get the same amount taken away. The
+ * updates are scaled by how far the entry already is from 0 (gravity), so
+ * the values stay between -HISTORY_MAX and HISTORY_MAX and new results count
+ * more than old ones.
+ *
+ * The tables are kept for the whole game and halved before every search.
+ */
+public class History implements Definitions {
+	public static final int HISTORY_MAX = 16384; // Limit of every entry
+	public static final int COUNTERMOVE_BONUS = 4*HISTORY_MAX; // Puts the countermove before the other non-captures
+
+	private static final int PIECE_SQUARES = 14*64; // Piece (-6 to 6) and to square (0 to 63)
+
+	private int[][] butterfly; // [side][from*128 + to]
+	private int[] continuation; // [previous piece square * PIECE_SQUARES + piece square]
+	private int[] counterMoves; // [previous piece square]
+
+	public History() {
+		butterfly = new int[2][128*128];
+		continuation = new int[PIECE_SQUARES*PIECE_SQUARES];
+		counterMoves = new int[PIECE_SQUARES];
+	} // END History()
+
+	/**
+	 * Gives the ordering value of a non-capture
+	 *
+	 * @param side
+	 *            The side making the move
+	 * @param move
+	 *            The move
+	 * @param previousMove
+	 *            The move played one ply earlier, 0 for none (or a null move)
+	 * @param previousMove2
+	 *            The move played two plies earlier, 0 for none
+	 * @return The value, higher is better
+	 */
+	public final int score(int side, int move, int previousMove, int previousMove2) {
+		int pieceSquare = pieceSquare(move);
+		int score = butterfly[sideIndex(side)][butterflyIndex(move)];
+		if(previousMove != 0) {
+			score += continuation[pieceSquare(previousMove)*PIECE_SQUARES + pieceSquare];
+			if(counterMoves[pieceSquare(previousMove)] == move) score += COUNTERMOVE_BONUS;
+		}
+		if(previousMove2 != 0) {
+			score += continuation[pieceSquare(previousMove2)*PIECE_SQUARES + pieceSquare];
+		}
+		return score;
+	} // END score()
+
+	/**
+	 * Halves every entry, done before a new search so the results of earlier
+	 * moves in the game still order the moves but count less than new ones
+	 */
+	public final void age() {
+		for(int side = 0; side < 2; side++) {
+			for(int i = 0; i < butterfly[side].length; i++) butterfly[side][i] /= 2;
+		}
+		for(int i = 0; i < continuation.length; i++) continuation[i] /= 2;
+	} // END age()
+
+	/**
+	 * Updates the tables after a non-capture caused a cutoff
+	 *
+	 * @param side
+	 *            The side to move in the node
+	 * @param move
+	 *            The move causing the cutoff
+	 * @param previousMove
+	 *            The move played one ply earlier, 0 for none
+	 * @param previousMove2
+	 *            The move played two plies earlier, 0 for none
+	 * @param quiets
+	 *            The non-captures searched in the node before the move
+	 * @param quietCount
+	 *            The number of moves in quiets
+	 * @param depth
+	 *            The depth of the node in plies
+	 */
+	public final void update(int side, int move, int previousMove, int previousMove2, int[] quiets, int quietCount, int depth) {
+		int bonus = Math.min(32*depth*depth, HISTORY_MAX/4);
+
+		add(side, move, previousMove, previousMove2, bonus);
+		for(int i = 0; i < quietCount; i++) {
+			add(side, quiets[i], previousMove, previousMove2, -bonus);
+		}
+
+		if(previousMove != 0) counterMoves[pieceSquare(previousMove)] = move;
+	} // END update()
+
+	/**
+	 * Adds the bonus (or penalty) to every table the move is in
+	 */
+	private final void add(int side, int move, int previousMove, int previousMove2, int bonus) {
+		int pieceSquare = pieceSquare(move);
+		int[] sideTable = butterfly[sideIndex(side)];
+		int index = butterflyIndex(move);
+		sideTable[index] = gravity(sideTable[index], bonus);
+		if(previousMove != 0) {
+			index = pieceSquare(previousMove)*PIECE_SQUARES + pieceSquare;
+			continuation[index] = gravity(continuation[index], bonus);
+		}
+		if(previousMove2 != 0) {
+			index = pieceSquare(previousMove2)*PIECE_SQUARES + pieceSquare;
+			continuation[index] = gravity(continuation[index], bonus);
+		}
+	} // END add()
+
+	/**
+	 * @return The entry with the bonus added, the closer the entry is to
+	 *         HISTORY_MAX in the direction of the bonus the less is added
+	 */
+	private static int gravity(int entry, int bonus) {
+		return entry + bonus - entry*Math.abs(bonus)/HISTORY_MAX;
+	} // END gravity()
+
+	private static int sideIndex(int side) {
+		return (side == WHITE) ? 0 : 1;
+	} // END sideIndex()
+
+	private static int butterflyIndex(int move) {
+		return Move.fromIndex(move)*128 + Move.toIndex(move);
+	} // END butterflyIndex()
+
+	/**
+	 * @return The piece moving and the 0-63 to square of the move as one
+	 *         number
+	 */
+	private static int pieceSquare(int move) {
+		int to = Move.toIndex(move);
+		return (Move.pieceMoving(move) + 7)*64 + ((to & 7) | ((to >> 4) << 3));
+	} // END pieceSquare()
+}
@@ -0,0 +1,262 @@
+package mediocrechess.mediocre.engine;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Evaluation;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.board.See;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class MovePicker
+ *
+ * Hands out the moves of a node one at a time, in the same stages as the
+ * search always used (hash move, good captures, killers, non-captures and
+ * losing captures).
+ *
+ * A stage is only generated when the one before it is used up, so if the
+ * hash move or a good capture causes a cutoff the non-captures are never
+ * generated. Instead of sorting the whole stage the best remaining move is
+ * picked every time, and captures are only run through SEE when they are
+ * about to be tried and could be losing.
+ *
+ * There is one picker for every ply and it uses the move array of that ply.
+ */
+public class MovePicker implements Definitions {
+	private Move[] moves; // The move array of the ply
+	private History history; // The history tables from the search
+
+	private Board board;
+	private int hashMove;
+	private int killerOne;
+	private int killerTwo;
+	private int previousMove; // The moves played one and two plies earlier
+	private int previousMove2;
+
+	private int stage; // The stage the last returned move came from
+	private int next; // Index of the next move to look at in the stage
+	private int end; // Index after the last move of the stage
+	private int capturesEnd; // The captures are in 0 to capturesEnd
+	private int losingEnd; // Losing captures are moved to 0 to losingEnd
+
+	/**
+	 * Creates a picker working on the move array
+	 *
+	 * @param moves
+	 *            The move array to generate the moves in
+	 * @param history
+	 *            The history tables ordering the non-captures
+	 */
+	public MovePicker(Move[] moves, History history) {
+		this.moves = moves;
+		this.history = history;
+	} // END MovePicker()
+
+	/**
+	 * Prepares the picker for a new node, nothing is generated yet
+	 *
+	 * @param board
+	 *            The board of the node
+	 * @param hashMove
+	 *            The (legal) hash move, or 0 if there is none
+	 * @param killerOne
+	 *            The primary killer of the ply
+	 * @param killerTwo
+	 *            The secondary killer of the ply
+	 * @param previousMove
+	 *            The move played one ply earlier, 0 for none (or a null move)
+	 * @param previousMove2
+	 *            The move played two plies earlier, 0 for none
+	 */
+	public final void init(Board board, int hashMove, int killerOne, int killerTwo, int previousMove, int previousMove2) {
+		this.board = board;
+		this.hashMove = hashMove;
+		this.killerOne = killerOne;
+		this.killerTwo = killerTwo;
+		this.previousMove = previousMove;
+		this.previousMove2 = previousMove2;
+
+		stage = GEN_HASH;
+		next = 0;
+		end = 0;
+		capturesEnd = 0;
+		losingEnd = 0;
+	} // END init()
+
+	/**
+	 * @return The stage the last returned move came from (GEN_HASH etc.)
+	 */
+	public final int getStage() {
+		return stage;
+	} // END getStage()
+
+	/**
+	 * Returns the next legal move to search, the returned Move is only valid
+	 * until next() is called again
+	 *
+	 * @return The next move, or null if there are no more moves
+	 */
+	public final Move next() {
+		while(true) {
+			switch(stage) {
+			case GEN_HASH:
+				if(next == 0) {
+					next = 1;
+					if(hashMove != 0) {
+						moves[0].move = hashMove;
+						moves[0].score = 10000;
+						return moves[0];
+					}
+				}
+				startCaptures();
+				break;
+			case GEN_CAPS:
+				while(next < end) {
+					pickBest(moves, next, end);
+					Move move = moves[next++];
+
+					if(move.move == hashMove) continue; // Already searched
+
+					// Captures that might lose material are kept for the end
+					if(!isGoodCapture(move)) {
+						moves[next - 1] = moves[losingEnd];
+						moves[losingEnd++] = move;
+						continue;
+					}
+					return move;
+				}
+				startKillers();
+				break;
+			case GEN_KILLERS:
+				if(next < end) {
+					return moves[next++];
+				}
+				startNoncaps();
+				break;
+			case GEN_NONCAPS:
+				while(next < end) {
+					pickBest(moves, next, end);
+					Move move = moves[next++];
+
+					if(move.move == hashMove || move.move == killerOne || move.move == killerTwo) continue; // Already searched
+					return move;
+				}
+				stage = GEN_LOSINGCAPS;
+				next = 0;
+				end = losingEnd;
+				break;
+			case GEN_LOSINGCAPS:
+				if(next < end) {
+					pickBest(moves, next, end); // Scored by SEE when they were put aside
+					return moves[next++];
+				}
+				stage = GEN_END;
+				break;
+			default:
+				return null;
+			}
+		}
+	} // END next()
+
+	/**
+	 * Generates the captures and gives them MVV/LVA values, SEE is done
+	 * later when they are picked
+	 */
+	private final void startCaptures() {
+		stage = GEN_CAPS;
+		next = 0;
+		end = board.filterLegal(moves, 0, board.gen_caps(moves, 0));
+		capturesEnd = end;
+
+		for(int i = 0; i < end; i++) {
+			int move = moves[i].move;
+			if(Move.moveType(move) == PROMOTION_QUEEN) {
+				moves[i].score = 250000;
+			} else {
+				moves[i].score = 256*Evaluation.PIECE_VALUE_ARRAY_ABS[Move.capture(move)+7] - Evaluation.PIECE_VALUE_ARRAY_ABS[Move.pieceMoving(move)+7];
+			}
+		}
+	} // END startCaptures()
+
+	/**
+	 * Puts the killers that can be played in the position after the captures
+	 */
+	private final void startKillers() {
+		stage = GEN_KILLERS;
+		next = capturesEnd;
+		end = capturesEnd;
+
+		if(killerOne != hashMove && board.validateKiller(killerOne) && board.isLegal(killerOne)) {
+			moves[end].move = killerOne;
+			moves[end].score = 5000;
+			end++;
+		} else {
+			killerOne = 0;
+		}
+		if(killerTwo != hashMove && board.validateKiller(killerTwo) && board.isLegal(killerTwo)) {
+			moves[end].move = killerTwo;
+			moves[end].score = 4000;
+			end++;
+		} else {
+			killerTwo = 0;
+		}
+	} // END startKillers()
+
+	/**
+	 * Generates the non-captures after the captures and gives them history
+	 * values (the countermove of the previous move comes first)
+	 */
+	private final void startNoncaps() {
+		stage = GEN_NONCAPS;
+		next = capturesEnd;
+		end = capturesEnd + board.filterLegal(moves, capturesEnd, board.gen_noncaps(moves, capturesEnd));
+
+		for(int i = capturesEnd; i < end; i++) {
+			moves[i].score = history.score(board.toMove, moves[i].move, previousMove, previousMove2);
+		}
+	} // END startNoncaps()
+
+	/**
+	 * Captures of an equal or more valuable piece can never lose material,
+	 * the rest are checked with SEE and get the SEE value as score
+	 *
+	 * @param move
+	 *            The capture
+	 * @return true if the capture does not lose material
+	 */
+	private final boolean isGoodCapture(Move move) {
+		int capture = Move.capture(move.move);
+		if(capture == 0 || Evaluation.PIECE_VALUE_ARRAY_ABS[capture+7] >= Evaluation.PIECE_VALUE_ARRAY_ABS[Move.pieceMoving(move.move)+7]) {
+			return true;
+		}
+
+		move.score = See.see(board, move.move);
+		return move.score >= 0;
+	} // END isGoodCapture()
+
+	/**
+	 * Moves the highest scored move between from and to (not included) to
+	 * from, the moves in between keep their order so moves with the same
+	 * score are tried in the order they were generated
+	 *
+	 * @param moves
+	 *            The moves
+	 * @param from
+	 *            The first index to look at
+	 * @param to
+	 *            The index after the last move
+	 */
+	public static final void pickBest(Move[] moves, int from, int to) {
+		int best = from;
+		for(int i = from + 1; i < to; i++) {
+			if(moves[i].score > moves[best].score) best = i;
+		}
+
+		if(best != from) {
+			Move bestMove = moves[best];
+			for(int i = best; i > from; i--) {
+				moves[i] = moves[i - 1];
+			}
+			moves[from] = bestMove;
+		}
+	} // END pickBest()
+}
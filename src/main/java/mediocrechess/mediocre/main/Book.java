@@ -2,7 +2,6 @@ package mediocrechess.mediocre.main;
 
 import mediocrechess.mediocre.board.Board;
 import mediocrechess.mediocre.def.Definitions;
-import mediocrechess.mediocre.transtable.Zobrist;
 
 import java.io.EOFException;
 import java.io.IOException;
@@ -62,7 +61,7 @@ public class Book implements Definitions{
 	 * @return The move, null if no move exist
 	 */
 	public String getMoveFromBoard(Board board) {
-		short move = getMoveFromKey(Zobrist.getPolyglotZobristKey(board));
+		short move = getMoveFromKey(board.getPolyglotKey());
 		
 		/* If no move found, return null */
 		if(move == -1) return "";
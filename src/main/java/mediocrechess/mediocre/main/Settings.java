@@ -1,11 +1,17 @@
 package mediocrechess.mediocre.main;
 
+import java.io.IOException;
 
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Logger;
 
+import mediocrechess.mediocre.board.EvalParameters;
+import mediocrechess.mediocre.board.Nnue;
 import mediocrechess.mediocre.def.Definitions;
+import mediocrechess.mediocre.tablebase.Bitbase;
+import mediocrechess.mediocre.tablebase.Kpk;
+import mediocrechess.mediocre.tablebase.Syzygy;
 import mediocrechess.mediocre.transtable.*;
 
 public class Settings implements Definitions {
@@ -15,6 +21,11 @@ public class Settings implements Definitions {
 	public static final int DEFAULT_EVAL_HASH_SIZE = 8;
 	public static final int DEFAULT_PAWN_HASH_SIZE = 8;
 	public static final boolean DEFAULT_PONDER = false;
+	public static final boolean DEFAULT_USE_NNUE = false;
+	public static final String DEFAULT_EVAL_FILE = "mediocre.nnue";
+	public static final String DEFAULT_EVAL_PARAMS = "<built-in>";
+	public static final String DEFAULT_SYZYGY_PATH = "<empty>";
+	public static final String DEFAULT_BITBASE_PATH = "<empty>";
 	
 	/* Transposition tables */
 	private TranspositionTable transpositionTable;
@@ -26,6 +37,10 @@ public class Settings implements Definitions {
 	private int eval_size;
 	private int pawn_size;
 	private boolean ponder;
+	private boolean useNnue;
+	private String evalFile = DEFAULT_EVAL_FILE;
+	private String syzygyPath = DEFAULT_SYZYGY_PATH;
+	private String bitbasePath = DEFAULT_BITBASE_PATH;
 
 	/* Book */
 	private Book book;
@@ -49,6 +64,22 @@ public class Settings implements Definitions {
 		setPawnTableSize(DEFAULT_PAWN_HASH_SIZE);
 		setUseOwnBook(DEFAULT_USE_OWN_BOOK);
 		repTable = new RepTable(REP_SIZE);
+		Kpk.init();
+	 }
+
+	 /**
+	  * Settings for when only the evaluation is used, the smallest
+	  * transposition and evaluation tables and no book (Kpk is set up on
+	  * the first probe instead)
+	  */
+	 private Settings(int pawnHashSize) {
+		 logger.debug("Initializing settings for evaluation only");
+
+		setTranspositionTableSize(1);
+		setEvalTableSize(1);
+		setPawnTableSize(pawnHashSize);
+		setUseOwnBook(false);
+		repTable = new RepTable(REP_SIZE);
 	 }
 	 
 	 public void setUseOwnBook(boolean setOwnBook) {
@@ -73,6 +104,103 @@ public class Settings implements Definitions {
 		 return ponder;
 	 }
 
+	 /**
+	  * Turns the network evaluation on, loading the eval file if it is not
+	  * loaded already
+	  * 
+	  * @param doUseNnue true to evaluate with the network
+	  * @return true if the network is used
+	  */
+	 public boolean setUseNnue(boolean doUseNnue) {
+		 useNnue = false;
+		 evalHash.clear(); // The stored evaluations are from the other evaluation (or network)
+		 if(doUseNnue) {
+			 if(!evalFile.equals(Nnue.getLoadedPath())) {
+				 try {
+					 Nnue.load(evalFile);
+					 logger.debug("Loaded network " + evalFile + ", using the " + Nnue.KERNEL_NAMES[Nnue.getKernel()] + " kernel");
+				 } catch (IOException e) {
+					 logger.warn("Could not load network " + evalFile + ": " + e.getMessage() + ", using the normal evaluation");
+					 return false;
+				 }
+			 }
+			 useNnue = true;
+		 }
+		 return useNnue;
+	 }
+
+	 public boolean getUseNnue() {
+		 return useNnue;
+	 }
+
+	 /**
+	  * Sets the network file, if the network is in use the new one is loaded
+	  * 
+	  * @param path The network file
+	  * @return true if the network is used
+	  */
+	 public boolean setEvalFile(String path) {
+		 evalFile = path;
+		 return setUseNnue(useNnue);
+	 }
+
+	 public String getEvalFile() {
+		 return evalFile;
+	 }
+
+	 /**
+	  * Loads evaluation parameters from a file (see EvalParameters), the
+	  * boards have to call refreshEvalSums() afterwards
+	  * 
+	  * @param path The parameter file
+	  * @return true if the parameters were loaded
+	  */
+	 public boolean loadEvalParams(String path) {
+		 try {
+			 EvalParameters.load(path);
+		 } catch (IOException e) {
+			 logger.warn("Could not load evaluation parameters " + path + ": " + e.getMessage());
+			 return false;
+		 }
+		 evalHash.clear();
+		 pawnHash.clear();
+		 return true;
+	 }
+
+	 /**
+	  * Looks for Syzygy tablebases in the directories
+	  * 
+	  * @param path Directories separated by the path separator, or <empty>
+	  * @return The number of tables found
+	  */
+	 public int setSyzygyPath(String path) {
+		 syzygyPath = path;
+		 int found = Syzygy.init(path);
+		 logger.debug("Found " + found + " tablebases in " + path + ", up to " + Syzygy.getMaxPieces() + " pieces");
+		 return found;
+	 }
+
+	 public String getSyzygyPath() {
+		 return syzygyPath;
+	 }
+
+	 /**
+	  * Loads the bitbases in the directories
+	  * 
+	  * @param path Directories separated by the path separator, or <empty>
+	  * @return The number of bitbases loaded
+	  */
+	 public int setBitbasePath(String path) {
+		 bitbasePath = path;
+		 int loaded = Bitbase.init(path);
+		 logger.debug("Loaded " + loaded + " bitbases from " + path);
+		 return loaded;
+	 }
+
+	 public String getBitbasePath() {
+		 return bitbasePath;
+	 }
+
 	 public void setTranspositionTableSize(int size) {
 		 tt_size = size;
 		 transpositionTable = new TranspositionTable(tt_size);
@@ -99,6 +227,20 @@ public class Settings implements Definitions {
 		}
 		return instance;
 	}
+
+	/**
+	 * Creates the singleton for evaluating positions without searching, if
+	 * it is not created already (see Settings(int))
+	 * 
+	 * @param pawnHashSize The size of the pawn hash in Mb
+	 * @return The instance of the settings
+	 */
+	public static Settings getEvaluationInstance(int pawnHashSize) {
+		if(instance == null) {
+			instance = new Settings(pawnHashSize);
+		}
+		return instance;
+	}
 	
 	public TranspositionTable getTranspositionTable() {
 		return transpositionTable;
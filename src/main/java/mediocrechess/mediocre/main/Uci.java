@@ -12,6 +12,7 @@ import ch.qos.logback.classic.Logger;
 import mediocrechess.mediocre.board.Board;
 import mediocrechess.mediocre.board.Evaluation;
 import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.board.Nnue;
 import mediocrechess.mediocre.engine.Engine;
 import mediocrechess.mediocre.perft.Perft;
 import mediocrechess.mediocre.def.Definitions;
@@ -79,18 +80,30 @@ public class Uci implements Definitions {
 					long time = System.currentTimeMillis();
 					Engine.search(board, 0, 0, 0, Integer.parseInt(commands[1]), false);
 					System.out.println("Time: "	+ Perft.convertMillis((System.currentTimeMillis() - time)));
+					if(Evaluation.lazyEvalCheck) System.out.println(Evaluation.getLazyEvalStats());
 				} else if (commands[2].equals("d")) {
 					long time = System.currentTimeMillis();
 					Engine.search(board, Integer.parseInt(commands[1]), 0, 0, 0, false);
 					System.out.println("Time: "	+ Perft.convertMillis((System.currentTimeMillis() - time)));
+					if(Evaluation.lazyEvalCheck) System.out.println(Evaluation.getLazyEvalStats());
 				}
 			} else if (command.equals("eval")) {
 				Evaluation.printEval(board);
+			} else if ("lazycheck".equals(command)) {
+				Evaluation.lazyEvalCheck = !Evaluation.lazyEvalCheck;
+				System.out.println("Lazy evaluation check " + (Evaluation.lazyEvalCheck ? "on" : "off"));
 			} else if (command.startsWith("divide ")) {
 				if (Integer.parseInt(command.substring(7)) <= 0)
 					System.out.println("Depth needs to be higher than 0,");
 				else
 					System.out.println(Perft.perft(board, Integer.parseInt(command.substring(7)), true));
+			} else if (command.startsWith("polyglotcheck ")) {
+				if (Integer.parseInt(command.substring(14)) <= 0)
+					System.out.println("Depth needs to be higher than 0,");
+				else
+					System.out.println("Errors: " + Perft.polyglotCheck(board, Integer.parseInt(command.substring(14))));
+			} else if ("nnuebench".equals(command)) {
+				nnueBench();
 			} else if(command.startsWith("runtest")) {
 				System.out.println("Not implemented yet. (testset path: " + testsetPath + ")");
 			} else {
@@ -100,6 +113,26 @@ public class Uci implements Definitions {
 		}
 	}
 
+	/**
+	 * Times the network kernels, loading the network first if needed
+	 */
+	private static void nnueBench() {
+		if(!Nnue.isLoaded()) {
+			try {
+				Nnue.load(Settings.getInstance().getEvalFile());
+			} catch (IOException e) {
+				System.out.println("Could not load " + Settings.getInstance().getEvalFile() + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		long[] times = Nnue.benchmark(100000);
+		for(int k = 0; k < times.length; k++) {
+			System.out.println(Nnue.KERNEL_NAMES[k] + ": " + times[k] + " ns per evaluation");
+		}
+		System.out.println("In use: " + Nnue.KERNEL_NAMES[Nnue.getKernel()]);
+	}
+
 	private static void displayHelp(String help) {
 		if(help == null || help.length() == 0 || help.split(" ").length > 2) return;
 
@@ -113,8 +146,11 @@ public class Uci implements Definitions {
 			System.out.println("");
 			System.out.println("perft <depth <s>> ...... ->  Run a perft check");
 			System.out.println("divide [depth] ......... ->  Run a divide check");
+			System.out.println("polyglotcheck [depth] .. ->  Verify the polyglot key updates");
+			System.out.println("nnuebench .............. ->  Time the network evaluation kernels");
 			System.out.println("");
 			System.out.println("eval ................... ->  Static evaluation breakdown");
+			System.out.println("lazycheck .............. ->  Check the lazy evaluation exits while searching");
 			System.out.println("");
 			System.out.println("search [value] [d/t] ... ->  Search the position");
 			System.out.println("");
@@ -152,6 +188,19 @@ public class Uci implements Definitions {
 			System.out.println("");
 			System.out.println("Example:");
 			System.out.println("divide 10");
+		} else if("help polyglotcheck".equals(help)) {
+			System.out.println("polyglotcheck");
+			System.out.println("Walks the tree to the specified depth from the current position on the board and");
+			System.out.println("compares the incrementally updated polyglot key with one computed from scratch");
+			System.out.println("in every position. Prints the number of positions where they differed.");
+			System.out.println("");
+			System.out.println("Example:");
+			System.out.println("polyglotcheck 4");
+		} else if("help nnuebench".equals(help)) {
+			System.out.println("nnuebench");
+			System.out.println("Evaluates the start position with the network (the EvalFile option) using");
+			System.out.println("each of the kernels for the hidden layers and prints the time per evaluation.");
+			System.out.println("The fastest kernel is chosen automatically when the network is loaded.");
 		} else if("help eval".equals(help)) {
 			System.out.println("eval");
 			System.out.println("Runs a static evaluation on the current position on the board.");
@@ -159,6 +208,12 @@ public class Uci implements Definitions {
 			System.out.println("");
 			System.out.println("Example:");
 			System.out.println("eval");
+		} else if("help lazycheck".equals(help)) {
+			System.out.println("lazycheck");
+			System.out.println("Turns the lazy evaluation check on or off. When it is on every lazy exit from");
+			System.out.println("the evaluation also does the full evaluation, and after a search the number of");
+			System.out.println("exits where the full evaluation was on the other side of the window and the");
+			System.out.println("average and largest difference are printed. Slows down the search.");
 		} else if("help search".equals(help)) {
 			System.out.println("search");
 			System.out.println("Runs a search on the current position on the board to either specified");
@@ -206,6 +261,11 @@ public class Uci implements Definitions {
 		System.out.println("option name PawnHash type spin default " + Settings.DEFAULT_PAWN_HASH_SIZE + " min 1 max 32");
 		System.out.println("option name Ponder type check default " + Settings.DEFAULT_PONDER);
 		System.out.println("option name OwnBook type check default " + Settings.DEFAULT_USE_OWN_BOOK);		
+		System.out.println("option name UseNNUE type check default " + Settings.DEFAULT_USE_NNUE);
+		System.out.println("option name EvalFile type string default " + Settings.DEFAULT_EVAL_FILE);
+		System.out.println("option name EvalParams type string default " + Settings.DEFAULT_EVAL_PARAMS);
+		System.out.println("option name SyzygyPath type string default " + Settings.DEFAULT_SYZYGY_PATH);
+		System.out.println("option name BitbasePath type string default " + Settings.DEFAULT_BITBASE_PATH);
 		System.out.println("uciok");
 
 		// This is the loop in which we look for incoming commands from Uci
@@ -232,28 +292,48 @@ public class Uci implements Definitions {
 
 			if(command.startsWith("setoption")) {
 				String[] commandSplit = command.split(" ");
-				if(commandSplit.length == 5) {
+				if(commandSplit.length >= 5 && commandSplit[3].equals("value")) {
+					// Everything after "value", so file paths can contain spaces
+					String value = command.substring(command.indexOf(" value ") + 7).trim();
 					try {
 						if(commandSplit[2].equals("Hash")) {
-							int size = Integer.parseInt(commandSplit[4]);
+							int size = Integer.parseInt(value);
 							logger.debug("Setting TT size to " + size);
 							Settings.getInstance().setTranspositionTableSize(size);
 						} else if(commandSplit[2].equals("EvalHash")) {
-							int size = Integer.parseInt(commandSplit[4]);
+							int size = Integer.parseInt(value);
 							logger.debug("Setting evalTT size to " + size);
 							Settings.getInstance().setEvalTableSize(size);
 						} else if(commandSplit[2].equals("PawnHash")) {
-							int size = Integer.parseInt(commandSplit[4]);
+							int size = Integer.parseInt(value);
 							logger.debug("Setting pawn TT size to " + size);
 							Settings.getInstance().setPawnTableSize(size);
 						} else if(commandSplit[2].equals("Ponder")) {
-							boolean isUse = Boolean.parseBoolean(commandSplit[4]);
+							boolean isUse = Boolean.parseBoolean(value);
 							logger.debug("Setting use own book to " + isUse);
 							Settings.getInstance().setPonder(isUse);
 						} else if(commandSplit[2].equals("OwnBook")) {
-							boolean isUse = Boolean.parseBoolean(commandSplit[4]);
+							boolean isUse = Boolean.parseBoolean(value);
 							Settings.getInstance().setUseOwnBook(isUse);
 							useBook = isUse;
+						} else if(commandSplit[2].equals("UseNNUE")) {
+							boolean isUse = Boolean.parseBoolean(value);
+							logger.debug("Setting use NNUE to " + isUse);
+							board.setNnue(Settings.getInstance().setUseNnue(isUse));
+						} else if(commandSplit[2].equals("EvalFile")) {
+							logger.debug("Setting eval file to " + value);
+							board.setNnue(Settings.getInstance().setEvalFile(value));
+						} else if(commandSplit[2].equals("EvalParams")) {
+							logger.debug("Loading evaluation parameters from " + value);
+							if(Settings.getInstance().loadEvalParams(value)) board.refreshEvalSums();
+						} else if(commandSplit[2].equals("SyzygyPath")) {
+							logger.debug("Setting Syzygy path to " + value);
+							int found = Settings.getInstance().setSyzygyPath(value);
+							System.out.println("info string Found " + found + " tablebases");
+						} else if(commandSplit[2].equals("BitbasePath")) {
+							logger.debug("Setting bitbase path to " + value);
+							int loaded = Settings.getInstance().setBitbasePath(value);
+							System.out.println("info string Loaded " + loaded + " bitbases");
 						}	
 					} catch (Exception e) {
 						System.err.println("Failure when parsing set option: " + e.getMessage());
@@ -266,6 +346,7 @@ public class Uci implements Definitions {
 			if ("ucinewgame".equals(command)) {
 				Settings.getInstance().getRepTable().clear(); // Reset the history
 				Settings.getInstance().getTranspositionTable().clear(); // Reset transposition table
+				Engine.clearHistory(); // Reset the killers and move ordering history
 				useBook = Settings.getInstance().isUseOwnBook(); // We can potentially use the book in the new game (will be set to true again, if set in settings)
 				searchDepth = 0;
 				movetime = 0;
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import mediocrechess.mediocre.board.*;
+import mediocrechess.mediocre.transtable.Zobrist;
 
 /**
  * class Perft
@@ -44,6 +45,31 @@ public class Perft {
 
 	}
 
+	/**
+	 * Walks the tree like perft but compares the incrementally updated
+	 * polyglot key with one computed from scratch in every position
+	 * 
+	 * @param board
+	 *            The board to search
+	 * @param depth
+	 *            The depth to search to
+	 * @return number of positions where the keys differed
+	 */
+	public static long polyglotCheck(Board board, int depth) {
+		boolean tracking = board.polyglotHistory != null;
+		if (!tracking)
+			board.setPolyglotTracking(true);
+
+		long errors = polyglotCheckMiniMax(board, depth);
+
+		if (errors != 0)
+			logger.error("Error in polyglot key update in " + errors + " positions!");
+		if (!tracking)
+			board.setPolyglotTracking(false);
+
+		return errors;
+	}
+
 	/**
 	 * Keeps track of every starting move and its number of child moves, and
 	 * then prints it on the screen.
@@ -99,6 +125,10 @@ public class Perft {
 		for(int i = 0; i < 128; i++) moves[i] = new Move();
 		int totalMoves = board.gen_allLegalMoves(moves, 0);
 
+		// The generated moves are legal so the leaves don't have to be made
+		if (depth == 1)
+			return totalMoves;
+
 		for (int i = 0; i < totalMoves; i++) {
 			board.makeMove(moves[i].move);
 			nodes += miniMax(board, depth - 1);
@@ -108,6 +138,38 @@ public class Perft {
 		return nodes;
 	}
 
+	/**
+	 * Same as miniMax but counts the positions where the polyglot key of the
+	 * board does not match the one computed from scratch
+	 * 
+	 * @param board
+	 *            The board used
+	 * @param depth
+	 *            The depth currently at
+	 * @return long The number of mismatches found
+	 */
+	private static long polyglotCheckMiniMax(Board board, int depth) {
+		long errors = 0;
+
+		if (board.getPolyglotKey() != Zobrist.getPolyglotZobristKey(board))
+			errors++;
+
+		if (depth == 0)
+			return errors;
+
+		Move[] moves = new Move[128];
+		for(int i = 0; i < 128; i++) moves[i] = new Move();
+		int totalMoves = board.gen_allLegalMoves(moves, 0);
+
+		for (int i = 0; i < totalMoves; i++) {
+			board.makeMove(moves[i].move);
+			errors += polyglotCheckMiniMax(board, depth - 1);
+			board.unmakeMove(moves[i].move);
+		}
+
+		return errors;
+	}
+
 	/**
 	 * Takes number and converts it to minutes, seconds and fraction of a second
 	 * also includes leading zeros
@@ -0,0 +1,389 @@
+package mediocrechess.mediocre.tablebase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Endgame;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class Bitbase
+ *
+ * Win/draw/loss bitbases for endings with at most four pieces, made by
+ * BitbaseGenerator. Every position of the material has two bits, one set if
+ * the side to move wins and one set if it loses, a position with neither is
+ * drawn (or can not happen).
+ *
+ * A table is for the material of its name (e.g. KRKP) with the first side as
+ * white, positions with the colors the other way around are looked up with
+ * the board flipped. The index is made from the squares of the pieces in
+ * the order of the name, where the first pawn (or the white king if there are
+ * no pawns) is kept on the a-d files by mirroring the board.
+ *
+ * The files (KRKP.bb) are memory mapped when they are loaded. Positions with
+ * castling rights or an en passant capture are never found. KPK is always
+ * there, from the built-in Kpk if no file has it.
+ */
+public class Bitbase implements Definitions {
+	// Results from the side to move's view
+	public static final int LOSS = -1;
+	public static final int DRAW = 0;
+	public static final int WIN = 1;
+	public static final int UNKNOWN = 2; // The material is not in a loaded table
+
+	public static final int MAX_PIECES = 4; // Kings included
+
+	private static final int MAGIC = 0x4D424231; // "MBB1"
+	private static final int HEADER_SIZE = 12; // Magic and number of positions
+	private static final String PIECES = "QRBNP"; // Order of the pieces in a name
+	private static final int[] PIECE_VALUE = {9, 5, 3, 3, 1};
+	private static final int KPK_KEY = 1; // Material key of a white pawn
+	private static final int KPK_KEY2 = 1 << 15; // And a black pawn
+
+	private static Map<Integer, Bitbase> tables = new HashMap<Integer, Bitbase>();
+	private static int tableCount;
+
+	final String code;
+	final int[] pieces; // White's king and pieces, then black's, e.g. W_KING, W_ROOK, B_KING, B_PAWN
+	final int key; // Material key with the first side as white
+	final int key2; // Material key with the first side as black
+	final long size; // Number of positions
+	private final int[] occurrence; // How many of the same piece come before in pieces
+	private final int keyPiece; // The piece kept on the a-d files
+	private final boolean pawnKey;
+	private ByteBuffer data;
+
+	/**
+	 * @param code
+	 *            The normalized name of the material (see normalize())
+	 */
+	Bitbase(String code) {
+		this.code = code;
+		int weak = code.indexOf('K', 1);
+		int[] white = new int[5];
+		int[] black = new int[5];
+
+		pieces = new int[code.length()];
+		occurrence = new int[code.length()];
+		int first = -1;
+		for(int i = 0; i < code.length(); i++) {
+			int side = (i < weak) ? WHITE : BLACK;
+			char c = code.charAt(i);
+			pieces[i] = ((c == 'K') ? W_KING : W_QUEEN + PIECES.indexOf(c))*side;
+			if(c != 'K') ((side == WHITE) ? white : black)[4 - PIECES.indexOf(c)]++;
+			if(c == 'P' && first == -1) first = i;
+			for(int j = 0; j < i; j++) {
+				if(pieces[j] == pieces[i]) occurrence[i]++;
+			}
+		}
+		pawnKey = (first != -1);
+		keyPiece = pawnKey ? first : 0;
+		key = Endgame.materialKey(white, black);
+		key2 = Endgame.materialKey(black, white);
+
+		long positions = 2*(pawnKey ? 24 : 32);
+		for(int i = 1; i < pieces.length; i++) positions *= 64;
+		size = positions;
+	} // END Bitbase()
+
+	/**
+	 * Loads all bitbases in the directories
+	 *
+	 * @param path
+	 *            Directories separated like in the class path, empty or
+	 *            &lt;empty&gt; for no tables
+	 * @return The number of tables loaded
+	 */
+	public static int init(String path) {
+		tables.clear();
+		tableCount = 0;
+		if(path == null || path.length() == 0 || "<empty>".equals(path)) return 0;
+
+		for(String directory : path.split(File.pathSeparator)) {
+			File[] files = new File(directory).listFiles();
+			if(files == null) continue;
+			for(File file : files) {
+				String name = file.getName();
+				if(!name.endsWith(".bb")) continue;
+				String code = name.substring(0, name.length() - 3);
+				if(!code.matches("K[QRBNP]*K[QRBNP]*") || code.length() > MAX_PIECES || !code.equals(normalize(code))) continue;
+				if(find(code) != null) continue; // The same table in two directories
+
+				try {
+					Bitbase table = new Bitbase(code);
+					table.load(file);
+					add(table);
+				} catch (IOException e) {
+					// Not a bitbase, or a broken one, skip it
+				}
+			}
+		}
+		return tableCount;
+	} // END init()
+
+	/**
+	 * Makes the table available to probe()
+	 */
+	static void add(Bitbase table) {
+		if(tables.put(table.key, table) == null) tableCount++;
+		tables.put(table.key2, table);
+	} // END add()
+
+	/**
+	 * @return The table with the normalized name, or null if it is not loaded
+	 */
+	static Bitbase find(String code) {
+		Bitbase table = tables.get(new Bitbase(code).key);
+		return (table != null && table.code.equals(code)) ? table : null;
+	} // END find()
+
+	/**
+	 * Memory maps the table from the file
+	 *
+	 * @throws IOException
+	 *             If the file can not be read or has the wrong size
+	 */
+	void load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			setData(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close(); // The mapping stays valid
+		}
+	} // END load()
+
+	/**
+	 * @param data
+	 *            The contents of a bitbase file, as written by
+	 *            BitbaseGenerator
+	 * @throws IOException
+	 *             If the data does not belong to this table
+	 */
+	void setData(ByteBuffer data) throws IOException {
+		if(data.capacity() != HEADER_SIZE + 2*bytes() || data.getInt(0) != MAGIC || data.getLong(4) != size) {
+			throw new IOException("Not a bitbase for " + code);
+		}
+		this.data = data;
+	} // END setData()
+
+	/**
+	 * @return The size of one of the two bit arrays
+	 */
+	int bytes() {
+		return (int)((size + 7) >>> 3);
+	} // END bytes()
+
+	/**
+	 * Packs the results into the format of the files
+	 *
+	 * @param results
+	 *            WIN, LOSS or anything else for a draw, for every index
+	 * @return The file contents
+	 */
+	byte[] pack(byte[] results) {
+		ByteBuffer packed = ByteBuffer.allocate(HEADER_SIZE + 2*bytes());
+		packed.putInt(0, MAGIC);
+		packed.putLong(4, size);
+		for(int i = 0; i < results.length; i++) {
+			if(results[i] != WIN && results[i] != LOSS) continue;
+			int offset = HEADER_SIZE + ((results[i] == WIN) ? 0 : bytes()) + (i >>> 3);
+			packed.put(offset, (byte)(packed.get(offset) | (1 << (i & 7))));
+		}
+		return packed.array();
+	} // END pack()
+
+	/**
+	 * @param index
+	 *            The index of a position
+	 * @return WIN, DRAW or LOSS for the side to move
+	 */
+	int get(long index) {
+		int offset = HEADER_SIZE + (int)(index >>> 3);
+		int bit = 1 << (int)(index & 7);
+		if((data.get(offset) & bit) != 0) return WIN;
+		if((data.get(offset + bytes()) & bit) != 0) return LOSS;
+		return DRAW;
+	} // END get()
+
+	/**
+	 * Looks up the position
+	 *
+	 * @param board
+	 *            The position
+	 * @return WIN, DRAW or LOSS for the side to move, or UNKNOWN if the
+	 *         position is not in a loaded table
+	 */
+	public static int probe(Board board) {
+		if(pieceCount(board) > MAX_PIECES || canCaptureEnPassant(board)
+				|| board.white_castle != CASTLE_NONE || board.black_castle != CASTLE_NONE) return UNKNOWN;
+		return probeTable(board);
+	} // END probe()
+
+	/**
+	 * @return true if there is an en passant square and the side to move has
+	 *         pawns that may capture on it
+	 */
+	static boolean canCaptureEnPassant(Board board) {
+		return board.enPassant != -1 && ((board.toMove == WHITE) ? board.w_pawns.count : board.b_pawns.count) != 0;
+	} // END canCaptureEnPassant()
+
+	/**
+	 * Looks up the position without checking if it can be in the tables
+	 */
+	static int probeTable(Board board) {
+		int materialKey = Endgame.materialKey(board);
+		Bitbase table = tables.get(materialKey);
+		if(table == null) return (materialKey == KPK_KEY || materialKey == KPK_KEY2) ? Kpk.probe(board) : UNKNOWN;
+		return table.get(table.index(board, table.key != materialKey));
+	} // END probeTable()
+
+	private static int pieceCount(Board board) {
+		return 2 + board.w_pawns.count + board.w_knights.count + board.w_bishops.count + board.w_rooks.count + board.w_queens.count
+				+ board.b_pawns.count + board.b_knights.count + board.b_bishops.count + board.b_rooks.count + board.b_queens.count;
+	} // END pieceCount()
+
+	/**
+	 * @param board
+	 *            A position with the material of the table
+	 * @param flip
+	 *            If black has the first side of the name
+	 * @return The index of the position
+	 */
+	long index(Board board, boolean flip) {
+		int mirror = ((square(board, keyPiece, flip) & 7) > 3) ? 7 : 0;
+		long index = slot(square(board, keyPiece, flip) ^ mirror);
+		for(int i = 0; i < pieces.length; i++) {
+			if(i != keyPiece) index = index*64 + (square(board, i, flip) ^ mirror);
+		}
+		int side = flip ? -board.toMove : board.toMove;
+		return index*2 + ((side == WHITE) ? 0 : 1);
+	} // END index()
+
+	/**
+	 * @param squares
+	 *            The squares (0 for a1 to 63 for h8) of the pieces in the
+	 *            order of the name
+	 * @param side
+	 *            The side to move
+	 * @return The index of the position
+	 */
+	long index(int[] squares, int side) {
+		int mirror = ((squares[keyPiece] & 7) > 3) ? 7 : 0;
+		long index = slot(squares[keyPiece] ^ mirror);
+		for(int i = 0; i < pieces.length; i++) {
+			if(i != keyPiece) index = index*64 + (squares[i] ^ mirror);
+		}
+		return index*2 + ((side == WHITE) ? 0 : 1);
+	} // END index()
+
+	/**
+	 * @return The square (0 for a1 to 63 for h8) of the i:th piece of the
+	 *         name, flipped if black has the first side
+	 */
+	private int square(Board board, int i, boolean flip) {
+		int piece = flip ? -pieces[i] : pieces[i];
+		int index = pieceList(board, piece).pieces[occurrence[i]];
+		int square = (index & 7) | ((index >> 4) << 3);
+		return flip ? square ^ 56 : square;
+	} // END square()
+
+	private static Board.PieceList pieceList(Board board, int piece) {
+		switch(piece) {
+		case W_KING: return board.w_king;
+		case W_QUEEN: return board.w_queens;
+		case W_ROOK: return board.w_rooks;
+		case W_BISHOP: return board.w_bishops;
+		case W_KNIGHT: return board.w_knights;
+		case W_PAWN: return board.w_pawns;
+		case B_KING: return board.b_king;
+		case B_QUEEN: return board.b_queens;
+		case B_ROOK: return board.b_rooks;
+		case B_BISHOP: return board.b_bishops;
+		case B_KNIGHT: return board.b_knights;
+		default: return board.b_pawns;
+		}
+	} // END pieceList()
+
+	/**
+	 * @return The place of the key piece's square (on the a-d files) in the
+	 *         index, pawns can only be on the second to seventh rank
+	 */
+	private int slot(int square) {
+		return pawnKey ? ((square >> 3) - 1)*4 + (square & 7) : (square >> 3)*4 + (square & 7);
+	} // END slot()
+
+	/**
+	 * Turns an index back into a position, the opposite of index()
+	 *
+	 * @param index
+	 *            The index
+	 * @param squares
+	 *            Filled with the squares (0 for a1 to 63 for h8) of the
+	 *            pieces in the order of the name
+	 * @return The side to move
+	 */
+	int decode(long index, int[] squares) {
+		int side = ((index & 1) == 0) ? WHITE : BLACK;
+		index >>>= 1;
+		for(int i = pieces.length - 1; i >= 0; i--) {
+			if(i == keyPiece) continue;
+			squares[i] = (int)(index & 63);
+			index >>>= 6;
+		}
+		int slot = (int)index;
+		squares[keyPiece] = (pawnKey ? (slot/4 + 1)*8 : (slot/4)*8) + slot%4;
+		return side;
+	} // END decode()
+
+	/**
+	 * Puts the stronger side first and the pieces of both sides in the
+	 * order queen, rook, bishop, knight, pawn, so every material has one name
+	 *
+	 * @param code
+	 *            A name like KPKR
+	 * @return The normalized name, KRKP for the example
+	 */
+	static String normalize(String code) {
+		int weak = code.indexOf('K', 1);
+		String first = sortPieces(code.substring(1, weak));
+		String second = sortPieces(code.substring(weak + 1));
+		if(compareSides(first, second) < 0) return "K" + second + "K" + first;
+		return "K" + first + "K" + second;
+	} // END normalize()
+
+	private static String sortPieces(String pieces) {
+		StringBuilder sorted = new StringBuilder();
+		for(char piece : PIECES.toCharArray()) {
+			for(char c : pieces.toCharArray()) {
+				if(c == piece) sorted.append(c);
+			}
+		}
+		return sorted.toString();
+	} // END sortPieces()
+
+	/**
+	 * @return Positive if the first side is stronger, by the values of the
+	 *         pieces and then by the strongest pieces
+	 */
+	private static int compareSides(String first, String second) {
+		int difference = value(first) - value(second);
+		if(difference != 0) return difference;
+		for(int i = 0; i < Math.min(first.length(), second.length()); i++) {
+			if(first.charAt(i) != second.charAt(i)) return PIECES.indexOf(second.charAt(i)) - PIECES.indexOf(first.charAt(i));
+		}
+		return first.length() - second.length();
+	} // END compareSides()
+
+	private static int value(String pieces) {
+		int value = 0;
+		for(char c : pieces.toCharArray()) value += PIECE_VALUE[PIECES.indexOf(c)];
+		return value;
+	} // END value()
+}
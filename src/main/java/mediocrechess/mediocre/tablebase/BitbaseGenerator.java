@@ -0,0 +1,436 @@
+package mediocrechess.mediocre.tablebase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Endgame;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class BitbaseGenerator
+ *
+ * Makes the bitbases of Bitbase by retrograde analysis with the move
+ * generator of Board: a position is won if a move leads to a lost position,
+ * lost if all moves lead to won ones and drawn once all moves have a result
+ * and neither is true. The first pass looks at every position, after that
+ * only the positions a move back from the ones that got a result are looked
+ * at again, until no more results are found. The rest are draws.
+ *
+ * Captures and promotions lead to other materials, those tables are made
+ * first (or loaded if their files are in the directory already).
+ *
+ * Usage: BitbaseGenerator directory [endings]
+ *
+ * The positions are split in ranges for fork/join, every thread has a board
+ * of its own.
+ */
+public class BitbaseGenerator implements Definitions {
+	private static final String[] DEFAULT_ENDINGS = {"KPK", "KRK", "KQK", "KQKR", "KQKP", "KRKP", "KRKB", "KRKN", "KBNK", "KPKP"};
+	private static final int CHUNK = 1 << 14; // Positions handled by one task
+
+	// Results while generating, besides Bitbase.WIN, DRAW and LOSS
+	private static final byte UNKNOWN = Bitbase.UNKNOWN;
+	private static final byte INVALID = 3;
+	private static final byte UNKNOWN_EN_PASSANT = 4; // Unknown and a move allows en passant, looked at in every pass
+
+	private static final int[][] KING_DELTAS = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+	private static final int[][] KNIGHT_DELTAS = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+	private static final int[][] BISHOP_DELTAS = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+	private static final int[][] ROOK_DELTAS = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+
+	private static ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+
+	/**
+	 * What a thread needs to look at positions
+	 */
+	private static class Worker {
+		Board board = new Board();
+		Move[][] moves = new Move[8][256]; // One list for every position deep (en passant captures are looked at ahead)
+		int[] squares = new int[Bitbase.MAX_PIECES];
+		int[] pieceOn = new int[64];
+		byte[] record = new byte[Board.BINARY_SIZE];
+		boolean enPassant; // If an en passant square was seen while finding a result
+
+		Worker() {
+			for(int i = 0; i < moves.length; i++) {
+				for(int j = 0; j < moves[i].length; j++) moves[i][j] = new Move();
+			}
+		}
+	}
+
+	/**
+	 * Gives a result to the positions of a range that do not have one yet
+	 * and are marked, and marks the positions a move back from the ones that
+	 * got one for the next pass
+	 */
+	private static class PassTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private Bitbase table;
+		private byte[] results;
+		private byte[] marked; // Null in the first pass, which looks at all positions
+		private byte[] nextMarked;
+		private int from;
+		private int to;
+
+		PassTask(Bitbase table, byte[] results, byte[] marked, byte[] nextMarked, int from, int to) {
+			this.table = table;
+			this.results = results;
+			this.marked = marked;
+			this.nextMarked = nextMarked;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected Long compute() {
+			if(to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				PassTask first = new PassTask(table, results, marked, nextMarked, from, middle);
+				first.fork();
+				long second = new PassTask(table, results, marked, nextMarked, middle, to).compute();
+				return first.join() + second;
+			}
+
+			Worker worker = workers.get();
+			long found = 0;
+			for(int index = from; index < to; index++) {
+				if(marked != null) {
+					if(results[index] != UNKNOWN_EN_PASSANT && (results[index] != UNKNOWN || marked[index] == 0)) continue;
+					marked[index] = 0;
+				}
+				if(!setup(worker, table, index)) {
+					results[index] = INVALID;
+					continue;
+				}
+
+				worker.enPassant = false;
+				int result = value(worker, table, results, 0);
+				if(result == UNKNOWN) {
+					if(worker.enPassant) results[index] = UNKNOWN_EN_PASSANT;
+					continue;
+				}
+				results[index] = (byte)result;
+				markPredecessors(worker, table, index, nextMarked);
+				found++;
+			}
+			return found;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: BitbaseGenerator directory [endings]");
+			return;
+		}
+		File directory = new File(args[0]);
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			System.out.println("Could not make the directory " + directory);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		String[] endings = DEFAULT_ENDINGS;
+		if(args.length > 1) {
+			endings = new String[args.length - 1];
+			System.arraycopy(args, 1, endings, 0, endings.length);
+		}
+		for(String ending : endings) {
+			if(!ending.matches("K[QRBNP]*K[QRBNP]*") || ending.length() > Bitbase.MAX_PIECES) {
+				System.out.println("Skipping " + ending + ", endings are written like KRKP with at most " + Bitbase.MAX_PIECES + " pieces");
+				continue;
+			}
+			generate(ending, directory, pool);
+		}
+		pool.shutdown();
+	} // END main()
+
+	/**
+	 * Makes the table of the material and writes it to the directory, the
+	 * tables it needs are made (or loaded) first
+	 *
+	 * @param code
+	 *            The material, e.g. KRKP
+	 * @param directory
+	 *            Where the tables are written
+	 * @param pool
+	 *            The threads to use
+	 * @return The table, or null if the material is always a draw
+	 * @throws IOException
+	 *             If the table could not be written
+	 */
+	public static Bitbase generate(String code, File directory, ForkJoinPool pool) throws IOException {
+		code = Bitbase.normalize(code);
+		if(isDraw(code)) return null;
+
+		Bitbase table = Bitbase.find(code);
+		if(table != null) return table;
+
+		table = new Bitbase(code);
+		File file = new File(directory, code + ".bb");
+		if(file.isFile()) {
+			try {
+				table.load(file);
+				Bitbase.add(table);
+				System.out.println(code + " loaded from " + file);
+				return table;
+			} catch (IOException e) {
+				System.out.println(file + " is broken, making it again");
+			}
+		}
+
+		for(String dependency : dependencies(code)) generate(dependency, directory, pool);
+
+		long start = System.currentTimeMillis();
+		byte[] results = generate(table, pool);
+		byte[] data = table.pack(results);
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		table.setData(ByteBuffer.wrap(data));
+		Bitbase.add(table);
+
+		long wins = 0, losses = 0, draws = 0;
+		for(byte result : results) {
+			if(result == Bitbase.WIN) wins++;
+			else if(result == Bitbase.LOSS) losses++;
+			else if(result != INVALID) draws++;
+		}
+		System.out.println(code + ": " + wins + " wins, " + draws + " draws, " + losses + " losses ("
+				+ (System.currentTimeMillis() - start) / 1000 + " s)");
+		return table;
+	} // END generate()
+
+	/**
+	 * Runs the passes over the positions until no more results are found
+	 *
+	 * @return The results of all indices, positions still unknown are draws
+	 */
+	static byte[] generate(Bitbase table, ForkJoinPool pool) {
+		byte[] results = new byte[(int)table.size];
+		Arrays.fill(results, UNKNOWN);
+		byte[] marked = null;
+		byte[] nextMarked = new byte[results.length];
+		while(pool.invoke(new PassTask(table, results, marked, nextMarked, 0, results.length)) != 0) {
+			if(marked == null) marked = new byte[results.length]; // Cleared by the pass
+			byte[] swap = marked;
+			marked = nextMarked;
+			nextMarked = swap;
+		}
+
+		for(int i = 0; i < results.length; i++) {
+			if(results[i] == UNKNOWN || results[i] == UNKNOWN_EN_PASSANT) results[i] = Bitbase.DRAW;
+		}
+		return results;
+	} // END generate()
+
+	/**
+	 * Sets up the position of the index on the worker's board
+	 *
+	 * @return false if the position can not happen
+	 */
+	private static boolean setup(Worker worker, Bitbase table, int index) {
+		int side = table.decode(index, worker.squares);
+		int[] squares = worker.squares;
+		int[] pieceOn = worker.pieceOn;
+		Arrays.fill(pieceOn, EMPTY_SQUARE);
+
+		for(int i = 0; i < table.pieces.length; i++) {
+			if(pieceOn[squares[i]] != EMPTY_SQUARE) return false;
+			if(Math.abs(table.pieces[i]) == W_PAWN && (squares[i] < 8 || squares[i] >= 56)) return false;
+			pieceOn[squares[i]] = table.pieces[i];
+		}
+
+		// The binary format of Board, see Board.getBinary()
+		byte[] record = worker.record;
+		Arrays.fill(record, (byte)0);
+		long occupied = 0;
+		int count = 0;
+		for(int square = 0; square < 64; square++) {
+			if(pieceOn[square] == EMPTY_SQUARE) continue;
+			occupied |= 1L << square;
+			record[8 + (count >> 1)] |= ((count & 1) == 0) ? (pieceOn[square] + 7) << 4 : pieceOn[square] + 7;
+			count++;
+		}
+		for(int i = 0; i < 8; i++) record[i] = (byte)(occupied >>> (56 - 8*i));
+		record[24] = (byte)((side == BLACK) ? 1 : 0);
+		record[25] = -1; // No en passant
+		record[28] = 1;
+
+		Board board = worker.board;
+		board.inputBinary(record, 0);
+
+		// The side that just moved can not be in check
+		int king = (side == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0];
+		return !board.isAttacked(king, side);
+	} // END setup()
+
+	/**
+	 * Finds the result of the position on the worker's board from its moves
+	 *
+	 * @param depth
+	 *            How many moves were made on the board
+	 * @return WIN, DRAW or LOSS for the side to move, or UNKNOWN if some
+	 *         moves do not have a result yet
+	 */
+	private static int value(Worker worker, Bitbase table, byte[] results, int depth) {
+		Board board = worker.board;
+		Move[] moves = worker.moves[depth];
+		int movesCount = board.gen_allLegalMoves(moves, 0);
+		if(movesCount == 0) return board.isInCheck() ? Bitbase.LOSS : Bitbase.DRAW;
+
+		boolean allWins = true;
+		boolean unknown = false;
+		for(int i = 0; i < movesCount; i++) {
+			board.makeMove(moves[i].move);
+			int result = successor(worker, table, results, depth + 1);
+			board.unmakeMove(moves[i].move);
+
+			if(result == Bitbase.LOSS) return Bitbase.WIN;
+			if(result != Bitbase.WIN) allWins = false;
+			if(result == UNKNOWN || result == UNKNOWN_EN_PASSANT) unknown = true;
+		}
+		if(allWins) return Bitbase.LOSS;
+		return unknown ? UNKNOWN : Bitbase.DRAW;
+	} // END value()
+
+	/**
+	 * @return The result of the position after a move, from the table being
+	 *         made or the table of the new material
+	 */
+	private static int successor(Worker worker, Bitbase table, byte[] results, int depth) {
+		Board board = worker.board;
+		if(Bitbase.canCaptureEnPassant(board)) {
+			// The tables have no en passant captures, so look at the moves
+			worker.enPassant = true;
+			return value(worker, table, results, depth);
+		}
+
+		int materialKey = Endgame.materialKey(board);
+		if(materialKey == table.key || materialKey == table.key2) {
+			return results[(int)table.index(board, materialKey != table.key)];
+		}
+		if(isDraw(board)) return Bitbase.DRAW;
+
+		int result = Bitbase.probeTable(board);
+		if(result == Bitbase.UNKNOWN) throw new IllegalStateException("No table for " + board.getFen());
+		return result;
+	} // END successor()
+
+	/**
+	 * Marks the positions of the table where a move leads to the position of
+	 * the index, moves that are not captures or promotions made backwards
+	 */
+	private static void markPredecessors(Worker worker, Bitbase table, int index, byte[] marked) {
+		int[] squares = worker.squares;
+		int[] pieceOn = worker.pieceOn;
+		int moved = -table.decode(index, squares); // The side that made the move
+		Arrays.fill(pieceOn, EMPTY_SQUARE);
+		for(int i = 0; i < table.pieces.length; i++) pieceOn[squares[i]] = table.pieces[i];
+
+		for(int i = 0; i < table.pieces.length; i++) {
+			int piece = table.pieces[i]*moved;
+			if(piece <= 0) continue; // The other side's piece
+
+			int square = squares[i];
+			int file = square & 7;
+			int rank = square >> 3;
+			if(piece == W_PAWN) {
+				int behind = square - 8*moved;
+				int startRank = (moved == WHITE) ? 1 : 6;
+				if(rank == startRank || pieceOn[behind] != EMPTY_SQUARE) continue; // Pawns do not come from the first rank
+				mark(table, squares, i, behind, moved, marked);
+				if(rank - 2*moved == startRank && pieceOn[behind - 8*moved] == EMPTY_SQUARE) mark(table, squares, i, behind - 8*moved, moved, marked);
+				continue;
+			}
+
+			boolean slider = (piece == W_QUEEN || piece == W_ROOK || piece == W_BISHOP);
+			int[][] deltas = (piece == W_KING) ? KING_DELTAS : (piece == W_KNIGHT) ? KNIGHT_DELTAS
+					: (piece == W_BISHOP) ? BISHOP_DELTAS : (piece == W_ROOK) ? ROOK_DELTAS : KING_DELTAS;
+			for(int[] delta : deltas) {
+				int toFile = file + delta[0];
+				int toRank = rank + delta[1];
+				while(toFile >= 0 && toFile < 8 && toRank >= 0 && toRank < 8 && pieceOn[toRank*8 + toFile] == EMPTY_SQUARE) {
+					mark(table, squares, i, toRank*8 + toFile, moved, marked);
+					if(!slider) break;
+					toFile += delta[0];
+					toRank += delta[1];
+				}
+			}
+		}
+	} // END markPredecessors()
+
+	/**
+	 * Marks the position with the i:th piece moved to the square, and the
+	 * same position with two equal pieces swapped since it has an index of
+	 * its own
+	 */
+	private static void mark(Bitbase table, int[] squares, int i, int square, int side, byte[] marked) {
+		int original = squares[i];
+		squares[i] = square;
+		marked[(int)table.index(squares, side)] = 1;
+		for(int j = 1; j < table.pieces.length; j++) {
+			for(int k = 0; k < j; k++) {
+				if(table.pieces[j] != table.pieces[k]) continue;
+				swap(squares, j, k);
+				marked[(int)table.index(squares, side)] = 1;
+				swap(squares, j, k);
+			}
+		}
+		squares[i] = original;
+	} // END mark()
+
+	private static void swap(int[] squares, int i, int j) {
+		int square = squares[i];
+		squares[i] = squares[j];
+		squares[j] = square;
+	} // END swap()
+
+	/**
+	 * @return The materials the material can turn into with a capture or a
+	 *         promotion
+	 */
+	static List<String> dependencies(String code) {
+		List<String> dependencies = new ArrayList<String>();
+		for(int i = 1; i < code.length(); i++) {
+			char piece = code.charAt(i);
+			if(piece == 'K') continue;
+			dependencies.add(Bitbase.normalize(code.substring(0, i) + code.substring(i + 1)));
+			if(piece != 'P') continue;
+			for(char promotion : "QRBN".toCharArray()) {
+				dependencies.add(Bitbase.normalize(code.substring(0, i) + promotion + code.substring(i + 1)));
+			}
+		}
+		return dependencies;
+	} // END dependencies()
+
+	/**
+	 * @return true if no side can ever mate with the material, at most one
+	 *         bishop or knight
+	 */
+	private static boolean isDraw(String code) {
+		return code.length() <= 3 && !code.matches(".*[QRP].*");
+	} // END isDraw()
+
+	private static boolean isDraw(Board board) {
+		int minors = board.w_knights.count + board.w_bishops.count + board.b_knights.count + board.b_bishops.count;
+		int others = board.w_pawns.count + board.w_rooks.count + board.w_queens.count
+				+ board.b_pawns.count + board.b_rooks.count + board.b_queens.count;
+		return others == 0 && minors <= 1;
+	} // END isDraw()
+}
@@ -0,0 +1,186 @@
+package mediocrechess.mediocre.tablebase;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class Kpk
+ *
+ * The king and pawn against king bitbase that is always there, one bit for
+ * every position telling if the side with the pawn wins (24 KB). It is made
+ * in memory when Mediocre starts (or at the first probe), which is much
+ * faster than BitbaseGenerator since only king moves and pawn pushes have to
+ * be known.
+ *
+ * The positions are seen with the pawn as white and on the a-d files. The
+ * pawn side wins right away if the pawn promotes without being taken, and
+ * the other side draws at once if it is stalemated or can take the pawn,
+ * the rest is found by going over the positions until nothing changes (like
+ * the Stockfish bitbase).
+ *
+ * Bitbase uses this for KPK if no KPK file is loaded.
+ */
+public class Kpk implements Definitions {
+	private static final int MAX_INDEX = 2*24*64*64; // Side to move, pawn on a2-d7, both kings
+
+	// Results while the bitbase is made, WIN and DRAW can be or:ed
+	private static final byte INVALID = 0;
+	private static final byte UNKNOWN = 1;
+	private static final byte DRAW = 2;
+	private static final byte WIN = 4;
+
+	private static int[] wins; // Null until init()
+
+	/**
+	 * @param side
+	 *            The side to move, the pawn is white
+	 * @return The index of the position
+	 */
+	private static int index(int side, int blackKing, int whiteKing, int pawn) {
+		return whiteKing | (blackKing << 6) | (((side == WHITE) ? 0 : 1) << 12) | ((pawn & 7) << 13) | ((6 - (pawn >> 3)) << 15);
+	} // END index()
+
+	/**
+	 * Makes the bitbase if it is not made yet
+	 */
+	public static synchronized void init() {
+		if(wins == null) wins = generate();
+	} // END init()
+
+	/**
+	 * Looks up a KPK position
+	 *
+	 * @param board
+	 *            A position with only the kings and one pawn
+	 * @return Bitbase.WIN, DRAW or LOSS for the side to move
+	 */
+	public static int probe(Board board) {
+		if(wins == null) init();
+
+		int strongSide = (board.w_pawns.count != 0) ? WHITE : BLACK;
+		int pawn = square((strongSide == WHITE) ? board.w_pawns.pieces[0] : board.b_pawns.pieces[0]);
+		int strongKing = square((strongSide == WHITE) ? board.w_king.pieces[0] : board.b_king.pieces[0]);
+		int weakKing = square((strongSide == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0]);
+
+		// Turn the board so the pawn is white and on the a-d files
+		int flip = (strongSide == WHITE) ? 0 : 56;
+		pawn ^= flip;
+		strongKing ^= flip;
+		weakKing ^= flip;
+		if((pawn & 7) > 3) {
+			pawn ^= 7;
+			strongKing ^= 7;
+			weakKing ^= 7;
+		}
+
+		int side = (board.toMove == strongSide) ? WHITE : BLACK;
+		int index = index(side, weakKing, strongKing, pawn);
+		if((wins[index >>> 5] & (1 << (index & 31))) == 0) return Bitbase.DRAW;
+		return (side == WHITE) ? Bitbase.WIN : Bitbase.LOSS;
+	} // END probe()
+
+	/**
+	 * @return The square from 0 (a1) to 63 (h8) of a 0x88 index
+	 */
+	private static int square(int index) {
+		return (index & 7) | ((index >> 4) << 3);
+	} // END square()
+
+	/**
+	 * Finds the result of every position
+	 *
+	 * @return The bits of the positions the pawn side wins
+	 */
+	private static int[] generate() {
+		byte[] results = new byte[MAX_INDEX];
+		for(int index = 0; index < MAX_INDEX; index++) results[index] = initial(index);
+
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int index = 0; index < MAX_INDEX; index++) {
+				if(results[index] != UNKNOWN) continue;
+				results[index] = classify(results, index);
+				changed |= (results[index] != UNKNOWN);
+			}
+		}
+
+		int[] wins = new int[MAX_INDEX / 32];
+		for(int index = 0; index < MAX_INDEX; index++) {
+			if(results[index] == WIN) wins[index >>> 5] |= 1 << (index & 31);
+		}
+		return wins;
+	} // END generate()
+
+	/**
+	 * @return The result of the position if it can be seen without looking
+	 *         at the moves, else UNKNOWN
+	 */
+	private static byte initial(int index) {
+		int whiteKing = index & 63;
+		int blackKing = (index >> 6) & 63;
+		int side = (((index >> 12) & 1) == 0) ? WHITE : BLACK;
+		int pawn = ((index >> 13) & 3) + ((6 - ((index >> 15) & 7)) << 3);
+
+		if(distance(whiteKing, blackKing) <= 1 || whiteKing == pawn || blackKing == pawn) return INVALID;
+		if(side == WHITE && pawnAttacks(pawn, blackKing)) return INVALID;
+
+		if(side == WHITE) {
+			// The pawn promotes and the queen can not be taken
+			int queening = pawn + 8;
+			if((pawn >> 3) == 6 && whiteKing != queening
+					&& (distance(blackKing, queening) > 1 || distance(whiteKing, queening) == 1)) return WIN;
+			return UNKNOWN;
+		}
+
+		// Black is stalemated, or takes the pawn
+		boolean canMove = false;
+		for(int to = 0; to < 64; to++) {
+			if(distance(blackKing, to) != 1 || distance(whiteKing, to) <= 1 || pawnAttacks(pawn, to)) continue;
+			if(to == pawn) return DRAW;
+			canMove = true;
+		}
+		return canMove ? UNKNOWN : DRAW;
+	} // END initial()
+
+	/**
+	 * @return The result of the position from the results of its moves, or
+	 *         UNKNOWN if they are not known yet
+	 */
+	private static byte classify(byte[] results, int index) {
+		int whiteKing = index & 63;
+		int blackKing = (index >> 6) & 63;
+		int side = (((index >> 12) & 1) == 0) ? WHITE : BLACK;
+		int pawn = ((index >> 13) & 3) + ((6 - ((index >> 15) & 7)) << 3);
+
+		// White needs one move to a win, black one move to a draw
+		byte good = (side == WHITE) ? WIN : DRAW;
+		byte bad = (side == WHITE) ? DRAW : WIN;
+
+		int result = INVALID;
+		int king = (side == WHITE) ? whiteKing : blackKing;
+		for(int to = 0; to < 64; to++) {
+			if(distance(king, to) != 1) continue;
+			result |= (side == WHITE) ? results[index(BLACK, blackKing, to, pawn)] : results[index(WHITE, to, whiteKing, pawn)];
+		}
+
+		if(side == WHITE) {
+			if((pawn >> 3) < 6) result |= results[index(BLACK, blackKing, whiteKing, pawn + 8)];
+			if((pawn >> 3) == 1 && pawn + 8 != whiteKing && pawn + 8 != blackKing) {
+				result |= results[index(BLACK, blackKing, whiteKing, pawn + 16)];
+			}
+		}
+
+		if((result & good) != 0) return good;
+		if((result & UNKNOWN) != 0) return UNKNOWN;
+		return bad;
+	} // END classify()
+
+	private static boolean pawnAttacks(int pawn, int square) {
+		return square - pawn == 7 && (pawn & 7) != 0 || square - pawn == 9 && (pawn & 7) != 7;
+	} // END pawnAttacks()
+
+	private static int distance(int a, int b) {
+		return Math.max(Math.abs((a & 7) - (b & 7)), Math.abs((a >> 3) - (b >> 3)));
+	} // END distance()
+}
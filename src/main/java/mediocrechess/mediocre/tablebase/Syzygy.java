@@ -0,0 +1,1073 @@
+package mediocrechess.mediocre.tablebase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Endgame;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.def.Definitions;
+
+/**
+ * class Syzygy
+ *
+ * Probes Syzygy endgame tablebases, the win/draw/loss tables (.rtbw) and the
+ * distance to zeroing tables (.rtbz). The files are memory mapped the first
+ * time a position with their material is probed.
+ *
+ * The tables are read the way the Stockfish probing code (by Ronald de Man,
+ * the author of the tables) reads them: every table is split in one part
+ * per side to move (and file of the leading pawn), a position is turned into
+ * an index from where its pieces are and the value is found in the
+ * compressed blocks of the file.
+ *
+ * The tables have no positions with castling rights, and positions with
+ * captures (and en passant) are solved by trying the captures first, so a
+ * probe can make moves on the board. The board is the same afterwards.
+ */
+public class Syzygy implements Definitions {
+	// Results from the win/draw/loss tables, cursed wins and blessed losses
+	// are wins and losses that are draws by the fifty move rule
+	public static final int WDL_LOSS = -2;
+	public static final int WDL_BLESSED_LOSS = -1;
+	public static final int WDL_DRAW = 0;
+	public static final int WDL_CURSED_WIN = 1;
+	public static final int WDL_WIN = 2;
+
+	public static final int TB_WIN = 20000; // Score of a won position in the search, more than any evaluation
+
+	private static final int MAX_PIECES = 7; // Kings included
+
+	// Outcome of a probe
+	private static final int FAIL = 0;
+	private static final int OK = 1;
+	private static final int CHANGE_STM = -1; // The distance table has the other side to move
+	private static final int ZEROING_BEST_MOVE = 2; // The best move is a capture or pawn move
+
+	// Flags of the parts of a table
+	private static final int FLAG_STM = 1;
+	private static final int FLAG_MAPPED = 2;
+	private static final int FLAG_WIN_PLIES = 4;
+	private static final int FLAG_LOSS_PLIES = 8;
+	private static final int FLAG_WIDE = 16;
+	private static final int FLAG_SINGLE_VALUE = 128;
+
+	private static final int[] WDL_MAGIC = {0x71, 0xE8, 0x23, 0x5D};
+	private static final int[] DTZ_MAGIC = {0xD7, 0x66, 0x0C, 0xA5};
+
+	private static final int[] TABLE_PIECE = {0, 6, 5, 4, 3, 2, 1}; // Piece type in the tables, indexed by Mediocre's
+	private static final int[] WDL_TO_RANK = {-1000, -899, 0, 899, 1000};
+
+	// Tables for turning positions into indices, see init()
+	private static final int[][] binomial = new int[6][64];
+	private static final int[] mapPawns = new int[64];
+	private static final int[][] leadPawnIdx = new int[6][64];
+	private static final int[][] leadPawnsSize = new int[6][4];
+	private static final int[] mapB1H1H7 = new int[64];
+	private static final int[] mapA1D1D4 = new int[64];
+	private static final int[][] mapKK = new int[10][64];
+
+	static Map<Integer, Table> wdlTables = new HashMap<Integer, Table>();
+	private static Map<Integer, Table> dtzTables = new HashMap<Integer, Table>();
+	private static int maxPieces; // Most pieces in any table found, 0 if there are none
+	private static int tableCount;
+	private static String[] directories = new String[0];
+
+	private static int probeState;
+	private static boolean rootDtz; // If the last root probe used the distance tables
+	private static Move[][] moves = new Move[32][256];
+
+	static {
+		for(int i = 0; i < moves.length; i++) {
+			for(int j = 0; j < moves[i].length; j++) moves[i][j] = new Move();
+		}
+		initIndexTables();
+	}
+
+	/**
+	 * A memory mapped table file, in parts of at most 1 GB since a mapping
+	 * can not be bigger than 2 GB
+	 */
+	static class TableFile {
+		private static final int CHUNK_BITS = 30;
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+		private MappedByteBuffer[] chunks;
+
+		TableFile(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long size = channel.size();
+				chunks = new MappedByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_BITS)];
+				for(int i = 0; i < chunks.length; i++) {
+					long start = (long)i << CHUNK_BITS;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, size - start));
+				}
+			} finally {
+				raf.close(); // The mappings stay valid
+			}
+		}
+
+		int u8(long pos) {
+			return chunks[(int)(pos >>> CHUNK_BITS)].get((int)(pos & CHUNK_MASK)) & 0xFF;
+		}
+
+		int u16(long pos) {
+			return u8(pos) | (u8(pos + 1) << 8);
+		}
+
+		long u32(long pos) {
+			return (long)u16(pos) | ((long)u16(pos + 2) << 16);
+		}
+
+		long u32BigEndian(long pos) {
+			return ((long)u8(pos) << 24) | (u8(pos + 1) << 16) | (u8(pos + 2) << 8) | u8(pos + 3);
+		}
+
+		long u64BigEndian(long pos) {
+			return (u32BigEndian(pos) << 32) | u32BigEndian(pos + 4);
+		}
+	}
+
+	/**
+	 * One compressed part of a table, for a side to move and file of the
+	 * leading pawn
+	 */
+	static class PairsData {
+		int flags;
+		long sizeofBlock; // Bytes in a block
+		long span; // There is a sparse index entry for about every span values
+		int numBlocks;
+		int maxSymLen; // Longest symbol in bits
+		int minSymLen; // Shortest symbol in bits, or the value if all values are the same
+		long lowestSym; // File position of the lowest symbol of every length
+		long btree; // File position of the pairs every symbol expands to
+		long blockLength; // File position of the number of values (minus one) in every block
+		int blockLengthSize;
+		long sparseIndex; // File position of the sparse index
+		long sparseIndexSize;
+		long data; // File position of the first block
+		long[] base64; // The lowest symbol of every length padded to 64 bits
+		int[] symlen; // Number of values (minus one) a symbol expands to
+		int[] pieces = new int[MAX_PIECES]; // The order of the pieces decides the groups
+		long[] groupIdx = new long[MAX_PIECES + 1]; // Multiplier of the index of every group
+		int[] groupLen = new int[MAX_PIECES + 1]; // Pieces in every group, ending with 0
+		int[] mapIdx = new int[4]; // Where the values of win, loss, cursed win and blessed loss start in the map
+	}
+
+	/**
+	 * A table file, e.g. KRvK.rtbw
+	 */
+	static class Table {
+		File file;
+		boolean dtz;
+		int key; // Material with the first side as white
+		int key2; // Material with the first side as black
+		int pieceCount;
+		boolean hasPawns;
+		boolean hasUniquePieces;
+		int[] pawnCount = new int[2]; // Leading side and the other side
+		PairsData[][] items = new PairsData[2][4]; // [side to move][file of the leading pawn]
+		long map; // File position of the value maps of a distance table
+		boolean ready; // Mapped (or failed to)
+		TableFile data;
+
+		Table(File file, String code, boolean dtz) {
+			this.file = file;
+			this.dtz = dtz;
+
+			String[] sides = code.split("v");
+			int[] white = pieceCounts(sides[0]);
+			int[] black = pieceCounts(sides[1]);
+			key = Endgame.materialKey(white, black);
+			key2 = Endgame.materialKey(black, white);
+			pieceCount = code.length() - 1;
+			hasPawns = white[0] + black[0] != 0;
+			for(int i = 0; i < 5; i++) {
+				if(white[i] == 1 || black[i] == 1) hasUniquePieces = true;
+			}
+
+			// The side with fewer pawns leads, since that compresses better
+			boolean whiteLeads = black[0] == 0 || (white[0] != 0 && black[0] >= white[0]);
+			pawnCount[0] = whiteLeads ? white[0] : black[0];
+			pawnCount[1] = whiteLeads ? black[0] : white[0];
+		}
+
+		PairsData get(int stm, int file) {
+			return items[dtz ? 0 : stm][hasPawns ? file : 0];
+		}
+	}
+
+	/**
+	 * @return Counts of pawns, knights, bishops, rooks and queens, e.g. in KRP
+	 */
+	private static int[] pieceCounts(String pieces) {
+		int[] counts = new int[5];
+		for(char piece : pieces.toCharArray()) {
+			if(piece != 'K') counts["PNBRQ".indexOf(piece)]++;
+		}
+		return counts;
+	} // END pieceCounts()
+
+	/**
+	 * Fills the tables used to turn positions into indices
+	 */
+	private static void initIndexTables() {
+		// Squares below the a1-h8 diagonal to 0..27
+		int code = 0;
+		for(int s = 0; s < 64; s++) {
+			if(offA1H8(s) < 0) mapB1H1H7[s] = code++;
+		}
+
+		// Squares in the a1-d1-d4 triangle to 0..9, with the diagonal last
+		int[] diagonal = new int[4];
+		int diagonalCount = 0;
+		code = 0;
+		for(int s = 0; s <= 27; s++) {
+			if(offA1H8(s) < 0 && (s & 7) <= 3) mapA1D1D4[s] = code++;
+			else if(offA1H8(s) == 0 && (s & 7) <= 3) diagonal[diagonalCount++] = s;
+		}
+		for(int i = 0; i < diagonalCount; i++) mapA1D1D4[diagonal[i]] = code++;
+
+		// The 462 legal placements of two kings with the first in the a1-d1-d4
+		// triangle, if the first is on the diagonal the second is not above it
+		int[][] bothOnDiagonal = new int[64][2];
+		int bothCount = 0;
+		code = 0;
+		for(int idx = 0; idx < 10; idx++) {
+			for(int s1 = 0; s1 <= 27; s1++) {
+				if(mapA1D1D4[s1] != idx || (idx == 0 && s1 != 1)) continue; // b1 is 0
+				for(int s2 = 0; s2 < 64; s2++) {
+					if(Math.abs((s1 & 7) - (s2 & 7)) <= 1 && Math.abs((s1 >> 3) - (s2 >> 3)) <= 1) continue; // Kings touching
+					if(offA1H8(s1) == 0 && offA1H8(s2) > 0) continue;
+					if(offA1H8(s1) == 0 && offA1H8(s2) == 0) {
+						bothOnDiagonal[bothCount][0] = idx;
+						bothOnDiagonal[bothCount++][1] = s2;
+					} else {
+						mapKK[idx][s2] = code++;
+					}
+				}
+			}
+		}
+		for(int i = 0; i < bothCount; i++) mapKK[bothOnDiagonal[i][0]][bothOnDiagonal[i][1]] = code++;
+
+		// Ways to choose k of n squares
+		binomial[0][0] = 1;
+		for(int n = 1; n < 64; n++) {
+			for(int k = 0; k < 6 && k <= n; k++) {
+				binomial[k][n] = (k > 0 ? binomial[k - 1][n - 1] : 0) + (k < n ? binomial[k][n - 1] : 0);
+			}
+		}
+
+		// Pawn squares a2-h7 to 0..47, the leading pawn is the one with the
+		// highest value (closest to the edge and then lowest rank)
+		int availableSquares = 47;
+		for(int leadPawnsCount = 1; leadPawnsCount <= 5; leadPawnsCount++) {
+			for(int file = 0; file <= 3; file++) {
+				int idx = 0;
+				for(int rank = 1; rank <= 6; rank++) {
+					int s = rank*8 + file;
+					if(leadPawnsCount == 1) {
+						mapPawns[s] = availableSquares--;
+						mapPawns[s ^ 7] = availableSquares--;
+					}
+					leadPawnIdx[leadPawnsCount][s] = idx;
+					idx += binomial[leadPawnsCount - 1][mapPawns[s]];
+				}
+				leadPawnsSize[leadPawnsCount][file] = idx;
+			}
+		}
+	} // END initIndexTables()
+
+	/**
+	 * @return Ranks above the a1-h8 diagonal (negative below it)
+	 */
+	private static int offA1H8(int s) {
+		return (s >> 3) - (s & 7);
+	} // END offA1H8()
+
+	/**
+	 * Finds the tables in the directories, the files are not opened until
+	 * they are probed
+	 *
+	 * @param path
+	 *            Directories separated like in the class path, empty or
+	 *            &lt;empty&gt; for no tables
+	 * @return The number of tables found
+	 */
+	public static int init(String path) {
+		wdlTables.clear();
+		dtzTables.clear();
+		maxPieces = 0;
+		tableCount = 0;
+		directories = new String[0];
+		if(path == null || path.length() == 0 || "<empty>".equals(path)) return 0;
+
+		directories = path.split(File.pathSeparator);
+		for(String directory : directories) {
+			File[] files = new File(directory).listFiles();
+			if(files == null) continue;
+			for(File file : files) {
+				String name = file.getName();
+				if(!name.endsWith(".rtbw")) continue;
+				String code = name.substring(0, name.length() - 5);
+				if(!code.matches("K[QRBNP]*vK[QRBNP]*") || code.length() - 1 > MAX_PIECES) continue;
+
+				Table wdl = new Table(file, code, false);
+				if(wdlTables.containsKey(wdl.key)) continue; // The same table in two directories
+				wdlTables.put(wdl.key, wdl);
+				wdlTables.put(wdl.key2, wdl);
+				tableCount++;
+				maxPieces = Math.max(maxPieces, wdl.pieceCount);
+
+				File dtzFile = findFile(code + ".rtbz");
+				if(dtzFile != null) {
+					Table dtz = new Table(dtzFile, code, true);
+					dtzTables.put(dtz.key, dtz);
+					dtzTables.put(dtz.key2, dtz);
+				}
+			}
+		}
+		return tableCount;
+	} // END init()
+
+	private static File findFile(String name) {
+		for(String directory : directories) {
+			File file = new File(directory, name);
+			if(file.isFile()) return file;
+		}
+		return null;
+	} // END findFile()
+
+	/**
+	 * @return The most pieces (kings included) in any of the tables, 0 if
+	 *         there are no tables
+	 */
+	public static int getMaxPieces() {
+		return maxPieces;
+	} // END getMaxPieces()
+
+	/**
+	 * @return true if the position has few enough pieces and no castling
+	 *         rights, so it can be in the tables
+	 */
+	public static boolean canProbe(Board board) {
+		return maxPieces != 0
+				&& pieceCount(board) <= maxPieces
+				&& board.white_castle == CASTLE_NONE && board.black_castle == CASTLE_NONE;
+	} // END canProbe()
+
+	private static int pieceCount(Board board) {
+		return 2 + board.w_pawns.count + board.w_knights.count + board.w_bishops.count + board.w_rooks.count + board.w_queens.count
+				+ board.b_pawns.count + board.b_knights.count + board.b_bishops.count + board.b_rooks.count + board.b_queens.count;
+	} // END pieceCount()
+
+	/**
+	 * Maps the file of the table and reads where its parts are
+	 *
+	 * @return true if the table can be used
+	 */
+	private static boolean mapped(Table e) {
+		if(e.ready) return e.data != null;
+		e.ready = true;
+		try {
+			TableFile data = new TableFile(e.file);
+			int[] magic = e.dtz ? DTZ_MAGIC : WDL_MAGIC;
+			for(int i = 0; i < 4; i++) {
+				if(data.u8(i) != magic[i]) throw new IOException("Corrupted table in file " + e.file);
+			}
+			e.data = data;
+			setup(e, 4);
+		} catch (IOException ex) {
+			e.data = null;
+		} catch (RuntimeException ex) {
+			e.data = null; // Out of the file, not a table
+		}
+		return e.data != null;
+	} // END mapped()
+
+	/**
+	 * Reads the header of the table: the pieces and groups of every part and
+	 * where their compressed data is
+	 */
+	private static void setup(Table e, long pos) throws IOException {
+		TableFile data = e.data;
+		int flags = data.u8(pos);
+		if(((flags & 2) != 0) != e.hasPawns || ((flags & 1) != 0) != (e.key != e.key2)) {
+			throw new IOException("Table " + e.file + " does not match its name");
+		}
+		pos++;
+
+		int sides = (!e.dtz && e.key != e.key2) ? 2 : 1;
+		int maxFile = e.hasPawns ? 3 : 0;
+		boolean pp = e.hasPawns && e.pawnCount[1] != 0; // Pawns on both sides
+
+		for(int f = 0; f <= maxFile; f++) {
+			for(int i = 0; i < sides; i++) e.items[i][f] = new PairsData();
+
+			int[][] order = {{data.u8(pos) & 0xF, pp ? data.u8(pos + 1) & 0xF : 0xF},
+							 {data.u8(pos) >> 4, pp ? data.u8(pos + 1) >> 4 : 0xF}};
+			pos += pp ? 2 : 1;
+
+			for(int k = 0; k < e.pieceCount; k++, pos++) {
+				for(int i = 0; i < sides; i++) e.items[i][f].pieces[k] = (i != 0) ? data.u8(pos) >> 4 : data.u8(pos) & 0xF;
+			}
+
+			for(int i = 0; i < sides; i++) setGroups(e, e.items[i][f], order[i], f);
+		}
+
+		pos += pos & 1; // Word alignment
+
+		for(int f = 0; f <= maxFile; f++) {
+			for(int i = 0; i < sides; i++) pos = setSizes(data, e.items[i][f], pos);
+		}
+
+		if(e.dtz) pos = setDtzMap(e, pos, maxFile);
+
+		for(int f = 0; f <= maxFile; f++) {
+			for(int i = 0; i < sides; i++) {
+				e.items[i][f].sparseIndex = pos;
+				pos += e.items[i][f].sparseIndexSize*6;
+			}
+		}
+		for(int f = 0; f <= maxFile; f++) {
+			for(int i = 0; i < sides; i++) {
+				e.items[i][f].blockLength = pos;
+				pos += e.items[i][f].blockLengthSize*2L;
+			}
+		}
+		for(int f = 0; f <= maxFile; f++) {
+			for(int i = 0; i < sides; i++) {
+				pos = (pos + 0x3F) & ~0x3FL; // 64 byte alignment
+				e.items[i][f].data = pos;
+				pos += e.items[i][f].numBlocks*e.items[i][f].sizeofBlock;
+			}
+		}
+	} // END setup()
+
+	/**
+	 * Splits the pieces in groups and finds the multiplier of every group's
+	 * index, the groups are encoded in the order given by the table
+	 */
+	private static void setGroups(Table e, PairsData d, int[] order, int f) {
+		int n = 0;
+		int firstLen = e.hasPawns ? 0 : e.hasUniquePieces ? 3 : 2;
+		d.groupLen[n] = 1;
+
+		// Pieces of the same kind are in the same group, for example KRKN gives (3, 1)
+		for(int i = 1; i < e.pieceCount; i++) {
+			if(--firstLen > 0 || d.pieces[i] == d.pieces[i - 1]) d.groupLen[n]++;
+			else d.groupLen[++n] = 1;
+		}
+		d.groupLen[++n] = 0;
+
+		boolean pp = e.hasPawns && e.pawnCount[1] != 0;
+		int next = pp ? 2 : 1;
+		int freeSquares = 64 - d.groupLen[0] - (pp ? d.groupLen[1] : 0);
+		long idx = 1;
+
+		for(int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+			if(k == order[0]) {
+				// Leading pawns or pieces
+				d.groupIdx[0] = idx;
+				idx *= e.hasPawns ? leadPawnsSize[d.groupLen[0]][f] : e.hasUniquePieces ? 31332 : 462;
+			} else if(k == order[1]) {
+				// Remaining pawns
+				d.groupIdx[1] = idx;
+				idx *= binomial[d.groupLen[1]][48 - d.groupLen[0]];
+			} else {
+				// Remaining pieces
+				d.groupIdx[next] = idx;
+				idx *= binomial[d.groupLen[next]][freeSquares];
+				freeSquares -= d.groupLen[next++];
+			}
+		}
+		d.groupIdx[n] = idx;
+	} // END setGroups()
+
+	/**
+	 * Reads the sizes and the symbol tables of a part
+	 *
+	 * @return The position after them
+	 */
+	private static long setSizes(TableFile data, PairsData d, long pos) {
+		d.flags = data.u8(pos++);
+		if((d.flags & FLAG_SINGLE_VALUE) != 0) {
+			d.numBlocks = 0;
+			d.span = 0;
+			d.sparseIndexSize = 0;
+			d.blockLengthSize = 0;
+			d.minSymLen = data.u8(pos++); // The value
+			return pos;
+		}
+
+		int groups = 0;
+		while(d.groupLen[groups] != 0) groups++;
+		long tbSize = d.groupIdx[groups];
+
+		d.sizeofBlock = 1L << data.u8(pos++);
+		d.span = 1L << data.u8(pos++);
+		d.sparseIndexSize = (tbSize + d.span - 1) / d.span;
+		int padding = data.u8(pos++);
+		d.numBlocks = (int)data.u32(pos);
+		pos += 4;
+		d.blockLengthSize = d.numBlocks + padding; // So the sparse index can not point past the end
+		d.maxSymLen = data.u8(pos++);
+		d.minSymLen = data.u8(pos++);
+		d.lowestSym = pos;
+
+		// Canonical Huffman code, longer symbols have lower values, so
+		// base64[] decreases with the length
+		d.base64 = new long[d.maxSymLen - d.minSymLen + 1];
+		for(int i = d.base64.length - 2; i >= 0; i--) {
+			d.base64[i] = (d.base64[i + 1] + data.u16(d.lowestSym + 2*i) - data.u16(d.lowestSym + 2*(i + 1))) / 2;
+		}
+		for(int i = 0; i < d.base64.length; i++) d.base64[i] <<= 64 - i - d.minSymLen;
+		pos += d.base64.length*2;
+
+		d.symlen = new int[data.u16(pos)];
+		pos += 2;
+		d.btree = pos;
+
+		// Recursive pairing, every symbol is a single value or expands to a pair of symbols
+		boolean[] visited = new boolean[d.symlen.length];
+		for(int sym = 0; sym < d.symlen.length; sym++) {
+			if(!visited[sym]) d.symlen[sym] = setSymlen(data, d, sym, visited);
+		}
+		return pos + d.symlen.length*3 + (d.symlen.length & 1);
+	} // END setSizes()
+
+	private static int setSymlen(TableFile data, PairsData d, int sym, boolean[] visited) {
+		visited[sym] = true;
+		int right = btreeRight(data, d, sym);
+		if(right == 0xFFF) return 0;
+		int left = btreeLeft(data, d, sym);
+		if(!visited[left]) d.symlen[left] = setSymlen(data, d, left, visited);
+		if(!visited[right]) d.symlen[right] = setSymlen(data, d, right, visited);
+		return d.symlen[left] + d.symlen[right] + 1;
+	} // END setSymlen()
+
+	private static int btreeLeft(TableFile data, PairsData d, int sym) {
+		long pos = d.btree + 3L*sym;
+		return ((data.u8(pos + 1) & 0xF) << 8) | data.u8(pos);
+	} // END btreeLeft()
+
+	private static int btreeRight(TableFile data, PairsData d, int sym) {
+		long pos = d.btree + 3L*sym;
+		return (data.u8(pos + 2) << 4) | (data.u8(pos + 1) >> 4);
+	} // END btreeRight()
+
+	/**
+	 * Reads where the value maps of a distance table are
+	 */
+	private static long setDtzMap(Table e, long pos, int maxFile) {
+		TableFile data = e.data;
+		e.map = pos;
+		for(int f = 0; f <= maxFile; f++) {
+			PairsData d = e.get(0, f);
+			if((d.flags & FLAG_MAPPED) == 0) continue;
+			if((d.flags & FLAG_WIDE) != 0) {
+				pos += pos & 1;
+				for(int i = 0; i < 4; i++) {
+					d.mapIdx[i] = (int)((pos - e.map) / 2 + 1);
+					pos += 2L*data.u16(pos) + 2;
+				}
+			} else {
+				for(int i = 0; i < 4; i++) {
+					d.mapIdx[i] = (int)(pos - e.map + 1);
+					pos += data.u8(pos) + 1;
+				}
+			}
+		}
+		return pos + (pos & 1);
+	} // END setDtzMap()
+
+	/**
+	 * Finds the value with the index in the compressed blocks
+	 */
+	static int decompressPairs(TableFile data, PairsData d, long idx) {
+		if((d.flags & FLAG_SINGLE_VALUE) != 0) return d.minSymLen;
+
+		// The sparse index points to a block and offset close to the index
+		long k = idx / d.span;
+		long block = data.u32(d.sparseIndex + 6*k);
+		int offset = data.u16(d.sparseIndex + 6*k + 4);
+		offset += (int)(idx % d.span - d.span / 2);
+
+		while(offset < 0) offset += data.u16(d.blockLength + 2*(--block)) + 1;
+		while(offset > data.u16(d.blockLength + 2*block)) offset -= data.u16(d.blockLength + 2*(block++)) + 1;
+
+		// Read symbols from the start of the block until the one holding the offset
+		long ptr = d.data + block*d.sizeofBlock;
+		long buf64 = data.u64BigEndian(ptr);
+		ptr += 8;
+		int buf64Size = 64;
+		int sym;
+
+		while(true) {
+			int len = 0;
+			while(Long.compareUnsigned(buf64, d.base64[len]) < 0) len++;
+
+			sym = (int)((buf64 - d.base64[len]) >>> (64 - len - d.minSymLen));
+			sym = (sym + data.u16(d.lowestSym + 2*len)) & 0xFFFF;
+
+			if(offset < d.symlen[sym] + 1) break;
+
+			offset -= d.symlen[sym] + 1;
+			len += d.minSymLen;
+			buf64 <<= len;
+			buf64Size -= len;
+			if(buf64Size <= 32) {
+				buf64Size += 32;
+				buf64 |= data.u32BigEndian(ptr) << (64 - buf64Size);
+				ptr += 4;
+			}
+		}
+
+		// Expand the symbol until the single value at the offset
+		while(d.symlen[sym] != 0) {
+			int left = btreeLeft(data, d, sym);
+			if(offset < d.symlen[left] + 1) {
+				sym = left;
+			} else {
+				offset -= d.symlen[left] + 1;
+				sym = btreeRight(data, d, sym);
+			}
+		}
+		return btreeLeft(data, d, sym);
+	} // END decompressPairs()
+
+	/**
+	 * Turns a stored value into the result, for distance tables the number
+	 * of plies to a capture or pawn move
+	 */
+	private static int mapScore(Table e, int f, int value, int wdl) {
+		if(!e.dtz) return value - 2;
+
+		final int[] wdlMap = {1, 3, 0, 2, 0};
+		PairsData d = e.get(0, f);
+		if((d.flags & FLAG_MAPPED) != 0) {
+			if((d.flags & FLAG_WIDE) != 0) value = e.data.u16(e.map + 2L*(d.mapIdx[wdlMap[wdl + 2]] + value));
+			else value = e.data.u8(e.map + d.mapIdx[wdlMap[wdl + 2]] + value);
+		}
+
+		// The value is in moves unless the flags say plies
+		if((wdl == WDL_WIN && (d.flags & FLAG_WIN_PLIES) == 0)
+				|| (wdl == WDL_LOSS && (d.flags & FLAG_LOSS_PLIES) == 0)
+				|| wdl == WDL_CURSED_WIN || wdl == WDL_BLESSED_LOSS) {
+			value *= 2;
+		}
+		return value + 1;
+	} // END mapScore()
+
+	/**
+	 * Looks up the position in the table of its material
+	 *
+	 * @param wdl
+	 *            For distance tables the result of the position
+	 */
+	private static int probeTable(Board board, boolean dtz, int wdl) {
+		if(pieceCount(board) == 2) return WDL_DRAW; // Only kings
+
+		int materialKey = Endgame.materialKey(board);
+		Table e = (dtz ? dtzTables : wdlTables).get(materialKey);
+		if(e == null || !mapped(e)) {
+			probeState = FAIL;
+			return 0;
+		}
+		try {
+			return doProbeTable(board, e, materialKey, wdl);
+		} catch (RuntimeException ex) {
+			probeState = FAIL; // Out of the file, a broken table
+			return 0;
+		}
+	} // END probeTable()
+
+	private static int doProbeTable(Board board, Table e, int materialKey, int wdl) {
+		int[] squares = new int[MAX_PIECES];
+		int[] pieces = new int[MAX_PIECES];
+		int size = 0;
+		int leadPawnsCount = 0;
+		int tbFile = 0;
+		int sideToMove = (board.toMove == WHITE) ? 0 : 1;
+
+		// The tables have the stronger side (the first in the name) as white,
+		// and symmetric tables only have white to move, otherwise the colors
+		// are switched and the board is flipped
+		boolean symmetricBlackToMove = (e.key == e.key2 && sideToMove == 1);
+		boolean blackStronger = (materialKey != e.key);
+		boolean flip = symmetricBlackToMove || blackStronger;
+		int flipColor = flip ? 8 : 0;
+		int flipSquares = flip ? 56 : 0;
+		int stm = (flip ? 1 : 0) ^ sideToMove;
+
+		// Tables with pawns have a part for every file of the leading pawn
+		int leadPawn = 0;
+		if(e.hasPawns) {
+			int pawn = e.get(0, 0).pieces[0] ^ flipColor;
+			leadPawn = ((pawn & 8) != 0) ? B_PAWN : W_PAWN;
+			for(int s = 0; s < 64; s++) {
+				if(board.boardArray[boardIndex(s)] == leadPawn) squares[size++] = s ^ flipSquares;
+			}
+			leadPawnsCount = size;
+
+			int lead = 0;
+			for(int i = 1; i < leadPawnsCount; i++) {
+				if(mapPawns[squares[i]] > mapPawns[squares[lead]]) lead = i;
+			}
+			swap(squares, 0, lead);
+			tbFile = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+		}
+
+		// Distance tables only have one side to move
+		if(e.dtz && (e.get(stm, tbFile).flags & FLAG_STM) != stm && !(e.key == e.key2 && !e.hasPawns)) {
+			probeState = CHANGE_STM;
+			return 0;
+		}
+
+		for(int s = 0; s < 64; s++) {
+			int piece = board.boardArray[boardIndex(s)];
+			if(piece == EMPTY_SQUARE || (e.hasPawns && piece == leadPawn)) continue;
+			squares[size] = s ^ flipSquares;
+			pieces[size++] = (TABLE_PIECE[Math.abs(piece)] | (piece < 0 ? 8 : 0)) ^ flipColor;
+		}
+
+		PairsData d = e.get(stm, tbFile);
+
+		// Put the pieces in the order of the table
+		for(int i = leadPawnsCount; i < size - 1; i++) {
+			for(int j = i + 1; j < size; j++) {
+				if(d.pieces[i] == pieces[j]) {
+					swap(pieces, i, j);
+					swap(squares, i, j);
+					break;
+				}
+			}
+		}
+
+		return mapScore(e, tbFile, decompressPairs(e.data, d, encode(e, d, squares, size, leadPawnsCount)), wdl);
+	} // END doProbeTable()
+
+	/**
+	 * Turns the squares of the pieces into the index in the table part
+	 *
+	 * @param squares
+	 *            The squares (0 to 63) of the pieces in the order of the
+	 *            part, with the leading pawns first, changed here
+	 * @param size
+	 *            Number of pieces
+	 * @param leadPawnsCount
+	 *            Number of leading pawns
+	 * @return The index
+	 */
+	static long encode(Table e, PairsData d, int[] squares, int size, int leadPawnsCount) {
+		// The leading piece goes to the a-d files
+		if((squares[0] & 7) > 3) {
+			for(int i = 0; i < size; i++) squares[i] ^= 7;
+		}
+
+		long idx;
+		if(e.hasPawns) {
+			idx = leadPawnIdx[leadPawnsCount][squares[0]];
+			for(int i = 2; i < leadPawnsCount; i++) {
+				// Insertion sort of the other leading pawns by mapPawns[]
+				for(int j = i; j > 1 && mapPawns[squares[j]] < mapPawns[squares[j - 1]]; j--) swap(squares, j, j - 1);
+			}
+			for(int i = 1; i < leadPawnsCount; i++) idx += binomial[i][mapPawns[squares[i]]];
+		} else {
+			// Without pawns the leading piece also goes to ranks 1-4 and below the a1-h8 diagonal
+			if((squares[0] >> 3) > 3) {
+				for(int i = 0; i < size; i++) squares[i] ^= 56;
+			}
+			for(int i = 0; i < d.groupLen[0]; i++) {
+				if(offA1H8(squares[i]) == 0) continue;
+				if(offA1H8(squares[i]) > 0) {
+					for(int j = i; j < size; j++) squares[j] = ((squares[j] >> 3) | (squares[j] << 3)) & 63;
+				}
+				break;
+			}
+
+			if(e.hasUniquePieces) {
+				// The first three pieces together
+				int adjust1 = (squares[1] > squares[0]) ? 1 : 0;
+				int adjust2 = ((squares[2] > squares[0]) ? 1 : 0) + ((squares[2] > squares[1]) ? 1 : 0);
+
+				if(offA1H8(squares[0]) != 0) {
+					idx = (mapA1D1D4[squares[0]]*63 + (squares[1] - adjust1))*62 + squares[2] - adjust2;
+				} else if(offA1H8(squares[1]) != 0) {
+					idx = (6*63 + (squares[0] >> 3)*28 + mapB1H1H7[squares[1]])*62 + squares[2] - adjust2;
+				} else if(offA1H8(squares[2]) != 0) {
+					idx = 6*63*62 + 4*28*62 + (squares[0] >> 3)*7*28 + ((squares[1] >> 3) - adjust1)*28 + mapB1H1H7[squares[2]];
+				} else {
+					idx = 6*63*62 + 4*28*62 + 4*7*28 + (squares[0] >> 3)*7*6 + ((squares[1] >> 3) - adjust1)*6 + ((squares[2] >> 3) - adjust2);
+				}
+			} else {
+				// Two kings and pairs of pieces like in KRRvK
+				idx = mapKK[mapA1D1D4[squares[0]]][squares[1]];
+			}
+		}
+
+		// The remaining groups, the squares of every group in ascending order
+		idx *= d.groupIdx[0];
+		int groupStart = d.groupLen[0];
+		boolean remainingPawns = e.hasPawns && e.pawnCount[1] != 0;
+		for(int next = 1; d.groupLen[next] != 0; next++) {
+			int groupEnd = groupStart + d.groupLen[next];
+			for(int i = groupStart + 1; i < groupEnd; i++) {
+				for(int j = i; j > groupStart && squares[j] < squares[j - 1]; j--) swap(squares, j, j - 1);
+			}
+
+			long n = 0;
+			for(int i = 0; i < d.groupLen[next]; i++) {
+				// Squares taken by the earlier groups are skipped
+				int adjust = 0;
+				for(int j = 0; j < groupStart; j++) {
+					if(squares[groupStart + i] > squares[j]) adjust++;
+				}
+				n += binomial[i + 1][squares[groupStart + i] - adjust - (remainingPawns ? 8 : 0)];
+			}
+			remainingPawns = false;
+			idx += n*d.groupIdx[next];
+			groupStart = groupEnd;
+		}
+
+		return idx;
+	} // END encode()
+
+	private static int boardIndex(int s) {
+		return (s & 7) + ((s >> 3) << 4);
+	} // END boardIndex()
+
+	private static void swap(int[] array, int i, int j) {
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	} // END swap()
+
+	/**
+	 * Plays the captures (and pawn moves if checkZeroing) before looking in
+	 * the table, since the tables do not know about en passant and the value
+	 * stored for a position where a capture is best may be wrong
+	 */
+	private static int search(Board board, boolean checkZeroing, int ply) {
+		int bestValue = WDL_LOSS;
+		int value;
+		int totalCount = board.gen_allLegalMoves(moves[ply], 0);
+		int moveCount = 0;
+
+		for(int i = 0; i < totalCount; i++) {
+			int move = moves[ply][i].move;
+			if(Move.capture(move) == 0 && (!checkZeroing || Math.abs(Move.pieceMoving(move)) != W_PAWN)) continue;
+
+			moveCount++;
+			board.makeMove(move);
+			value = -search(board, false, ply + 1);
+			board.unmakeMove(move);
+
+			if(probeState == FAIL) return WDL_DRAW;
+
+			if(value > bestValue) {
+				bestValue = value;
+				if(value >= WDL_WIN) {
+					probeState = ZEROING_BEST_MOVE; // A winning capture or pawn move
+					return value;
+				}
+			}
+		}
+
+		// If all moves were searched the table is not needed (and could be wrong)
+		boolean noMoreMoves = (moveCount != 0 && moveCount == totalCount);
+		if(noMoreMoves) {
+			value = bestValue;
+		} else {
+			value = probeTable(board, false, WDL_DRAW);
+			if(probeState == FAIL) return WDL_DRAW;
+		}
+
+		// The table has a "don't care" value if a capture wins
+		if(bestValue >= value) {
+			probeState = (bestValue > WDL_DRAW || noMoreMoves) ? ZEROING_BEST_MOVE : OK;
+			return bestValue;
+		}
+		probeState = OK;
+		return value;
+	} // END search()
+
+	/**
+	 * Probes the win/draw/loss tables
+	 *
+	 * @param board
+	 *            The position, which must have no castling rights
+	 * @return The result for the side to move (WDL_LOSS to WDL_WIN)
+	 */
+	public static int probeWdl(Board board) {
+		probeState = OK;
+		return search(board, false, 0);
+	} // END probeWdl()
+
+	/**
+	 * @return true if the last probe found the position
+	 */
+	public static boolean lastProbeOk() {
+		return probeState != FAIL;
+	} // END lastProbeOk()
+
+	private static int dtzBeforeZeroing(int wdl) {
+		switch(wdl) {
+		case WDL_WIN: return 1;
+		case WDL_CURSED_WIN: return 101;
+		case WDL_BLESSED_LOSS: return -101;
+		case WDL_LOSS: return -1;
+		default: return 0;
+		}
+	} // END dtzBeforeZeroing()
+
+	/**
+	 * Probes the distance tables
+	 *
+	 * @return Plies to the next capture or pawn move in a won position
+	 *         (negative if lost), 0 for a draw, with 100 added for wins
+	 *         and losses that are draws by the fifty move rule
+	 */
+	private static int probeDtz(Board board, int ply) {
+		probeState = OK;
+		int wdl = search(board, true, ply);
+		if(probeState == FAIL || wdl == WDL_DRAW) return 0; // The tables have no draws
+
+		if(probeState == ZEROING_BEST_MOVE) return dtzBeforeZeroing(wdl);
+
+		int dtz = probeTable(board, true, wdl);
+		if(probeState == FAIL) return 0;
+		if(probeState != CHANGE_STM) {
+			return (dtz + ((wdl == WDL_BLESSED_LOSS || wdl == WDL_CURSED_WIN) ? 100 : 0))*Integer.signum(wdl);
+		}
+
+		// The table has the other side to move, so find the best move
+		int minDtz = 0xFFFF;
+		int count = board.gen_allLegalMoves(moves[ply], 0);
+		for(int i = 0; i < count; i++) {
+			int move = moves[ply][i].move;
+			boolean zeroing = Move.capture(move) != 0 || Math.abs(Move.pieceMoving(move)) == W_PAWN;
+
+			board.makeMove(move);
+			dtz = zeroing ? -dtzBeforeZeroing(search(board, false, ply + 1)) : -probeDtz(board, ply + 1);
+
+			if(dtz == 1 && board.isInCheck() && board.gen_allLegalMoves(moves[ply + 1], 0) == 0) minDtz = 1; // Mate
+			if(!zeroing) dtz += Integer.signum(dtz);
+			if(dtz < minDtz && Integer.signum(dtz) == Integer.signum(wdl)) minDtz = dtz;
+			board.unmakeMove(move);
+
+			if(probeState == FAIL) return 0;
+		}
+		return (minDtz == 0xFFFF) ? -1 : minDtz; // No legal moves is mate
+	} // END probeDtz()
+
+	/**
+	 * Ranks the root moves with the distance tables (or the win/draw/loss
+	 * tables if there are no distance tables) and moves the best ones to
+	 * the front
+	 *
+	 * @param board
+	 *            The root position
+	 * @param rootMoves
+	 *            The legal moves
+	 * @param count
+	 *            Number of moves
+	 * @return The number of moves keeping the best result, or 0 if the
+	 *         position is not in the tables
+	 */
+	public static int probeRoot(Board board, Move[] rootMoves, int count) {
+		if(!canProbe(board)) return 0;
+
+		int[] ranks = new int[count];
+		rootDtz = rankRootDtz(board, rootMoves, count, ranks);
+		if(!rootDtz && !rankRootWdl(board, rootMoves, count, ranks)) return 0;
+
+		int bestRank = Integer.MIN_VALUE;
+		for(int i = 0; i < count; i++) bestRank = Math.max(bestRank, ranks[i]);
+
+		int kept = 0;
+		for(int i = 0; i < count; i++) {
+			if(ranks[i] == bestRank) {
+				Move temp = rootMoves[kept];
+				rootMoves[kept] = rootMoves[i];
+				rootMoves[i] = temp;
+				ranks[i] = ranks[kept];
+				kept++;
+			}
+		}
+		return kept;
+	} // END probeRoot()
+
+	/**
+	 * @return true if the last root probe used the distance tables, so the
+	 *         moves left all keep the result and need not be probed in the
+	 *         search
+	 */
+	public static boolean isRootDtz() {
+		return rootDtz;
+	} // END isRootDtz()
+
+	private static boolean rankRootDtz(Board board, Move[] rootMoves, int count, int[] ranks) {
+		int fifty = board.movesFifty;
+
+		for(int i = 0; i < count; i++) {
+			int move = rootMoves[i].move;
+			board.makeMove(move);
+
+			int dtz;
+			if(board.movesFifty == 0) {
+				// A capture or pawn move, only the result matters
+				dtz = dtzBeforeZeroing(-probeWdl(board));
+			} else {
+				dtz = -probeDtz(board, 0);
+				dtz = dtz > 0 ? dtz + 1 : dtz < 0 ? dtz - 1 : dtz;
+			}
+
+			if(board.isInCheck() && dtz == 2 && board.gen_allLegalMoves(moves[0], 0) == 0) dtz = 1; // Mate
+
+			board.unmakeMove(move);
+			if(probeState == FAIL) return false;
+
+			// Wins that can be reached within the fifty moves are equal, losses that
+			// can not be delayed past them are equal
+			ranks[i] = dtz > 0 ? (dtz + fifty <= 99 ? 1000 : 1000 - (dtz + fifty))
+					: dtz < 0 ? (-dtz*2 + fifty < 100 ? -1000 : -1000 + (-dtz + fifty))
+					: 0;
+		}
+		return true;
+	} // END rankRootDtz()
+
+	private static boolean rankRootWdl(Board board, Move[] rootMoves, int count, int[] ranks) {
+		for(int i = 0; i < count; i++) {
+			int move = rootMoves[i].move;
+			board.makeMove(move);
+			int wdl = -probeWdl(board);
+			board.unmakeMove(move);
+			if(probeState == FAIL) return false;
+			ranks[i] = WDL_TO_RANK[wdl + 2];
+		}
+		return true;
+	} // END rankRootWdl()
+
+	/**
+	 * Turns a probe result into a search score, cursed wins and blessed
+	 * losses are close to a draw
+	 *
+	 * @param wdl
+	 *            The result for the side to move
+	 * @param ply
+	 *            The ply of the position, so shorter wins score higher
+	 * @return The score
+	 */
+	public static int wdlToScore(int wdl, int ply) {
+		if(wdl < WDL_BLESSED_LOSS) return -TB_WIN + ply;
+		if(wdl > WDL_CURSED_WIN) return TB_WIN - ply;
+		return 2*wdl;
+	} // END wdlToScore()
+}
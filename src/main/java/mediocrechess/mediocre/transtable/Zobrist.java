@@ -18,6 +18,10 @@ public class Zobrist implements Definitions {
 	public static final long[] B_CASTLING_RIGHTS;
 	public static final long[] EN_PASSANT;
 	public static final long SIDE;
+	public static final long POLYGLOT_TURN; // Xored in when white is to move
+
+	// The polyglot kind of piece for every piece, indexed by piece+7
+	private static final int[] POLYGLOT_PIECE = { -1, 0, 2, 4, 6, 8, 10, -1, 11, 9, 7, 5, 3, 1 };
 	private static long polyglotRandoms[] =  {
 		 0x9D39247E33776D41L, 0x2AF7398005AAA5C7L, 0x44DB015024623547L, 0x9C15F73E62A76AE2L,
 		   0x75834465489C0C89L, 0x3290AC3A203001BFL, 0x0FBBAD1F61042279L, 0xE83A908FF2FB60CAL,
@@ -300,96 +304,92 @@ public class Zobrist implements Definitions {
 		
 		/* Xor in the pieces */
 		for(int index = 0; index < 120; index++) {
-			if((index & 0x88) == 0) {
-				int piece = board.boardArray[index];
-				
-				/* Convert the piece to the polyglot representation */
-				int kindOfPiece;
-				switch(piece) {
-				case 1:	kindOfPiece = 11; break;
-				case 2:	kindOfPiece = 9; break;
-				case 3:	kindOfPiece = 7; break;
-				case 4:	kindOfPiece = 5; break;
-				case 5: kindOfPiece = 3; break;
-				case 6:	kindOfPiece = 1; break;
-				case -1: kindOfPiece = 10; break;
-				case -2: kindOfPiece = 8; break;
-				case -3: kindOfPiece = 6; break;
-				case -4: kindOfPiece = 4; break;
-				case -5: kindOfPiece = 2; break;
-				case -6: kindOfPiece = 0; break;
-				default: kindOfPiece = -1; break;
-				}
-				
-				/* the offset is 64*kindofpiece+8*rank+file */
-				if(kindOfPiece != -1)
-					polyglotKey ^= polyglotRandoms[64*kindOfPiece+8*Board.rank(index)+Board.file(index)];
+			if((index & 0x88) == 0 && board.boardArray[index] != EMPTY_SQUARE) {
+				polyglotKey ^= getPolyglotPieceKey(board.boardArray[index], index);
 			}
 		}
 		
 		/* Xor in the castling rights, ones for each right */
-		if(board.white_castle == 1) polyglotKey ^= polyglotRandoms[768+0];
-		else if(board.white_castle == 2) polyglotKey ^= polyglotRandoms[768+1];
-		else if(board.white_castle == 3) {
-			polyglotKey ^= polyglotRandoms[768+0];
-			polyglotKey ^= polyglotRandoms[768+1];
-		}
-		
-		if(board.black_castle == 1) polyglotKey ^= polyglotRandoms[768+2];
-		else if(board.black_castle == 2) polyglotKey ^= polyglotRandoms[768+3];
-		else if(board.black_castle == 3) {
-			polyglotKey ^= polyglotRandoms[768+2];
-			polyglotKey ^= polyglotRandoms[768+3];
-		}
+		polyglotKey ^= getPolyglotCastlingKey(board.white_castle, board.black_castle);
 		
 		/* Xor in the en passant */
-		if(board.enPassant != -1) {
-			/* Make sure xor is only done once, even if there are two potential pawns
-			 * doing the en passant capture */
-			boolean didXor = false;
-			/* White to move */
-			if(board.toMove == 1) {
-				/* If the square diagonally down is on the board */
-				if(((board.enPassant - 15) & 0x88) == 0) {
-					/* If the square contains a white pawn xor */
-					if(board.boardArray[board.enPassant-15] == W_PAWN){
-						didXor = true;
-						polyglotKey ^= polyglotRandoms[772+Board.file(board.enPassant)];
-					}
-					/* Check the other diagonally down as well */
-				}
-				if(((board.enPassant - 17) & 0x88) == 0 && !didXor) {
-					if(board.boardArray[board.enPassant-17] == W_PAWN){
-						polyglotKey ^= polyglotRandoms[772+Board.file(board.enPassant)];
-					}
-				}
-			} else {
-				if(((board.enPassant + 15) & 0x88) == 0) {
-					if(board.boardArray[board.enPassant+15] == B_PAWN){
-						didXor = true;
-						polyglotKey ^= polyglotRandoms[772+Board.file(board.enPassant)];
-					}
-				}
-				if(((board.enPassant + 17) & 0x88) == 0 && !didXor) {
-					if(board.boardArray[board.enPassant+17] == B_PAWN){
-						polyglotKey ^= polyglotRandoms[772+Board.file(board.enPassant)];
-					}
-				}
-			}
-		}
+		polyglotKey ^= getPolyglotEnPassantKey(board);
 		
 		/* Xor in the turn to move (only if white's turn to move */
 		if(board.toMove == 1) {
-			polyglotKey ^= polyglotRandoms[780];
+			polyglotKey ^= POLYGLOT_TURN;
 		}
 		
 		return polyglotKey;
 	}
+	// END getPolyglotZobristKey()
+	
+	/**
+	 * Returns the polyglot random for a piece on a square
+	 * 
+	 * @param piece The piece (not empty)
+	 * @param index The square it is on
+	 * @return The random to xor in
+	 */
+	public static long getPolyglotPieceKey(int piece, int index) {
+		/* the offset is 64*kindofpiece+8*rank+file */
+		return polyglotRandoms[64*POLYGLOT_PIECE[piece+7]+8*Board.rank(index)+Board.file(index)];
+	}
+	// END getPolyglotPieceKey()
+	
+	/**
+	 * Returns the polyglot randoms for the castling rights xored together
+	 * 
+	 * @param white_castle White's castling rights (CASTLE_NONE etc.)
+	 * @param black_castle Black's castling rights
+	 * @return The randoms to xor in
+	 */
+	public static long getPolyglotCastlingKey(int white_castle, int black_castle) {
+		long castlingKey = 0L;
+		
+		if((white_castle & CASTLE_SHORT) != 0) castlingKey ^= polyglotRandoms[768+0];
+		if((white_castle & CASTLE_LONG) != 0) castlingKey ^= polyglotRandoms[768+1];
+		if((black_castle & CASTLE_SHORT) != 0) castlingKey ^= polyglotRandoms[768+2];
+		if((black_castle & CASTLE_LONG) != 0) castlingKey ^= polyglotRandoms[768+3];
+		
+		return castlingKey;
+	}
+	// END getPolyglotCastlingKey()
+	
+	/**
+	 * Returns the polyglot random for the en passant square, polyglot only
+	 * counts it if a pawn of the side to move can actually capture
+	 * 
+	 * @param board The board
+	 * @return The random to xor in, 0 if there is none
+	 */
+	public static long getPolyglotEnPassantKey(Board board) {
+		if(board.enPassant == -1) return 0L;
+		
+		/* White to move, look for white pawns diagonally down from the square */
+		if(board.toMove == 1) {
+			if((((board.enPassant - 15) & 0x88) == 0 && board.boardArray[board.enPassant-15] == W_PAWN) ||
+					(((board.enPassant - 17) & 0x88) == 0 && board.boardArray[board.enPassant-17] == W_PAWN)) {
+				return polyglotRandoms[772+Board.file(board.enPassant)];
+			}
+		} else {
+			if((((board.enPassant + 15) & 0x88) == 0 && board.boardArray[board.enPassant+15] == B_PAWN) ||
+					(((board.enPassant + 17) & 0x88) == 0 && board.boardArray[board.enPassant+17] == B_PAWN)) {
+				return polyglotRandoms[772+Board.file(board.enPassant)];
+			}
+		}
+		
+		return 0L;
+	}
+	// END getPolyglotEnPassantKey()
+	
 	/**
 	 * The following lines creates the random numbers used for zobrist key
 	 * creation
 	 */
 	static {
+		POLYGLOT_TURN = polyglotRandoms[780];
+
 		Random rnd = new Random(17L);
 		SIDE = Math.abs(rnd.nextLong());
 
@@ -0,0 +1,293 @@
+package mediocrechess.mediocre.tuning;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.EvalParameters;
+
+/**
+ * class Tuner
+ *
+ * Tunes the evaluation parameters (see EvalParameters) with the Texel
+ * method: the static evaluation of quiet positions from games is turned into
+ * a win probability, and the parameters are changed one step at a time as
+ * long as the mean squared difference to the game results gets smaller.
+ *
+ * Usage: Tuner positions output [threads] [start parameters]
+ *
+ * Every line of the positions file has a FEN and the result of the game,
+ * either as 1-0, 0-1 and 1/2-1/2 (like "c9" in EPD files) or as [1.0],
+ * [0.0] and [0.5]. The parameters are written to the output file after
+ * every pass.
+ *
+ * The error is computed in parallel by splitting the positions with
+ * fork/join. Evaluation keeps its work in static fields, so every thread
+ * gets a TunerWorker in its own class loader, with its own copy of the
+ * engine classes.
+ */
+public class Tuner {
+	private static final int CHUNK = 4096; // Positions evaluated by one task
+
+	private static byte[] positions; // Board.BINARY_SIZE bytes for every position
+	private static byte[] results; // 0 loss, 1 draw, 2 win for white
+	private static int count;
+
+	private static ForkJoinPool pool;
+	private static volatile int[] parameters; // The parameters the workers should use
+	private static volatile int version; // Changed every time the parameters change
+	private static ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+
+	/**
+	 * A TunerWorker in its own class loader
+	 */
+	private static class Worker {
+		Object worker;
+		Method setParameters;
+		Method error;
+		int version = -1; // The parameters the worker has
+
+		Worker() throws Exception {
+			String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+			URL[] urls = new URL[entries.length];
+			for(int i = 0; i < entries.length; i++) urls[i] = new File(entries[i]).toURI().toURL();
+
+			// Skip the application class loader so the engine classes are loaded again
+			ClassLoader loader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+			Class<?> workerClass = loader.loadClass(TunerWorker.class.getName());
+			worker = workerClass.getDeclaredConstructor().newInstance();
+			setParameters = workerClass.getMethod("setParameters", int[].class);
+			error = workerClass.getMethod("error", byte[].class, byte[].class, int.class, int.class, double.class);
+		}
+
+		double error(int from, int to, double k) throws Exception {
+			if(version != Tuner.version) {
+				version = Tuner.version;
+				setParameters.invoke(worker, (Object)parameters);
+			}
+			return (Double)error.invoke(worker, positions, results, from, to, k);
+		}
+	}
+
+	/**
+	 * Sums the errors of a range of positions, splitting it in two until it
+	 * is small enough
+	 */
+	private static class ErrorTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+		private double k;
+
+		ErrorTask(int from, int to, double k) {
+			this.from = from;
+			this.to = to;
+			this.k = k;
+		}
+
+		protected Double compute() {
+			if(to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				ErrorTask first = new ErrorTask(from, middle, k);
+				first.fork();
+				double second = new ErrorTask(middle, to, k).compute();
+				return first.join() + second;
+			}
+
+			try {
+				Worker worker = workers.get();
+				if(worker == null) {
+					worker = new Worker();
+					workers.set(worker);
+				}
+				return worker.error(from, to, k);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e.getCause());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: Tuner positions output [threads] [start parameters]");
+			return;
+		}
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		if(args.length > 3) EvalParameters.load(args[3]);
+
+		readPositions(args[0]);
+		System.out.println("Read " + count + " positions");
+
+		pool = new ForkJoinPool(threads);
+		setParameters(EvalParameters.getVector());
+
+		long start = System.currentTimeMillis();
+		double k = findK();
+		System.out.println("K = " + k + " (" + (System.currentTimeMillis() - start) + " ms)");
+
+		tune(k, args[1]);
+		pool.shutdown();
+	} // END main()
+
+	/**
+	 * The win probability for white with the evaluation
+	 *
+	 * @param eval
+	 *            Evaluation from white's view
+	 * @param k
+	 *            Scaling of the evaluation
+	 * @return Probability from 0 to 1
+	 */
+	public static double winProbability(int eval, double k) {
+		return 1.0 / (1.0 + Math.pow(10.0, -k*eval/400.0));
+	} // END winProbability()
+
+	/**
+	 * Reads the positions and results into the binary arrays
+	 */
+	private static void readPositions(String path) throws IOException {
+		ByteArrayOutputStream positionBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
+		Board board = new Board();
+		byte[] record = new byte[Board.BINARY_SIZE];
+		int skipped = 0;
+
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				int result = parseResult(line);
+				if(fields.length < 4 || result == -1) {
+					skipped++;
+					continue;
+				}
+
+				// The move counters are not needed and may be missing
+				try {
+					board.inputFen(fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3] + " 0 1");
+				} catch (RuntimeException e) {
+					skipped++;
+					continue;
+				}
+				board.getBinary(record, 0);
+				positionBytes.write(record);
+				resultBytes.write(result);
+			}
+		} finally {
+			reader.close();
+		}
+
+		positions = positionBytes.toByteArray();
+		results = resultBytes.toByteArray();
+		count = results.length;
+		if(skipped != 0) System.out.println("Skipped " + skipped + " lines without a position or result");
+	} // END readPositions()
+
+	/**
+	 * @return 2 for a white win, 1 for a draw, 0 for a black win and -1 if
+	 *         the line has no result
+	 */
+	private static int parseResult(String line) {
+		if(line.contains("1/2-1/2") || line.contains("[0.5]")) return 1;
+		if(line.contains("1-0") || line.contains("[1.0]")) return 2;
+		if(line.contains("0-1") || line.contains("[0.0]")) return 0;
+		return -1;
+	} // END parseResult()
+
+	private static void setParameters(int[] vector) {
+		parameters = vector.clone();
+		version++;
+	} // END setParameters()
+
+	/**
+	 * @return The mean squared error of all positions with the current
+	 *         parameters
+	 */
+	private static double error(double k) {
+		return pool.invoke(new ErrorTask(0, count, k)) / count;
+	} // END error()
+
+	/**
+	 * Finds the scaling that fits the current evaluation best, with a golden
+	 * section search
+	 */
+	private static double findK() {
+		final double ratio = (Math.sqrt(5) - 1) / 2;
+		double low = 0.0;
+		double high = 3.0;
+		double first = high - ratio*(high - low);
+		double second = low + ratio*(high - low);
+		double firstError = error(first);
+		double secondError = error(second);
+
+		while(high - low > 0.001) {
+			if(firstError < secondError) {
+				high = second;
+				second = first;
+				secondError = firstError;
+				first = high - ratio*(high - low);
+				firstError = error(first);
+			} else {
+				low = first;
+				first = second;
+				firstError = secondError;
+				second = low + ratio*(high - low);
+				secondError = error(second);
+			}
+		}
+		return (low + high) / 2;
+	} // END findK()
+
+	/**
+	 * Tries every parameter one step up and down and keeps the change if
+	 * the error gets smaller, until a whole pass gives nothing
+	 */
+	private static void tune(double k, String output) throws IOException {
+		int[] vector = EvalParameters.getVector();
+		String[] names = EvalParameters.getVectorNames();
+		double bestError = error(k);
+		System.out.println("Start error " + bestError);
+
+		boolean improved = true;
+		for(int pass = 1; improved; pass++) {
+			improved = false;
+			long start = System.currentTimeMillis();
+			int changed = 0;
+
+			for(int i = 0; i < vector.length; i++) {
+				int original = vector[i];
+				for(int step : new int[] {1, -1}) {
+					vector[i] = original + step;
+					setParameters(vector);
+					double newError = error(k);
+					if(newError < bestError) {
+						bestError = newError;
+						improved = true;
+						changed++;
+						System.out.println(names[i] + " " + original + " -> " + vector[i] + ", error " + bestError);
+						break;
+					}
+					vector[i] = original;
+				}
+			}
+
+			setParameters(vector);
+			EvalParameters.setVector(vector);
+			EvalParameters.save(output);
+			System.out.println("Pass " + pass + ": error " + bestError + ", " + changed + " changed ("
+					+ (System.currentTimeMillis() - start) / 1000 + " s)");
+		}
+	} // END tune()
+}
@@ -0,0 +1,68 @@
+package mediocrechess.mediocre.tuning;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.EvalParameters;
+import mediocrechess.mediocre.board.Evaluation;
+import mediocrechess.mediocre.main.Settings;
+import mediocrechess.mediocre.transtable.PawnTable;
+
+/**
+ * class TunerWorker
+ *
+ * Computes the evaluation error for a part of the tuning positions. Every
+ * worker is loaded in its own class loader by Tuner, so it has its own copy
+ * of Evaluation and the hash tables and can run next to the other workers.
+ * Only the pawn hash is of any use here, so the settings are created with
+ * the smallest other tables and no book.
+ *
+ * Only arrays and primitives go in and out since the classes of the worker
+ * are not the same as the Tuner's.
+ */
+public class TunerWorker {
+	private static final int PAWN_HASH_SIZE = 4; // Mb for every worker
+
+	private Board board;
+	private PawnTable pawnHash;
+
+	public TunerWorker() {
+		pawnHash = Settings.getEvaluationInstance(PAWN_HASH_SIZE).getPawnHash();
+		board = new Board();
+	} // END TunerWorker()
+
+	/**
+	 * @param vector
+	 *            The parameters to evaluate with, as from
+	 *            EvalParameters.getVector()
+	 */
+	public void setParameters(int[] vector) {
+		EvalParameters.setVector(vector);
+		pawnHash.clear(); // Pawn scores with the old parameters
+	} // END setParameters()
+
+	/**
+	 * Sums the squared differences between the results and the win
+	 * probabilities from the evaluation
+	 *
+	 * @param positions
+	 *            Positions in the binary format (see Board.getBinary())
+	 * @param results
+	 *            The results from white's view, 0 loss, 1 draw and 2 win
+	 * @param from
+	 *            The first position
+	 * @param to
+	 *            The position after the last
+	 * @param k
+	 *            Scaling of the evaluation
+	 * @return The sum of the squared errors
+	 */
+	public double error(byte[] positions, byte[] results, int from, int to, double k) {
+		double sum = 0;
+		for(int i = from; i < to; i++) {
+			board.inputBinary(positions, i*Board.BINARY_SIZE);
+			int eval = Evaluation.evaluate(board, false)*board.toMove;
+			double error = results[i]/2.0 - Tuner.winProbability(eval, k);
+			sum += error*error;
+		}
+		return sum;
+	} // END error()
+}
@@ -0,0 +1,102 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.board.PositionReader;
+import mediocrechess.mediocre.board.PositionWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that positions come back the same from the binary format, both
+ * directly (getBinary() and inputBinary()) and through PositionWriter and
+ * PositionReader
+ */
+public class BinaryPositionTest {
+	private final static String[] starts = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"rnbqkb1r/ppppp1pp/7n/4Pp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+		"8/8/8/8/3Q4/8/8/K6k b - - 9 300"
+	};
+
+	private List<String> positions;
+
+	@Before
+	public void setUp() throws Exception {
+		Move[] moves = new Move[256];
+		for(int i = 0; i < 256; i++) moves[i] = new Move();
+
+		Random random = new Random(5);
+		positions = new ArrayList<String>();
+		Board board = new Board();
+		for(int game = 0; game < 1000; game++) {
+			board.inputFen(starts[game % starts.length]);
+			int plies = random.nextInt(80);
+			for(int ply = 0; ply < plies; ply++) {
+				int legal = board.gen_allLegalMoves(moves, 0);
+				if(legal == 0) break;
+				board.makeMove(moves[random.nextInt(legal)].move);
+			}
+			positions.add(board.getFen());
+		}
+	}
+
+	@Test
+	public void testBinary() {
+		Board board = new Board();
+		Board result = new Board();
+		byte[] data = new byte[3*Board.BINARY_SIZE];
+		for(String fen : positions) {
+			board.inputFen(fen);
+			board.getBinary(data, Board.BINARY_SIZE);
+			result.inputBinary(data, Board.BINARY_SIZE);
+			assertSame(fen, result);
+		}
+	}
+
+	@Test
+	public void testReaderWriter() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PositionWriter writer = new PositionWriter(out);
+		Board board = new Board();
+		for(String fen : positions) {
+			board.inputFen(fen);
+			writer.write(board);
+		}
+		writer.close();
+		assertEquals(positions.size()*Board.BINARY_SIZE, out.size());
+
+		PositionReader reader = new PositionReader(new ByteArrayInputStream(out.toByteArray()));
+		int count = 0;
+		while(reader.read(board)) {
+			assertSame(positions.get(count++), board);
+		}
+		reader.close();
+		assertEquals(positions.size(), count);
+	}
+
+	/**
+	 * Compares the board with the position set up from the FEN
+	 */
+	private static void assertSame(String fen, Board board) {
+		Board fresh = new Board();
+		fresh.inputFen(fen);
+
+		assertEquals(fen, board.getFen());
+		assertEquals(fresh.zobristKey, board.zobristKey);
+		assertEquals(fresh.pawnZobristKey, board.pawnZobristKey);
+		assertEquals(fresh.w_piecePosEnding, board.w_piecePosEnding);
+		assertEquals(fresh.gamePhase, board.gamePhase);
+		assertEquals(fresh.isInCheck(), board.isInCheck());
+	}
+}
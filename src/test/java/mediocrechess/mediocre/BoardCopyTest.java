@@ -0,0 +1,133 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.perft.Perft;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a copied board (copyFrom() and the copy constructor) is the
+ * same position as the original, and that the moves made before the copy
+ * can be unmade on it
+ */
+public class BoardCopyTest {
+	private final static String start = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+	private Move[] moves;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		moves = new Move[256];
+		for(int i = 0; i < 256; i++) moves[i] = new Move();
+		random = new Random(3);
+	}
+
+	@Test
+	public void testCopyFrom() {
+		Board copy = new Board();
+		for(int game = 0; game < 200; game++) {
+			Board board = new Board();
+			board.inputFen(start);
+			int[] played = playRandom(board, 1 + random.nextInt(40));
+
+			copy.copyFrom(board);
+			assertSame(board, copy);
+
+			for(int i = played.length - 1; i >= 0; i--) copy.unmakeMove(played[i]);
+			assertEquals(start, copy.getFen());
+			assertEquals(0, copy.historyIndex);
+		}
+	}
+
+	@Test
+	public void testCopyConstructor() {
+		for(int game = 0; game < 50; game++) {
+			Board board = new Board();
+			board.inputFen(start);
+			playRandom(board, random.nextInt(40));
+			assertSame(board, new Board(board));
+		}
+	}
+
+	/**
+	 * A copy only has room for a short search past the copied position, so
+	 * playing a long line on it has to make more room
+	 */
+	@Test
+	public void testCopyGrows() {
+		String[] line = {"a1b1", "a8b8", "b1a1", "b8a8"};
+		Board board = new Board();
+		board.inputFen(start);
+		for(int i = 0; i < 8; i++) play(board, line[i % 4]);
+		Board copy = new Board(board);
+		assertTrue(copy.history.length < 1000);
+		String fen = copy.getFen();
+
+		int[] played = new int[1200];
+		for(int i = 0; i < played.length; i++) played[i] = play(copy, line[i % 4]);
+		assertTrue(copy.history.length > played.length);
+		for(int i = played.length - 1; i >= 0; i--) copy.unmakeMove(played[i]);
+		assertEquals(fen, copy.getFen());
+	}
+
+	/**
+	 * Plays the move given in coordinate notation
+	 *
+	 * @return The move played
+	 */
+	private int play(Board board, String notation) {
+		int legal = board.gen_allLegalMoves(moves, 0);
+		for(int i = 0; i < legal; i++) {
+			if(Move.inputNotation(moves[i].move).equals(notation)) {
+				board.makeMove(moves[i].move);
+				return moves[i].move;
+			}
+		}
+		fail(notation + " is not legal in " + board.getFen());
+		return 0;
+	}
+
+	/**
+	 * Plays random moves
+	 *
+	 * @return The moves played
+	 */
+	private int[] playRandom(Board board, int plies) {
+		int[] played = new int[plies];
+		int count = 0;
+		while(count < plies) {
+			int legal = board.gen_allLegalMoves(moves, 0);
+			if(legal == 0) break;
+			played[count] = moves[random.nextInt(legal)].move;
+			board.makeMove(played[count++]);
+		}
+		int[] result = new int[count];
+		System.arraycopy(played, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Compares the copy with the original and with the position set up from
+	 * its FEN
+	 */
+	private static void assertSame(Board board, Board copy) {
+		Board fresh = new Board();
+		fresh.inputFen(board.getFen());
+
+		assertEquals(board.getFen(), copy.getFen());
+		assertEquals(board.zobristKey, copy.zobristKey);
+		assertEquals(board.pawnZobristKey, copy.pawnZobristKey);
+		assertEquals(fresh.w_piecePosMiddle, copy.w_piecePosMiddle);
+		assertEquals(fresh.b_piecePosEnding, copy.b_piecePosEnding);
+		assertEquals(fresh.gamePhase, copy.gamePhase);
+		assertEquals(fresh.isInCheck(), copy.isInCheck());
+		assertEquals(Perft.perft(fresh, 2, false), Perft.perft(copy, 2, false));
+	}
+}
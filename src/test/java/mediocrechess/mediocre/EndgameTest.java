@@ -0,0 +1,139 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Endgame;
+import mediocrechess.mediocre.def.Definitions;
+
+import org.junit.Test;
+
+/**
+ * Checks the scoring functions of Endgame: the same score with the colors
+ * switched, and the expected sign and size for won, drawn and lost endings
+ */
+public class EndgameTest implements Definitions {
+	private final static String[] fens = {
+		"7k/8/5K2/8/8/8/8/2B1N3 b - - 0 1", // KBNK
+		"k7/8/2K5/8/8/8/8/2B1N3 b - - 0 1",
+		"8/8/8/3k4/8/8/8/K1BN4 w - - 0 1",
+		"8/8/8/3k4/8/4r3/8/K2Q4 w - - 0 1", // KQKR
+		"8/8/8/4K3/8/8/pk6/7Q w - - 0 1", // KQKP
+		"8/8/8/4K3/8/8/2pk4/7Q w - - 0 1",
+		"8/8/8/4K3/8/8/1pk5/7Q b - - 0 1",
+		"8/8/8/4K3/8/8/3pk3/7Q w - - 0 1",
+		"8/8/8/4K3/8/3p4/4k3/7Q w - - 0 1",
+		"8/8/8/8/4p3/8/4K3/k6R w - - 0 1", // KRKP
+		"K7/8/8/8/8/8/4pk2/7R w - - 0 1",
+		"K7/8/8/8/8/8/4pk2/7R b - - 0 1",
+		"7k/8/8/3p4/8/8/8/K6R b - - 0 1",
+		"8/8/8/3k4/8/4b3/8/K2R4 w - - 0 1", // KRKB
+		"7k/8/8/8/8/8/1n6/K6R w - - 0 1", // KRKN
+		"8/8/8/3k4/8/8/8/KBB5 w - - 0 1", // KBBK
+		"8/8/8/3k4/8/8/8/KB1B4 w - - 0 1",
+		"8/8/8/3k4/8/8/8/K2R4 w - - 0 1", // KRK
+		"8/8/8/8/8/8/8/KQ5k b - - 0 1" // KQK
+	};
+
+	@Test
+	public void testColorFlip() {
+		Board board = new Board();
+		for(String fen : fens) {
+			board.inputFen(fen);
+			int score = Endgame.evaluate(board);
+			assertTrue(fen, score != EVALNOTFOUND);
+			board.inputFen(flip(fen));
+			assertEquals(fen, -score, Endgame.evaluate(board));
+		}
+	}
+
+	/**
+	 * The mate with bishop and knight can only be given in a corner of the
+	 * bishop's color
+	 */
+	@Test
+	public void testKbnkCorner() {
+		int right = score("7k/8/5K2/8/8/8/8/2B1N3 b - - 0 1");
+		int wrong = score("k7/8/2K5/8/8/8/8/2B1N3 b - - 0 1");
+		assertTrue(wrong > Endgame.KNOWN_WIN);
+		assertTrue(right > wrong);
+	}
+
+	/**
+	 * The queen wins against a pawn on the seventh rank unless it is on a
+	 * rook or bishop file with its king next to it
+	 */
+	@Test
+	public void testKqkp() {
+		assertTrue(Math.abs(score("8/8/8/4K3/8/8/pk6/7Q w - - 0 1")) < 200);
+		assertTrue(Math.abs(score("8/8/8/4K3/8/8/2pk4/7Q w - - 0 1")) < 200);
+		assertTrue(score("8/8/8/4K3/8/8/1pk5/7Q b - - 0 1") > 600);
+		assertTrue(score("8/8/8/4K3/8/8/3pk3/7Q w - - 0 1") > 600);
+		assertTrue(score("8/8/8/4K3/8/3p4/4k3/7Q w - - 0 1") > 600);
+		assertTrue(score(flip("8/8/8/4K3/8/8/pk6/7Q w - - 0 1")) > -200);
+		assertTrue(score(flip("8/8/8/4K3/8/8/3pk3/7Q w - - 0 1")) < -600);
+	}
+
+	/**
+	 * The rook wins if its king is in front of the pawn or the weak king is
+	 * far away, and not if the pawn is close to promotion with its king next
+	 * to it and the strong king far away, for both colors
+	 */
+	@Test
+	public void testKrkp() {
+		String[] won = {"8/8/8/8/4p3/8/4K3/k6R w - - 0 1", "7k/8/8/3p4/8/8/8/K6R b - - 0 1"};
+		String drawn = "K7/8/8/8/8/8/4pk2/7R b - - 0 1";
+		for(String fen : won) {
+			assertTrue(fen, score(fen) > 400);
+			assertTrue(fen, score(flip(fen)) < -400);
+		}
+		assertTrue(Math.abs(score(drawn)) < 100);
+		assertTrue(Math.abs(score(flip(drawn))) < 100);
+	}
+
+	@Test
+	public void testDrawish() {
+		String[] fens = {"8/8/8/3k4/8/4b3/8/K2R4 w - - 0 1", "7k/8/8/8/8/8/1n6/K6R w - - 0 1",
+			"k7/8/8/8/8/8/8/KR1b4 w - - 0 1", "8/8/8/3k4/3n4/8/8/K2R4 w - - 0 1", "8/8/8/3k4/8/8/8/KB1B4 w - - 0 1"};
+		for(String fen : fens) {
+			assertTrue(fen, score(fen) >= 0 && score(fen) < 200);
+			assertTrue(fen, score(flip(fen)) <= 0 && score(flip(fen)) > -200);
+		}
+	}
+
+	@Test
+	public void testWon() {
+		String[] fens = {"8/8/8/3k4/8/8/8/K1BN4 w - - 0 1", "8/8/8/3k4/8/8/8/KBB5 w - - 0 1",
+			"8/8/8/3k4/8/8/8/K2R4 w - - 0 1", "8/8/8/8/8/8/8/KQ5k b - - 0 1"};
+		for(String fen : fens) {
+			assertTrue(fen, score(fen) > Endgame.KNOWN_WIN);
+			assertTrue(fen, score(flip(fen)) < -Endgame.KNOWN_WIN);
+		}
+	}
+
+	/**
+	 * @return The score of Endgame from white's view
+	 */
+	private static int score(String fen) {
+		Board board = new Board();
+		board.inputFen(fen);
+		return Endgame.evaluate(board);
+	}
+
+	/**
+	 * @return The position with the colors switched and the board turned
+	 *         around (no castling or en passant)
+	 */
+	private static String flip(String fen) {
+		String[] parts = fen.split(" ");
+		String[] ranks = parts[0].split("/");
+		StringBuilder flipped = new StringBuilder();
+		for(int i = ranks.length - 1; i >= 0; i--) {
+			for(char c : ranks[i].toCharArray()) {
+				flipped.append(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+			}
+			if(i != 0) flipped.append('/');
+		}
+		return flipped + (parts[1].equals("w") ? " b " : " w ") + "- - " + parts[4] + " " + parts[5];
+	}
+}
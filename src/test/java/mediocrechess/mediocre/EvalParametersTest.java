@@ -0,0 +1,153 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.EvalParameters;
+import mediocrechess.mediocre.board.Evaluation;
+import mediocrechess.mediocre.def.Definitions;
+import mediocrechess.mediocre.main.Settings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that saved evaluation parameters load back to the same values and
+ * the same evaluations
+ */
+public class EvalParametersTest implements Definitions {
+	private final static String[] fens = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"4rrk1/pp1b2pp/5n2/3p1N2/8/2QB1qP1/PP3P1P/4RRK1 w - - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+	};
+
+	private int[] defaults;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		defaults = EvalParameters.getVector();
+		file = File.createTempFile("params", ".txt");
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EvalParameters.setVector(defaults);
+		Settings.getInstance().getPawnHash().clear();
+		file.delete();
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		Random random = new Random(7);
+		int[] changed = defaults.clone();
+		for(int i = 0; i < changed.length; i++) changed[i] += random.nextInt(11) - 5;
+
+		EvalParameters.setVector(changed);
+		int[] evals = evaluate();
+		EvalParameters.save(file.getPath());
+
+		EvalParameters.setVector(defaults);
+		EvalParameters.load(file.getPath());
+		assertArrayEquals(changed, EvalParameters.getVector());
+		assertArrayEquals(evals, evaluate());
+	}
+
+	@Test
+	public void testPartialFile() throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write("# Only one parameter\nPASSED_RANK_BONUS = 1 2 3\n  4 5 6 7 8\n");
+		writer.close();
+
+		EvalParameters.load(file.getPath());
+		String[] names = EvalParameters.getVectorNames();
+		int[] vector = EvalParameters.getVector();
+		for(int i = 0; i < vector.length; i++) {
+			if(names[i].startsWith("PASSED_RANK_BONUS[")) {
+				assertEquals(names[i], Integer.parseInt(names[i].substring(18, names[i].length() - 1)) + 1, vector[i]);
+			} else {
+				assertEquals(names[i], defaults[i], vector[i]);
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownParameter() throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write("NO_SUCH_PARAMETER = 1\n");
+		writer.close();
+
+		EvalParameters.load(file.getPath());
+	}
+
+	@Test
+	public void testRefreshEvalSums() throws IOException {
+		Board board = new Board();
+		board.inputFen(fens[1]);
+		int[] changed = defaults.clone();
+		for(int i = 0; i < changed.length; i++) changed[i] += 3;
+		EvalParameters.setVector(changed);
+		EvalParameters.save(file.getPath());
+		EvalParameters.setVector(defaults);
+
+		assertTrue(Settings.getInstance().loadEvalParams(file.getPath()));
+		board.refreshEvalSums();
+		Board fresh = new Board();
+		fresh.inputFen(fens[1]);
+		assertEquals(fresh.w_materialMiddle, board.w_materialMiddle);
+		assertEquals(fresh.b_materialEnding, board.b_materialEnding);
+		assertEquals(fresh.w_piecePosMiddle, board.w_piecePosMiddle);
+		assertEquals(fresh.b_piecePosEnding, board.b_piecePosEnding);
+		assertEquals(fresh.phaseWeight, board.phaseWeight);
+	}
+
+	@Test
+	public void testSearchMaterial() {
+		int[] changed = defaults.clone();
+		for(int i = 0; i < changed.length; i++) changed[i] += 7;
+		EvalParameters.setVector(changed);
+		for(int piece = W_QUEEN; piece <= W_PAWN; piece++) {
+			assertEquals(Evaluation.MATERIAL_MIDDLE[piece + 7], Evaluation.PIECE_VALUE_ARRAY[piece + 7]);
+			assertEquals(-Evaluation.MATERIAL_MIDDLE[piece + 7], Evaluation.PIECE_VALUE_ARRAY[-piece + 7]);
+			assertEquals(Evaluation.MATERIAL_MIDDLE[piece + 7], Evaluation.PIECE_VALUE_ARRAY_ABS[-piece + 7]);
+		}
+	}
+
+	@Test
+	public void testBadFileChangesNothing() throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write("PASSED_PAWN = 99\nBISHOP_PAIR = 1\nPASSED_RANK_BONUS = 1 2 3\nTEMPO = 5\n");
+		writer.close();
+
+		try {
+			EvalParameters.load(file.getPath());
+			fail("PASSED_RANK_BONUS has too few values");
+		} catch (IOException e) {
+			assertArrayEquals(defaults, EvalParameters.getVector());
+		}
+	}
+
+	/**
+	 * @return The evaluations of the positions, set up again so the boards
+	 *         sum up the current piece square tables
+	 */
+	private static int[] evaluate() {
+		Settings.getInstance().getPawnHash().clear();
+		int[] evals = new int[fens.length];
+		Board board = new Board();
+		for(int i = 0; i < fens.length; i++) {
+			board.inputFen(fens[i]);
+			evals[i] = Evaluation.evaluate(board, false);
+		}
+		return evals;
+	}
+}
@@ -0,0 +1,67 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the material, piece square and game phase sums updated in makeMove
+ * and unmakeMove against the sums of the same position set up from its FEN
+ */
+public class IncrementalEvalTest {
+	private final static String[] fens = {
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"rnbqkb1r/ppppp1pp/7n/4Pp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"
+	};
+
+	private Move[][] moves;
+	private Board fresh;
+
+	@Before
+	public void setUp() throws Exception {
+		moves = new Move[4][256];
+		for(int ply = 0; ply < 4; ply++) {
+			for(int i = 0; i < 256; i++) moves[ply][i] = new Move();
+		}
+		fresh = new Board();
+	}
+
+	@Test
+	public void testSums() {
+		Board board = new Board();
+		for(String fen : fens) {
+			board.inputFen(fen);
+			walk(board, 3, 0);
+			assertEquals(fen, board.getFen());
+		}
+	}
+
+	private void walk(Board board, int depth, int ply) {
+		String fen = board.getFen();
+		fresh.inputFen(fen);
+		assertEquals(fen, fresh.w_materialMiddle, board.w_materialMiddle);
+		assertEquals(fen, fresh.w_materialEnding, board.w_materialEnding);
+		assertEquals(fen, fresh.b_materialMiddle, board.b_materialMiddle);
+		assertEquals(fen, fresh.b_materialEnding, board.b_materialEnding);
+		assertEquals(fen, fresh.w_piecePosMiddle, board.w_piecePosMiddle);
+		assertEquals(fen, fresh.w_piecePosEnding, board.w_piecePosEnding);
+		assertEquals(fen, fresh.b_piecePosMiddle, board.b_piecePosMiddle);
+		assertEquals(fen, fresh.b_piecePosEnding, board.b_piecePosEnding);
+		assertEquals(fen, fresh.phaseWeight, board.phaseWeight);
+		assertEquals(fen, fresh.gamePhase, board.gamePhase);
+		if(depth == 0) return;
+
+		int legal = board.gen_allLegalMoves(moves[ply], 0);
+		for(int i = 0; i < legal; i++) {
+			board.makeMove(moves[ply][i].move);
+			walk(board, depth - 1, ply + 1);
+			board.unmakeMove(moves[ply][i].move);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.def.Definitions;
+import mediocrechess.mediocre.tablebase.Bitbase;
+import mediocrechess.mediocre.tablebase.BitbaseGenerator;
+import mediocrechess.mediocre.tablebase.Kpk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the built-in KPK bitbase against the KPK table made by
+ * BitbaseGenerator, in every legal position with either side having the pawn
+ */
+public class KpkTest implements Definitions {
+	private static Logger logger = LoggerFactory.getLogger(KpkTest.class);
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("bitbases", "");
+		directory.delete();
+		directory.mkdir();
+		Bitbase.init("<empty>");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Bitbase.init("<empty>");
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testKpk() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool();
+		assertNotNull(BitbaseGenerator.generate("KPK", directory, pool));
+		pool.shutdown();
+
+		Board board = new Board();
+		int checked = 0;
+		int wins = 0;
+		for(int pawnSide = WHITE; pawnSide >= BLACK; pawnSide -= 2) {
+			for(int toMove = WHITE; toMove >= BLACK; toMove -= 2) {
+				for(int whiteKing = 0; whiteKing < 64; whiteKing++) {
+					for(int blackKing = 0; blackKing < 64; blackKing++) {
+						if(Math.abs((whiteKing & 7) - (blackKing & 7)) <= 1 && Math.abs((whiteKing >> 3) - (blackKing >> 3)) <= 1) continue;
+						for(int pawn = 8; pawn < 56; pawn++) {
+							if(pawn == whiteKing || pawn == blackKing) continue;
+
+							board.inputFen(fen(whiteKing, blackKing, pawn, pawnSide, toMove));
+							int otherKing = (toMove == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0];
+							if(board.isAttacked(otherKing, toMove)) continue; // The side not to move is in check
+
+							int result = Kpk.probe(board);
+							assertEquals(board.getFen(), Bitbase.probe(board), result);
+							if(result == Bitbase.WIN) wins++;
+							checked++;
+						}
+					}
+				}
+			}
+		}
+		logger.debug("KPK positions: " + checked + ", wins: " + wins);
+		assertTrue(wins > 0);
+	}
+
+	/**
+	 * @return The FEN of the position, squares from 0 (a1) to 63 (h8)
+	 */
+	private static String fen(int whiteKing, int blackKing, int pawn, int pawnSide, int toMove) {
+		char[] squares = new char[64];
+		for(int i = 0; i < 64; i++) squares[i] = '.';
+		squares[whiteKing] = 'K';
+		squares[blackKing] = 'k';
+		squares[pawn] = (pawnSide == WHITE) ? 'P' : 'p';
+
+		StringBuilder fen = new StringBuilder();
+		for(int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for(int file = 0; file < 8; file++) {
+				char square = squares[rank*8 + file];
+				if(square == '.') {
+					empty++;
+				} else {
+					if(empty != 0) fen.append(empty);
+					empty = 0;
+					fen.append(square);
+				}
+			}
+			if(empty != 0) fen.append(empty);
+			if(rank != 0) fen.append('/');
+		}
+		return fen.append((toMove == WHITE) ? " w - - 0 1" : " b - - 0 1").toString();
+	}
+}
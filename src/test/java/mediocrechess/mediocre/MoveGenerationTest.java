@@ -0,0 +1,105 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.def.Definitions;
+import mediocrechess.mediocre.perft.Perft;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the legal move generation, and the cached check status and
+ * givesCheck() against making the move
+ */
+public class MoveGenerationTest implements Definitions {
+	private static Logger logger = LoggerFactory.getLogger(MoveGenerationTest.class);
+
+	private final static String[] fens = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+		"8/7p/p5pb/4k3/P1pPn3/8/P5PP/1rB2RK1 b - d3 0 28"
+	};
+	private final static int[] depths = {5, 4, 6, 5, 4, 6};
+	private final static long[] answers = {4865609L, 4085603L, 11030083L, 15833292L, 2103487L, 38633283L};
+
+	private Move[][] moves;
+
+	@Before
+	public void setUp() throws Exception {
+		moves = new Move[8][256];
+		for(int ply = 0; ply < 8; ply++) {
+			for(int i = 0; i < 256; i++) moves[ply][i] = new Move();
+		}
+	}
+
+	@Test
+	public void testPerft() {
+		assertTrue(perftAll());
+	}
+
+	/**
+	 * Plays random games from every position and compares givesCheck() and
+	 * the cached isInCheck() with making the move and looking for attacks on
+	 * the king
+	 */
+	@Test
+	public void testChecks() {
+		Random random = new Random(1);
+		Board board = new Board();
+		int checks = 0;
+		for(String fen : fens) {
+			for(int game = 0; game < 50; game++) {
+				board.inputFen(fen);
+				for(int ply = 0; ply < 60; ply++) {
+					int count = board.gen_allLegalMoves(moves[0], 0);
+					if(count == 0) break;
+					for(int i = 0; i < count; i++) {
+						int move = moves[0][i].move;
+						boolean givesCheck = board.givesCheck(move);
+						board.makeMove(move);
+						assertEquals(board.getFen(), kingAttacked(board), board.isInCheck());
+						assertEquals(board.getFen(), kingAttacked(board), givesCheck);
+						if(givesCheck) checks++;
+						board.unmakeMove(move);
+					}
+					board.makeMove(moves[0][random.nextInt(count)].move);
+				}
+			}
+		}
+		logger.debug("Checking moves: " + checks);
+		assertTrue(checks > 0);
+	}
+
+	private boolean perftAll() {
+		Board board = new Board();
+		boolean allCorrect = true;
+		for(int i = 0; i < fens.length; i++) {
+			board.inputFen(fens[i]);
+			long start = System.currentTimeMillis();
+			long answer = Perft.perft(board, depths[i], false);
+			logger.debug(fens[i] + " depth " + depths[i] + ": " + answer + (answer == answers[i] ? " (Correct)" : " (Incorrect)")
+					+ " Time: " + Perft.convertMillis(System.currentTimeMillis() - start));
+			if(answer != answers[i]) allCorrect = false;
+		}
+		return allCorrect;
+	}
+
+	/**
+	 * @return true if the king of the side to move is attacked, found
+	 *         without the cached checkers
+	 */
+	private static boolean kingAttacked(Board board) {
+		int king = (board.toMove == WHITE) ? board.w_king.pieces[0] : board.b_king.pieces[0];
+		return board.isAttacked(king, -board.toMove);
+	}
+}
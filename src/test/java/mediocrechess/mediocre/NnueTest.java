@@ -0,0 +1,145 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.board.Nnue;
+import mediocrechess.mediocre.def.Definitions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the accumulators updated in makeMove and unmakeMove against ones
+ * built from scratch, and the packed kernel against the scalar one, with a
+ * network of random weights
+ */
+public class NnueTest implements Definitions {
+	private final static String[] fens = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R b KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"n1n5/PPPk4/8/8/8/8/4Kppp/5N1N b - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"
+	};
+
+	private static File network;
+
+	private Move[][] moves;
+	private short[] accumulator;
+
+	@Before
+	public void setUp() throws Exception {
+		if(network == null) {
+			network = File.createTempFile("random", ".nnue");
+			network.deleteOnExit();
+			writeRandomNetwork(network, new Random(1));
+		}
+		Nnue.load(network.getPath());
+
+		moves = new Move[4][256];
+		for(int ply = 0; ply < 4; ply++) {
+			for(int i = 0; i < 256; i++) moves[ply][i] = new Move();
+		}
+		accumulator = new short[2*Nnue.HALF_DIMENSIONS];
+	}
+
+	@Test
+	public void testAccumulators() {
+		Board board = new Board();
+		board.setNnue(true);
+		for(String fen : fens) {
+			board.inputFen(fen);
+			walk(board, 3, 0);
+		}
+	}
+
+	@Test
+	public void testKernels() {
+		Random random = new Random(2);
+		Board board = new Board();
+		board.setNnue(true);
+		Set<Integer> evals = new HashSet<Integer>();
+		for(String fen : fens) {
+			for(int game = 0; game < 20; game++) {
+				board.inputFen(fen);
+				for(int ply = 0; ply < 40; ply++) {
+					Nnue.setKernel(Nnue.KERNEL_SCALAR);
+					int scalar = Nnue.evaluate(board);
+					Nnue.setKernel(Nnue.KERNEL_PACKED);
+					assertEquals(board.getFen(), scalar, Nnue.evaluate(board));
+					evals.add(scalar);
+
+					int legal = board.gen_allLegalMoves(moves[0], 0);
+					if(legal == 0) break;
+					board.makeMove(moves[0][random.nextInt(legal)].move);
+				}
+			}
+		}
+		assertTrue(evals.size() > 100); // The layers are not all clipped away
+	}
+
+	private void walk(Board board, int depth, int ply) {
+		Nnue.refresh(board, WHITE, accumulator);
+		Nnue.refresh(board, BLACK, accumulator);
+		assertTrue(board.getFen(), Arrays.equals(accumulator, board.nnueAccumulators[board.historyIndex]));
+		if(depth == 0) return;
+
+		int legal = board.gen_allLegalMoves(moves[ply], 0);
+		for(int i = 0; i < legal; i++) {
+			board.makeMove(moves[ply][i].move);
+			walk(board, depth - 1, ply + 1);
+			board.unmakeMove(moves[ply][i].move);
+		}
+	}
+
+	/**
+	 * Writes a network in the format Nnue.load() reads, with small random
+	 * weights so the outputs are not clipped to the same values
+	 */
+	private static void writeRandomNetwork(File file, Random random) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			byte[] description = "random test network".getBytes("US-ASCII");
+			writeInt(out, 0x7AF32F16); // Version
+			writeInt(out, 0); // Hash
+			writeInt(out, description.length);
+			out.write(description);
+
+			writeInt(out, 0); // Hash of the feature transformer
+			for(int i = 0; i < Nnue.HALF_DIMENSIONS; i++) writeShort(out, -30 + random.nextInt(91));
+			for(int i = 0; i < Nnue.FEATURES*Nnue.HALF_DIMENSIONS; i++) writeShort(out, -12 + random.nextInt(25));
+
+			writeInt(out, 0); // Hash of the hidden layers
+			writeLayer(out, random, 32, 2*Nnue.HALF_DIMENSIONS, 40);
+			writeLayer(out, random, 32, 32, 60);
+			writeLayer(out, random, 1, 32, 127);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeLayer(DataOutputStream out, Random random, int outSize, int inSize, int maxWeight) throws IOException {
+		for(int i = 0; i < outSize; i++) writeInt(out, -2000 + random.nextInt(4001));
+		for(int i = 0; i < outSize*inSize; i++) out.writeByte(-maxWeight + random.nextInt(2*maxWeight + 1));
+	}
+
+	private static void writeInt(DataOutputStream out, int value) throws IOException {
+		out.writeInt(Integer.reverseBytes(value));
+	}
+
+	private static void writeShort(DataOutputStream out, int value) throws IOException {
+		out.writeShort(Short.reverseBytes((short)value));
+	}
+}
@@ -0,0 +1,59 @@
+package mediocrechess.mediocre;
+
+import static org.junit.Assert.*;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.perft.Perft;
+import mediocrechess.mediocre.transtable.Zobrist;
+
+import org.junit.Test;
+
+/**
+ * Checks the incrementally updated polyglot key against the keys given in
+ * the polyglot book format description and against the key computed from
+ * scratch in every position of a small tree
+ */
+public class PolyglotKeyTest {
+	private final static String[] fens = {
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+	};
+
+	@Test
+	public void testKnownKeys() {
+		String[] line = {"e2e4", "d7d5", "e4e5", "f7f5", "e1e2", "e8f7"};
+		long[] keys = {0x823c9b50fd114196L, 0x0756b94461c50fb0L, 0x662fafb965db29d4L, 0x22a48b5a8e47ff78L, 0x652a607ca3f242c1L, 0x00fdd303c946bdd9L};
+
+		Move[] moves = new Move[256];
+		for(int i = 0; i < 256; i++) moves[i] = new Move();
+
+		Board board = new Board();
+		board.setupStart();
+		board.setPolyglotTracking(true);
+		assertEquals(0x463b96181691fc9cL, board.getPolyglotKey());
+
+		for(int i = 0; i < line.length; i++) {
+			int legal = board.gen_allLegalMoves(moves, 0);
+			for(int j = 0; j < legal; j++) {
+				if(Move.inputNotation(moves[j].move).equals(line[i])) {
+					board.makeMove(moves[j].move);
+					break;
+				}
+			}
+			assertEquals(line[i], keys[i], board.getPolyglotKey());
+			assertEquals(line[i], Zobrist.getPolyglotZobristKey(board), board.getPolyglotKey());
+		}
+	}
+
+	@Test
+	public void testTree() {
+		Board board = new Board();
+		for(String fen : fens) {
+			board.inputFen(fen);
+			assertEquals(fen, 0, Perft.polyglotCheck(board, 3));
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package mediocrechess.mediocre.tablebase;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import mediocrechess.mediocre.board.Board;
+import mediocrechess.mediocre.board.Endgame;
+import mediocrechess.mediocre.board.Move;
+import mediocrechess.mediocre.def.Definitions;
+import mediocrechess.mediocre.tablebase.Syzygy.PairsData;
+import mediocrechess.mediocre.tablebase.Syzygy.Table;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the decompression and the indexing of the Syzygy tables with small
+ * tables written here, and the probes against real tables if the system
+ * property syzygy.path points to a directory with the 3-4 piece tables
+ */
+public class SyzygyTest implements Definitions {
+	private final static int KQVK_SIZE = 31332; // Positions in the KQvK table
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("syzygy", "");
+		directory.delete();
+		directory.mkdir();
+		writeTable("KQvK", new int[] {6, 5, 14}, false, compressed(KQVK_SIZE));
+		writeTable("KRRvK", new int[] {6, 14, 4, 4}, false, null);
+		writeTable("KPvK", new int[] {1, 6, 14}, true, null);
+		assertEquals(3, Syzygy.init(directory.getPath()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Syzygy.init("<empty>");
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDecompression() {
+		Table e = mappedTable("k7/8/8/8/8/8/8/KQ6 w - - 0 1");
+		PairsData d = e.get(0, 0);
+		assertTrue(d.numBlocks > 1);
+		for(int i = 0; i < KQVK_SIZE; i++) {
+			assertEquals("Index " + i, value(i), Syzygy.decompressPairs(e.data, d, i));
+		}
+	}
+
+	@Test
+	public void testIndexPieces() {
+		checkIndex(mappedTable("k7/8/8/8/8/8/8/KQ6 w - - 0 1"), 300000);
+	}
+
+	@Test
+	public void testIndexPairs() {
+		checkIndex(mappedTable("k7/8/8/8/8/8/8/KRR5 w - - 0 1"), 300000);
+	}
+
+	@Test
+	public void testIndexPawns() {
+		checkIndex(mappedTable("k7/8/8/8/8/8/1P6/K7 w - - 0 1"), 300000);
+	}
+
+	/**
+	 * The parts of the pawn table hold (file + side to move) % 5, so this
+	 * checks the part picked for the file of the pawn, for either side to
+	 * move and with the colors switched
+	 */
+	@Test
+	public void testProbePawns() {
+		Board board = new Board();
+		for(int file = 0; file < 8; file++) {
+			int tbFile = Math.min(file, 7 - file);
+			String rank2 = (file == 0 ? "" : "" + file) + "P" + (file == 7 ? "" : "" + (7 - file));
+			String rank7 = (file == 0 ? "" : "" + file) + "p" + (file == 7 ? "" : "" + (7 - file));
+
+			board.inputFen("8/8/8/8/K6k/8/" + rank2 + "/8 w - - 0 1");
+			assertEquals(board.getFen(), tbFile % 5 - 2, Syzygy.probeWdl(board));
+			board.inputFen("8/" + rank7 + "/8/k6K/8/8/8/8 b - - 0 1");
+			assertEquals(board.getFen(), tbFile % 5 - 2, Syzygy.probeWdl(board));
+
+			board.inputFen("8/8/8/8/K6k/8/" + rank2 + "/8 b - - 0 1");
+			assertEquals(board.getFen(), (tbFile + 1) % 5 - 2, Syzygy.probeWdl(board));
+			board.inputFen("8/" + rank7 + "/8/k6K/8/8/8/8 w - - 0 1");
+			assertEquals(board.getFen(), (tbFile + 1) % 5 - 2, Syzygy.probeWdl(board));
+			assertTrue(Syzygy.lastProbeOk());
+		}
+	}
+
+	/**
+	 * Random KQvK positions give the same result with the colors switched
+	 * and the board turned around
+	 */
+	@Test
+	public void testProbeColors() {
+		Random random = new Random(3);
+		Board board = new Board();
+		int probes = 0;
+		while(probes < 2000) {
+			int[] squares = placement(random, new int[] {6, 5, 14}, false);
+			String fen = fen(squares, "KQk", false);
+			board.inputFen(fen + (random.nextBoolean() ? " w - - 0 1" : " b - - 0 1"));
+			int otherKing = (board.toMove == WHITE) ? board.b_king.pieces[0] : board.w_king.pieces[0];
+			if(board.isAttacked(otherKing, board.toMove)) continue;
+
+			int wdl = Syzygy.probeWdl(board);
+			String toMove = (board.toMove == WHITE) ? " b - - 0 1" : " w - - 0 1";
+			board.inputFen(fen(squares, "kqK", true) + toMove);
+			assertEquals(board.getFen(), wdl, Syzygy.probeWdl(board));
+			assertTrue(Syzygy.lastProbeOk());
+			probes++;
+		}
+	}
+
+	/**
+	 * Probes real tables, skipped unless -Dsyzygy.path is given
+	 */
+	@Test
+	public void testRealTables() {
+		String path = System.getProperty("syzygy.path");
+		Assume.assumeTrue(path != null && path.length() != 0);
+		assertTrue(Syzygy.init(path) > 0);
+		assertTrue(Syzygy.getMaxPieces() >= 4);
+
+		Board board = new Board();
+		String[] fens = {
+			"4k3/8/8/8/8/8/8/4KQ2 w - - 0 1",
+			"4k3/8/8/8/8/8/8/4KQ2 b - - 0 1",
+			"8/8/8/8/8/8/8/KN5k w - - 0 1",
+			"8/8/8/8/8/4k3/4P3/4K3 w - - 0 1",
+			"8/4P3/8/8/8/8/k7/4K3 w - - 0 1",
+			"8/8/8/8/8/8/8/KBN4k w - - 0 1",
+			"4k3/4r3/8/8/8/8/4R3/4K3 w - - 0 1"
+		};
+		int[] results = {Syzygy.WDL_WIN, Syzygy.WDL_LOSS, Syzygy.WDL_DRAW, Syzygy.WDL_DRAW, Syzygy.WDL_WIN, Syzygy.WDL_WIN, Syzygy.WDL_DRAW};
+		for(int i = 0; i < fens.length; i++) {
+			board.inputFen(fens[i]);
+			assertEquals(fens[i], results[i], Syzygy.probeWdl(board));
+			assertTrue(fens[i], Syzygy.lastProbeOk());
+		}
+
+		// Only the mates in one keep the win with 98 plies on the clock
+		Move[] rootMoves = new Move[256];
+		for(int i = 0; i < 256; i++) rootMoves[i] = new Move();
+		board.inputFen("k7/8/1K6/8/8/8/8/7Q w - - 98 80");
+		int count = board.gen_allLegalMoves(rootMoves, 0);
+		assertEquals(2, Syzygy.probeRoot(board, rootMoves, count));
+		assertTrue(Syzygy.isRootDtz());
+		Set<String> best = new HashSet<String>();
+		for(int i = 0; i < 2; i++) best.add(Move.inputNotation(rootMoves[i].move));
+		assertTrue(best.contains("h1h8"));
+		assertTrue(best.contains("h1b7"));
+	}
+
+	/**
+	 * @return The table of the position, mapped by probing it
+	 */
+	private static Table mappedTable(String fen) {
+		Board board = new Board();
+		board.inputFen(fen);
+		Syzygy.probeWdl(board);
+		assertTrue(fen, Syzygy.lastProbeOk());
+		Table e = Syzygy.wdlTables.get(Endgame.materialKey(board));
+		assertNotNull(fen, e.data);
+		return e;
+	}
+
+	/**
+	 * Encodes random placements of the pieces of the table and checks that
+	 * the placements that are the same under the symmetries of the table
+	 * get the same index, different ones a different index and that all
+	 * indexes are in the table. The tables do not use the diagonal symmetry
+	 * when the first group is on the diagonal, so those placements can have
+	 * more than one index.
+	 */
+	private static void checkIndex(Table e, int samples) {
+		Random random = new Random(e.key);
+		int size = e.pieceCount;
+		int leadPawnsCount = e.hasPawns ? 1 : 0;
+		Map<Long, Long> indexes = new HashMap<Long, Long>(); // Placement to index
+		Map<Long, Long> placements = new HashMap<Long, Long>(); // Index to placement
+		int[] squares = new int[size];
+		for(int n = 0; n < samples; n++) {
+			int[] placed = placement(random, e.get(0, 0).pieces, e.hasPawns);
+			int tbFile = e.hasPawns ? Math.min(placed[0] & 7, 7 - (placed[0] & 7)) : 0;
+			PairsData d = e.get(0, tbFile);
+			long key = canonical(placed, d.pieces, e.hasPawns);
+
+			System.arraycopy(placed, 0, squares, 0, size);
+			long idx = Syzygy.encode(e, d, squares, size, leadPawnsCount);
+			int groups = 0;
+			while(d.groupLen[groups] != 0) groups++;
+			assertTrue(idx >= 0 && idx < d.groupIdx[groups]);
+
+			idx = (idx << 2) | tbFile;
+			Long known = indexes.get(key);
+			if(known != null && !e.hasPawns && onDiagonal(placed, d.groupLen[0])) {
+				assertEquals(key, placements.get(idx) == null ? key : placements.get(idx).longValue());
+				placements.put(idx, key);
+			} else if(known != null) {
+				assertEquals(known.longValue(), idx);
+			} else {
+				Long other = placements.get(idx);
+				assertNull("Two placements with the index " + (idx >> 2), other);
+				indexes.put(key, idx);
+				placements.put(idx, key);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the first pieces are all on the same long diagonal
+	 */
+	private static boolean onDiagonal(int[] squares, int count) {
+		boolean a1h8 = true;
+		boolean a8h1 = true;
+		for(int i = 0; i < count; i++) {
+			if((squares[i] >> 3) != (squares[i] & 7)) a1h8 = false;
+			if((squares[i] >> 3) != 7 - (squares[i] & 7)) a8h1 = false;
+		}
+		return a1h8 || a8h1;
+	}
+
+	/**
+	 * @return Random squares of the pieces, kings not next to each other and
+	 *         pawns not on the first and last ranks
+	 */
+	private static int[] placement(Random random, int[] pieces, boolean hasPawns) {
+		int size = 0;
+		while(size < pieces.length && pieces[size] != 0) size++;
+		int[] squares = new int[size];
+		while(true) {
+			boolean[] used = new boolean[64];
+			int whiteKing = -1;
+			int blackKing = -1;
+			for(int i = 0; i < size; i++) {
+				int square;
+				do {
+					square = ((pieces[i] & 7) == 1) ? 8 + random.nextInt(48) : random.nextInt(64);
+				} while(used[square]);
+				used[square] = true;
+				squares[i] = square;
+				if(pieces[i] == 6) whiteKing = square;
+				if(pieces[i] == 14) blackKing = square;
+			}
+			if(Math.abs((whiteKing & 7) - (blackKing & 7)) > 1 || Math.abs((whiteKing >> 3) - (blackKing >> 3)) > 1) return squares;
+		}
+	}
+
+	/**
+	 * @return The smallest placement the squares can be turned into by the
+	 *         symmetries, with the same pieces in any order, as a number
+	 */
+	private static long canonical(int[] squares, int[] pieces, boolean hasPawns) {
+		long best = Long.MAX_VALUE;
+		for(int t = 0; t < (hasPawns ? 2 : 8); t++) {
+			List<Integer> turned = new ArrayList<Integer>();
+			for(int i = 0; i < squares.length; i++) {
+				int square = squares[i];
+				if((t & 1) != 0) square ^= 7;
+				if((t & 2) != 0) square ^= 56;
+				if((t & 4) != 0) square = ((square >> 3) | (square << 3)) & 63;
+				turned.add(square);
+			}
+
+			long key = 0;
+			for(int i = 0; i < squares.length; i++) {
+				// Pieces of the same kind are next to each other in the table
+				int lowest = turned.get(i);
+				for(int j = i + 1; j < squares.length && pieces[j] == pieces[i]; j++) {
+					if(turned.get(j) < lowest) {
+						lowest = turned.get(j);
+						turned.set(j, turned.get(i));
+						turned.set(i, lowest);
+					}
+				}
+				key = (key << 6) | lowest;
+			}
+			best = Math.min(best, key);
+		}
+		return best;
+	}
+
+	/**
+	 * @return The board part of a FEN with the pieces on the squares, turned
+	 *         around if flip is set
+	 */
+	private static String fen(int[] squares, String pieces, boolean flip) {
+		char[] board = new char[64];
+		for(int i = 0; i < 64; i++) board[i] = '.';
+		for(int i = 0; i < squares.length; i++) board[flip ? squares[i] ^ 56 : squares[i]] = pieces.charAt(i);
+
+		StringBuilder fen = new StringBuilder();
+		for(int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for(int file = 0; file < 8; file++) {
+				char square = board[rank*8 + file];
+				if(square == '.') {
+					empty++;
+				} else {
+					if(empty != 0) fen.append(empty);
+					empty = 0;
+					fen.append(square);
+				}
+			}
+			if(empty != 0) fen.append(empty);
+			if(rank != 0) fen.append('/');
+		}
+		return fen.toString();
+	}
+
+	/**
+	 * @return The value stored at the index of the compressed KQvK part
+	 */
+	private static int value(long index) {
+		long r = (index*2654435761L) % 97;
+		return (r < 50) ? 2 : (int)(r % 5);
+	}
+
+	/**
+	 * Writes a win/draw/loss table with both sides to move. Every part has
+	 * one value, (file + side to move) % 5, except white to move on the
+	 * first file which is the compressed part if given.
+	 *
+	 * @param pieces
+	 *            Table piece codes (P1 N2 B3 R4 Q5 K6, black +8)
+	 * @param compressed
+	 *            The header, sparse index, block lengths and blocks of a
+	 *            compressed part
+	 */
+	private void writeTable(String name, int[] pieces, boolean hasPawns, byte[][] compressed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {0x71, (byte)0xE8, 0x23, 0x5D});
+		out.write(1 | (hasPawns ? 2 : 0)); // Split, both sides to move
+		int files = hasPawns ? 4 : 1;
+		for(int f = 0; f < files; f++) {
+			out.write(0); // Order of the groups
+			for(int piece : pieces) out.write(piece | (piece << 4));
+		}
+		if((out.size() & 1) != 0) out.write(0);
+
+		for(int f = 0; f < files; f++) {
+			for(int i = 0; i < 2; i++) {
+				if(compressed != null && f == 0 && i == 0) {
+					out.write(compressed[0]);
+				} else {
+					out.write(0x80); // Single value
+					out.write((f + i) % 5);
+				}
+			}
+		}
+		if(compressed != null) {
+			out.write(compressed[1]);
+			out.write(compressed[2]);
+			while(out.size() % 64 != 0) out.write(0);
+			out.write(compressed[3]);
+		}
+		out.write(new byte[128]);
+
+		FileOutputStream file = new FileOutputStream(new File(directory, name + ".rtbw"));
+		try {
+			out.writeTo(file);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Compresses value(0) to value(size - 1) with six symbols: the values 0,
+	 * 1, 3 and 4 with three bits, 2 with two bits and two 2s with two bits
+	 *
+	 * @return The header, sparse index, block lengths and blocks
+	 */
+	private static byte[][] compressed(int size) {
+		final int blockBits = 6;
+		final int spanBits = 6;
+		final int blockSize = 1 << blockBits;
+		final int[] symbolOf = {0, 1, 4, 2, 3}; // Symbol of a single value
+		final int[] codes = {0, 1, 2, 3, 2, 3};
+		final int[] lengths = {3, 3, 3, 3, 2, 2};
+
+		List<StringBuilder> blocks = new ArrayList<StringBuilder>();
+		List<Integer> counts = new ArrayList<Integer>();
+		StringBuilder bits = new StringBuilder();
+		int count = 0;
+		for(int i = 0; i < size;) {
+			int symbol = symbolOf[value(i)];
+			int values = 1;
+			if(value(i) == 2 && i + 1 < size && value(i + 1) == 2) {
+				symbol = 5;
+				values = 2;
+			}
+			if(bits.length() + lengths[symbol] > blockSize*8) {
+				blocks.add(bits);
+				counts.add(count);
+				bits = new StringBuilder();
+				count = 0;
+			}
+			for(int b = lengths[symbol] - 1; b >= 0; b--) bits.append(((codes[symbol] >> b) & 1) != 0 ? '1' : '0');
+			count += values;
+			i += values;
+		}
+		blocks.add(bits);
+		counts.add(count);
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(StringBuilder block : blocks) {
+			for(int i = 0; i < blockSize*8; i += 8) {
+				int value = 0;
+				for(int b = 0; b < 8; b++) value = (value << 1) | ((i + b < block.length() && block.charAt(i + b) == '1') ? 1 : 0);
+				data.write(value);
+			}
+		}
+
+		// Every sparse entry is the block and the offset in it of the value
+		// in the middle of its span
+		int span = 1 << spanBits;
+		ByteArrayOutputStream sparse = new ByteArrayOutputStream();
+		for(int k = 0; k < (size + span - 1)/span; k++) {
+			int target = k*span + span/2;
+			int block = 0;
+			int start = 0;
+			while(block + 1 < blocks.size() && start + counts.get(block) <= target) start += counts.get(block++);
+			writeLittle(sparse, block, 4);
+			writeLittle(sparse, Math.min(target - start, 65535), 2);
+		}
+
+		ByteArrayOutputStream lengthsOut = new ByteArrayOutputStream();
+		for(int blockCount : counts) writeLittle(lengthsOut, blockCount - 1, 2);
+		writeLittle(lengthsOut, 0, 2); // Padding
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		header.write(0); // Flags
+		header.write(blockBits);
+		header.write(spanBits);
+		header.write(1); // Padding of the block lengths
+		writeLittle(header, blocks.size(), 4);
+		header.write(3); // Longest symbol
+		header.write(2); // Shortest symbol
+		writeLittle(header, 4, 2); // Lowest symbol with two bits
+		writeLittle(header, 0, 2); // Lowest symbol with three bits
+		writeLittle(header, 6, 2); // Number of symbols
+		int[][] tree = {{0, 0xFFF}, {1, 0xFFF}, {3, 0xFFF}, {4, 0xFFF}, {2, 0xFFF}, {4, 4}};
+		for(int[] pair : tree) {
+			header.write(pair[0] & 0xFF);
+			header.write(((pair[0] >> 8) & 0xF) | ((pair[1] & 0xF) << 4));
+			header.write(pair[1] >> 4);
+		}
+		return new byte[][] {header.toByteArray(), sparse.toByteArray(), lengthsOut.toByteArray(), data.toByteArray()};
+	}
+
+	private static void writeLittle(ByteArrayOutputStream out, int value, int bytes) {
+		for(int i = 0; i < bytes; i++) out.write((value >> (8*i)) & 0xFF);
+	}
+}